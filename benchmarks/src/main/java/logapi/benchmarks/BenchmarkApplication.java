@@ -0,0 +1,61 @@
+package logapi.benchmarks;
+
+import logapi.beans.LogRecord;
+import logapi.service.ILogRecordService;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 基准测试使用的最小 Spring 容器：日志组件自动装配 + 不落库的 ILogRecordService
+ *
+ * @author wulang
+ **/
+@SpringBootConfiguration
+@EnableAutoConfiguration
+public class BenchmarkApplication {
+
+    public static ConfigurableApplicationContext start() {
+        return new SpringApplicationBuilder(BenchmarkApplication.class)
+                .web(WebApplicationType.NONE)
+                .logStartupInfo(false)
+                .properties("demo.log.enabled=true", "logging.level.root=WARN")
+                .run();
+    }
+
+    @Bean
+    public ILogRecordService recordService() {
+        return new NoopLogRecordService();
+    }
+
+    @Bean
+    public OrderService orderService() {
+        return new OrderService();
+    }
+
+    public static class NoopLogRecordService implements ILogRecordService {
+
+        private volatile LogRecord last;
+
+        @Override
+        public void record(LogRecord logRecord) {
+            last = logRecord;
+        }
+
+        @Override
+        public List<LogRecord> queryLog(String bizNo, String type) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public List<LogRecord> queryLogByBizNo(String bizNo, String type, String subType) {
+            return Collections.emptyList();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package logapi.benchmarks;
+
+import logapi.annotation.LogField;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 基准测试使用的 DTO：扁平、嵌套、集合较多三种形态
+ *
+ * @author wulang
+ **/
+public final class BenchmarkDtos {
+
+    private BenchmarkDtos() {
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Order {
+        @LogField(name = "订单号")
+        private String orderNo;
+        @LogField(name = "商品")
+        private String productName;
+        @LogField(name = "价格")
+        private Long price;
+        @LogField(name = "备注")
+        private String remark;
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class User {
+        @LogField(name = "用户ID")
+        private Long id;
+        @LogField(name = "用户名")
+        private String name;
+    }
+
+    @Data
+    @NoArgsConstructor
+    public static class NestedOrder {
+        @LogField(name = "订单号")
+        private String orderNo;
+        @LogField(name = "创建人")
+        private User creator;
+        @LogField(name = "修改人")
+        private User updater;
+        private Order detail;
+    }
+
+    @Data
+    @NoArgsConstructor
+    public static class CollectionOrder {
+        @LogField(name = "订单号")
+        private String orderNo;
+        @LogField(name = "商品列表")
+        private List<String> items = new ArrayList<>();
+        @LogField(name = "标签")
+        private String[] tags;
+    }
+
+    public static Order order(int i) {
+        return new Order("NO" + i, "product" + i, 100L + i, "remark" + i);
+    }
+
+    public static NestedOrder nestedOrder(int i) {
+        NestedOrder order = new NestedOrder();
+        order.setOrderNo("NO" + i);
+        order.setCreator(new User((long) i, "creator" + i));
+        order.setUpdater(new User((long) i + 1, "updater" + i));
+        order.setDetail(order(i));
+        return order;
+    }
+
+    public static CollectionOrder collectionOrder(int size, int offset) {
+        CollectionOrder order = new CollectionOrder();
+        order.setOrderNo("NO" + offset);
+        for (int i = 0; i < size; i++) {
+            order.getItems().add("item" + (i + offset));
+        }
+        order.setTags(new String[]{"tag" + offset, "tag" + (offset + 1)});
+        return order;
+    }
+}
@@ -0,0 +1,60 @@
+package logapi.benchmarks;
+
+import logapi.service.impl.DiffParseFunction;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DiffParseFunction.diff 在扁平、嵌套、集合较多（2000 个元素）三种 DTO 上的耗时
+ *
+ * @author wulang
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DiffBenchmark {
+
+    @Param({"flat", "nested", "collection"})
+    private String shape;
+
+    private ConfigurableApplicationContext context;
+    private DiffParseFunction diffParseFunction;
+    private Object source;
+    private Object target;
+
+    @Setup
+    public void setUp() {
+        context = BenchmarkApplication.start();
+        diffParseFunction = context.getBean(DiffParseFunction.class);
+        switch (shape) {
+            case "nested":
+                source = BenchmarkDtos.nestedOrder(1);
+                target = BenchmarkDtos.nestedOrder(2);
+                break;
+            case "collection":
+                source = BenchmarkDtos.collectionOrder(2000, 0);
+                target = BenchmarkDtos.collectionOrder(2000, 10);
+                break;
+            case "flat":
+            default:
+                source = BenchmarkDtos.order(1);
+                target = BenchmarkDtos.order(2);
+                break;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public String diff() {
+        return diffParseFunction.diff(source, target);
+    }
+}
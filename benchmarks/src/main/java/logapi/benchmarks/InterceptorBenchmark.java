@@ -0,0 +1,57 @@
+package logapi.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LogRecordInterceptor 端到端耗时：代理调用 -> 切面 -> 模版解析 -> 空的 ILogRecordService
+ * notLogged 是同一个代理上没有 @LogRecord 的方法，作为基线
+ *
+ * @author wulang
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InterceptorBenchmark {
+
+    private ConfigurableApplicationContext context;
+    private OrderService orderService;
+    private BenchmarkDtos.Order order;
+
+    @Setup
+    public void setUp() {
+        context = BenchmarkApplication.start();
+        orderService = context.getBean(OrderService.class);
+        order = BenchmarkDtos.order(1);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Object notLogged() {
+        return orderService.notLogged(order, "operator");
+    }
+
+    @Benchmark
+    public Object logged() {
+        return orderService.update(order, "operator");
+    }
+
+    @Benchmark
+    public Object loggedWithCondition() {
+        return orderService.updateWithCondition(order, "operator");
+    }
+
+    @Benchmark
+    public Object loggedWithDiff() {
+        return orderService.updateWithDiff(order, "operator");
+    }
+}
@@ -0,0 +1,44 @@
+package logapi.benchmarks;
+
+import logapi.aop.LogRecordOperationAssist;
+import logapi.beans.LogRecordMeta;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LogRecordOperationAssist 查找方法上的日志配置，分别是有注解和没有注解的方法
+ *
+ * @author wulang
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OperationAssistBenchmark {
+
+    private LogRecordOperationAssist operationAssist;
+    private Method loggedMethod;
+    private Method notLoggedMethod;
+
+    @Setup
+    public void setUp() throws NoSuchMethodException {
+        operationAssist = new LogRecordOperationAssist();
+        loggedMethod = OrderService.class.getMethod("update", BenchmarkDtos.Order.class, String.class);
+        notLoggedMethod = OrderService.class.getMethod("notLogged", BenchmarkDtos.Order.class, String.class);
+    }
+
+    @Benchmark
+    public Collection<LogRecordMeta> logged() {
+        return operationAssist.computeLogRecordOperations(loggedMethod, OrderService.class);
+    }
+
+    @Benchmark
+    public Collection<LogRecordMeta> notLogged() {
+        return operationAssist.computeLogRecordOperations(notLoggedMethod, OrderService.class);
+    }
+}
@@ -0,0 +1,31 @@
+package logapi.benchmarks;
+
+import logapi.annotation.LogRecord;
+
+/**
+ * @author wulang
+ **/
+public class OrderService {
+
+    public static final String SUCCESS_TEMPLATE = "修改了订单{{#order.orderNo}}，商品【{{#order.productName}}】";
+
+    @LogRecord(success = SUCCESS_TEMPLATE, bizType = "order", bizNo = "{{#order.orderNo}}", operator = "{{#operator}}")
+    public BenchmarkDtos.Order update(BenchmarkDtos.Order order, String operator) {
+        return order;
+    }
+
+    @LogRecord(success = SUCCESS_TEMPLATE, bizType = "order", bizNo = "{{#order.orderNo}}", operator = "{{#operator}}",
+            condition = "{{#order.price > 100}}")
+    public BenchmarkDtos.Order updateWithCondition(BenchmarkDtos.Order order, String operator) {
+        return order;
+    }
+
+    @LogRecord(success = "修改了订单：{_DIFF{#order}}", bizType = "order", bizNo = "{{#order.orderNo}}", operator = "{{#operator}}")
+    public BenchmarkDtos.Order updateWithDiff(BenchmarkDtos.Order order, String operator) {
+        return order;
+    }
+
+    public BenchmarkDtos.Order notLogged(BenchmarkDtos.Order order, String operator) {
+        return order;
+    }
+}
@@ -0,0 +1,69 @@
+package logapi.benchmarks;
+
+import logapi.beans.MethodExecuteResult;
+import logapi.parse.LogRecordValueParser;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LogRecordValueParser.processTemplate 在 1、5、20 个占位符下的耗时
+ *
+ * @author wulang
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TemplateBenchmark {
+
+    @Param({"1", "5", "20"})
+    private int placeholders;
+
+    private ConfigurableApplicationContext context;
+    private LogRecordValueParser valueParser;
+    private Method method;
+    private Object[] args;
+    private Object result;
+    private Collection<String> templates;
+
+    @Setup
+    public void setUp() throws NoSuchMethodException {
+        context = BenchmarkApplication.start();
+        valueParser = context.getBean(LogRecordValueParser.class);
+        method = OrderService.class.getMethod("update", BenchmarkDtos.Order.class, String.class);
+        args = new Object[]{BenchmarkDtos.order(1), "operator"};
+        result = BenchmarkDtos.order(1);
+        templates = Collections.singletonList(template(placeholders));
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Map<String, String> processTemplate() {
+        // 与拦截器一样每次调用新建 MethodExecuteResult，SpEL 上下文不会跨调用复用
+        MethodExecuteResult methodExecuteResult = new MethodExecuteResult(method, args, OrderService.class);
+        methodExecuteResult.setResult(result);
+        methodExecuteResult.setSuccess(true);
+        return valueParser.processTemplate(templates, methodExecuteResult, Collections.emptyMap());
+    }
+
+    private static String template(int placeholders) {
+        String[] expressions = {"#order.orderNo", "#order.productName", "#order.price", "#operator", "#_ret.remark"};
+        StringBuilder template = new StringBuilder("修改了订单");
+        for (int i = 0; i < placeholders; i++) {
+            template.append("，字段").append(i).append("【{{").append(expressions[i % expressions.length]).append("}}】");
+        }
+        return template.toString();
+    }
+}
@@ -0,0 +1,471 @@
+package logapi.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 编译期解析 @LogRecord 模版，为每个带 @LogRecord 方法的类生成一个 LogRecordExpressionProvider，
+ * 把 #var.a.b、#var?.a、#_ret.a 这样的属性路径翻译成直接的 getter 调用，并生成 ServiceLoader 的注册文件
+ * 只处理能在编译期确定每一步 getter 的路径：方法调用、运算符、集合下标、#root、找不到 getter 的属性等都不生成代码，运行时仍然由 SpEL 求值
+ * 依赖 getter 已经存在，和 lombok 一起使用时需要排在 lombok 之后
+ *
+ * @author wulang
+ **/
+@SupportedAnnotationTypes({LogRecordExpressionProcessor.LOG_RECORD, LogRecordExpressionProcessor.LOG_RECORDS})
+public class LogRecordExpressionProcessor extends AbstractProcessor {
+
+    static final String LOG_RECORD = "logapi.annotation.LogRecord";
+    static final String LOG_RECORDS = "logapi.annotation.LogRecords";
+
+    private static final String PROVIDER = "logapi.parse.LogRecordExpressionProvider";
+    private static final String SERVICE_FILE = "META-INF/services/" + PROVIDER;
+    private static final String GENERATED_SUFFIX = "_LogRecordExpressions";
+    private static final String FALLBACK = "logapi.parse.LogRecordCompiledExpression.FALLBACK";
+    private static final String DIFF_FUNCTION_NAME = "_DIFF";
+
+    /**
+     * 与 LogRecordValueParser 解析模版的正则一致
+     */
+    private static final Pattern TEMPLATE_PATTERN = Pattern.compile("\\{\\s*(\\w*)\\s*\\{(.*?)}}");
+    private static final Pattern PATH_PATTERN = Pattern.compile("#(\\w+)((?:\\??\\.\\w+)*)");
+    private static final Pattern STEP_PATTERN = Pattern.compile("(\\??)\\.(\\w+)");
+    private static final Pattern INDEXED_ARGUMENT_PATTERN = Pattern.compile("[ap](\\d+)");
+    private static final List<String> TEMPLATE_ATTRIBUTES = Arrays.asList("success", "fail", "operator", "bizType",
+            "subBizType", "bizNo", "extra", "condition", "successCondition");
+
+    private final Set<String> providerNames = new LinkedHashSet<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (roundEnv.processingOver()) {
+            writeServiceFile();
+            return false;
+        }
+        Map<TypeElement, Set<ExecutableElement>> methodsByClass = new LinkedHashMap<>();
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() != ElementKind.METHOD || element.getEnclosingElement().getKind() != ElementKind.CLASS) {
+                    continue;
+                }
+                methodsByClass.computeIfAbsent((TypeElement) element.getEnclosingElement(), k -> new LinkedHashSet<>())
+                        .add((ExecutableElement) element);
+            }
+        }
+        for (Map.Entry<TypeElement, Set<ExecutableElement>> entry : methodsByClass.entrySet()) {
+            try {
+                generate(entry.getKey(), entry.getValue());
+            } catch (IOException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                        "generate log record expressions failed: " + e.getMessage(), entry.getKey());
+            }
+        }
+        // 不独占注解，其他处理器仍然可以处理 @LogRecord
+        return false;
+    }
+
+    private void generate(TypeElement type, Set<ExecutableElement> methods) throws IOException {
+        PackageElement packageElement = processingEnv.getElementUtils().getPackageOf(type);
+        if (!isAccessible(type, packageElement)) {
+            return;
+        }
+        StringBuilder body = new StringBuilder();
+        for (ExecutableElement method : methods) {
+            // 与切面一致，只拦截 public 的实例方法
+            if (!method.getModifiers().contains(Modifier.PUBLIC) || method.getModifiers().contains(Modifier.STATIC)) {
+                continue;
+            }
+            String methodKey = methodKeySource(type, method, packageElement);
+            if (methodKey == null) {
+                continue;
+            }
+            Map<String, String> expressions = new LinkedHashMap<>();
+            for (String expression : collectExpressions(method)) {
+                if (expressions.containsKey(expression)) {
+                    continue;
+                }
+                String code = compileExpression(method, expression, packageElement);
+                if (code != null) {
+                    expressions.put(expression, code);
+                }
+            }
+            if (expressions.isEmpty()) {
+                continue;
+            }
+            body.append("        expressions = new java.util.HashMap<>();\n");
+            for (Map.Entry<String, String> expression : expressions.entrySet()) {
+                body.append("        expressions.put(").append(stringLiteral(expression.getKey()))
+                        .append(", (args, ret, errorMsg) -> {\n")
+                        .append(expression.getValue())
+                        .append("        });\n");
+            }
+            body.append("        methods.put(").append(methodKey).append(", expressions);\n");
+        }
+        if (body.length() == 0) {
+            return;
+        }
+        String packageName = packageElement.isUnnamed() ? "" : packageElement.getQualifiedName().toString();
+        String simpleName = generatedSimpleName(type);
+        String qualifiedName = packageName.isEmpty() ? simpleName : packageName + "." + simpleName;
+        JavaFileObject sourceFile = processingEnv.getFiler().createSourceFile(qualifiedName, type);
+        try (Writer writer = sourceFile.openWriter()) {
+            if (!packageName.isEmpty()) {
+                writer.write("package " + packageName + ";\n\n");
+            }
+            writer.write("/**\n * 由 LogRecordExpressionProcessor 根据 " + type.getQualifiedName() + " 的 @LogRecord 模版生成，不要修改\n */\n");
+            writer.write("public final class " + simpleName + " implements " + PROVIDER + " {\n\n");
+            writer.write("    @Override\n");
+            writer.write("    public java.util.Map<String, java.util.Map<String, logapi.parse.LogRecordCompiledExpression>> getExpressions() {\n");
+            writer.write("        java.util.Map<String, java.util.Map<String, logapi.parse.LogRecordCompiledExpression>> methods = new java.util.HashMap<>();\n");
+            writer.write("        java.util.Map<String, logapi.parse.LogRecordCompiledExpression> expressions;\n");
+            writer.write(body.toString());
+            writer.write("        return methods;\n");
+            writer.write("    }\n");
+            writer.write("}\n");
+        }
+        providerNames.add(qualifiedName);
+    }
+
+    /**
+     * 模版里所有的 SpEL 表达式字符串，拆分方式与 LogRecordValueParser 一致，保证运行时能按字符串找到
+     */
+    private Set<String> collectExpressions(ExecutableElement method) {
+        Set<String> expressions = new LinkedHashSet<>();
+        for (AnnotationMirror annotation : method.getAnnotationMirrors()) {
+            String annotationName = ((TypeElement) annotation.getAnnotationType().asElement()).getQualifiedName().toString();
+            if (LOG_RECORD.equals(annotationName)) {
+                collectExpressions(annotation, expressions);
+            } else if (LOG_RECORDS.equals(annotationName)) {
+                for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : annotation.getElementValues().entrySet()) {
+                    if (!"value".contentEquals(entry.getKey().getSimpleName())) {
+                        continue;
+                    }
+                    for (Object value : (List<?>) entry.getValue().getValue()) {
+                        collectExpressions((AnnotationMirror) ((AnnotationValue) value).getValue(), expressions);
+                    }
+                }
+            }
+        }
+        return expressions;
+    }
+
+    private void collectExpressions(AnnotationMirror annotation, Set<String> expressions) {
+        Map<? extends ExecutableElement, ? extends AnnotationValue> values =
+                processingEnv.getElementUtils().getElementValuesWithDefaults(annotation);
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : values.entrySet()) {
+            if (!TEMPLATE_ATTRIBUTES.contains(entry.getKey().getSimpleName().toString())) {
+                continue;
+            }
+            String template = String.valueOf(entry.getValue().getValue());
+            if (!template.contains("{")) {
+                continue;
+            }
+            Matcher matcher = TEMPLATE_PATTERN.matcher(template);
+            while (matcher.find()) {
+                String functionName = matcher.group(1);
+                String expression = matcher.group(2);
+                if (DIFF_FUNCTION_NAME.equals(functionName) && expression.indexOf(',') >= 0
+                        && expression.indexOf(',') == expression.lastIndexOf(',')) {
+                    expressions.addAll(Arrays.asList(expression.split(",")));
+                } else {
+                    expressions.add(expression);
+                }
+            }
+        }
+    }
+
+    /**
+     * 把属性路径翻译成 lambda 的方法体
+     *
+     * @return 方法体源码，路径无法在编译期确定时返回 null
+     */
+    private String compileExpression(ExecutableElement method, String expression, PackageElement packageElement) {
+        Matcher matcher = PATH_PATTERN.matcher(expression.trim());
+        if (!matcher.matches()) {
+            return null;
+        }
+        String variableName = matcher.group(1);
+        StringBuilder code = new StringBuilder();
+        String source;
+        TypeMirror rootType;
+        if ("_ret".equals(variableName)) {
+            rootType = method.getReturnType();
+            if (rootType.getKind() == TypeKind.VOID) {
+                return null;
+            }
+            source = "ret";
+        } else if ("_errorMsg".equals(variableName)) {
+            rootType = processingEnv.getElementUtils().getTypeElement(String.class.getName()).asType();
+            source = "errorMsg";
+        } else {
+            int index = parameterIndex(method, variableName);
+            if (index < 0) {
+                return null;
+            }
+            rootType = method.getParameters().get(index).asType();
+            source = "args[" + index + "]";
+            // span 里的同名变量优先于方法参数，参数为 null 时全局变量生效
+            code.append("            if (logapi.parse.LogRecordCompiledExpressions.isShadowed(")
+                    .append(stringLiteral(variableName)).append(", ").append(source).append(")) {\n")
+                    .append("                return ").append(FALLBACK).append(";\n")
+                    .append("            }\n");
+        }
+        List<String[]> steps = new ArrayList<>();
+        Matcher stepMatcher = STEP_PATTERN.matcher(matcher.group(2));
+        while (stepMatcher.find()) {
+            steps.add(new String[]{stepMatcher.group(1), stepMatcher.group(2)});
+        }
+        if (steps.isEmpty()) {
+            code.append("            return ").append(source).append(";\n");
+            return code.toString();
+        }
+        TypeMirror currentType = processingEnv.getTypeUtils().erasure(rootType);
+        if (!isAccessible(currentType, packageElement)) {
+            return null;
+        }
+        code.append("            ").append(currentType).append(" v0 = (").append(currentType).append(") ").append(source).append(";\n");
+        for (int i = 0; i < steps.size(); i++) {
+            boolean safeNavigation = !steps.get(i)[0].isEmpty();
+            ExecutableElement getter = findGetter(currentType, steps.get(i)[1]);
+            if (getter == null) {
+                return null;
+            }
+            // 非安全导航遇到 null 时 SpEL 抛出异常，交给 SpEL 保持一致
+            code.append("            if (v").append(i).append(" == null) {\n")
+                    .append("                return ").append(safeNavigation ? "null" : FALLBACK).append(";\n")
+                    .append("            }\n");
+            if (i == steps.size() - 1) {
+                code.append("            return v").append(i).append('.').append(getter.getSimpleName()).append("();\n");
+                break;
+            }
+            TypeMirror returnType = processingEnv.getTypeUtils().erasure(
+                    ((ExecutableType) processingEnv.getTypeUtils()
+                            .asMemberOf((DeclaredType) currentType, getter)).getReturnType());
+            if (returnType.getKind() != TypeKind.DECLARED || !isAccessible(returnType, packageElement)) {
+                return null;
+            }
+            code.append("            ").append(returnType).append(" v").append(i + 1).append(" = v").append(i)
+                    .append('.').append(getter.getSimpleName()).append("();\n");
+            currentType = returnType;
+        }
+        return code.toString();
+    }
+
+    /**
+     * 参数名，或者 a0/p0 这样的下标形式
+     */
+    private int parameterIndex(ExecutableElement method, String variableName) {
+        List<? extends VariableElement> parameters = method.getParameters();
+        for (int i = 0; i < parameters.size(); i++) {
+            if (parameters.get(i).getSimpleName().contentEquals(variableName)) {
+                return i;
+            }
+        }
+        Matcher matcher = INDEXED_ARGUMENT_PATTERN.matcher(variableName);
+        if (matcher.matches()) {
+            int index = Integer.parseInt(matcher.group(1));
+            return index < parameters.size() ? index : -1;
+        }
+        return -1;
+    }
+
+    /**
+     * 与 SpEL 的 ReflectivePropertyAccessor 一致，先找 getXxx，再找返回布尔值的 isXxx；只找 public 的实例方法
+     */
+    private ExecutableElement findGetter(TypeMirror type, String property) {
+        if (type.getKind() != TypeKind.DECLARED) {
+            return null;
+        }
+        TypeElement typeElement = (TypeElement) ((DeclaredType) type).asElement();
+        String suffix = Character.toUpperCase(property.charAt(0)) + property.substring(1);
+        ExecutableElement isGetter = null;
+        for (ExecutableElement method : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(typeElement))) {
+            if (!method.getParameters().isEmpty() || !method.getModifiers().contains(Modifier.PUBLIC)
+                    || method.getModifiers().contains(Modifier.STATIC) || method.getReturnType().getKind() == TypeKind.VOID) {
+                continue;
+            }
+            String name = method.getSimpleName().toString();
+            if (name.equals("get" + suffix)) {
+                return method;
+            }
+            if (name.equals("is" + suffix) && isBoolean(method.getReturnType())) {
+                isGetter = method;
+            }
+        }
+        return isGetter;
+    }
+
+    private boolean isBoolean(TypeMirror type) {
+        return type.getKind() == TypeKind.BOOLEAN || Boolean.class.getName().equals(type.toString());
+    }
+
+    /**
+     * 生成的 methods.put 的 key，参数类型用 class 字面量，运行时与 Method 计算出的 key 一致
+     */
+    private String methodKeySource(TypeElement type, ExecutableElement method, PackageElement packageElement) {
+        StringBuilder key = new StringBuilder("logapi.parse.LogRecordCompiledExpressions.methodKey(")
+                .append(processingEnv.getTypeUtils().erasure(type.asType())).append(".class, ")
+                .append(stringLiteral(method.getSimpleName().toString()));
+        for (VariableElement parameter : method.getParameters()) {
+            TypeMirror parameterType = processingEnv.getTypeUtils().erasure(parameter.asType());
+            if (!isAccessible(parameterType, packageElement)) {
+                return null;
+            }
+            key.append(", ").append(parameterType).append(".class");
+        }
+        return key.append(')').toString();
+    }
+
+    private boolean isAccessible(TypeMirror type, PackageElement packageElement) {
+        if (type.getKind().isPrimitive()) {
+            return true;
+        }
+        if (type.getKind() == TypeKind.ARRAY) {
+            return isAccessible(((ArrayType) type).getComponentType(), packageElement);
+        }
+        if (type.getKind() != TypeKind.DECLARED) {
+            return false;
+        }
+        return isAccessible((TypeElement) ((DeclaredType) type).asElement(), packageElement);
+    }
+
+    /**
+     * 生成的类和目标类在同一个包里：类型本身以及外层类都必须是 public，或者在同一个包里且不是 private
+     */
+    private boolean isAccessible(TypeElement typeElement, PackageElement packageElement) {
+        Element current = typeElement;
+        while (current instanceof TypeElement) {
+            TypeElement currentType = (TypeElement) current;
+            if (currentType.getNestingKind() == NestingKind.LOCAL || currentType.getNestingKind() == NestingKind.ANONYMOUS) {
+                return false;
+            }
+            Set<Modifier> modifiers = currentType.getModifiers();
+            if (modifiers.contains(Modifier.PRIVATE)) {
+                return false;
+            }
+            if (!modifiers.contains(Modifier.PUBLIC)
+                    && !processingEnv.getElementUtils().getPackageOf(currentType).equals(packageElement)) {
+                return false;
+            }
+            current = currentType.getEnclosingElement();
+        }
+        return true;
+    }
+
+    private String generatedSimpleName(TypeElement type) {
+        StringBuilder name = new StringBuilder(type.getSimpleName());
+        Element enclosing = type.getEnclosingElement();
+        while (enclosing instanceof TypeElement) {
+            name.insert(0, ((TypeElement) enclosing).getSimpleName() + "_");
+            enclosing = enclosing.getEnclosingElement();
+        }
+        return name.append(GENERATED_SUFFIX).toString();
+    }
+
+    /**
+     * 增量编译时只有部分类重新生成，合并已有的注册文件；已经删除的类在运行时加载失败后会被跳过
+     */
+    private void writeServiceFile() {
+        if (providerNames.isEmpty()) {
+            return;
+        }
+        Set<String> names = new LinkedHashSet<>();
+        try {
+            FileObject existing = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", SERVICE_FILE);
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(existing.openInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.trim().isEmpty()) {
+                        names.add(line.trim());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // 第一次编译，没有已有的注册文件
+        }
+        names.addAll(providerNames);
+        try {
+            FileObject serviceFile = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", SERVICE_FILE);
+            try (Writer writer = new OutputStreamWriter(serviceFile.openOutputStream(), StandardCharsets.UTF_8)) {
+                for (String name : names) {
+                    writer.write(name);
+                    writer.write('\n');
+                }
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, "write " + SERVICE_FILE + " failed: " + e.getMessage());
+        }
+    }
+
+    private static String stringLiteral(String value) {
+        StringBuilder literal = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    literal.append("\\\"");
+                    break;
+                case '\\':
+                    literal.append("\\\\");
+                    break;
+                case '\n':
+                    literal.append("\\n");
+                    break;
+                case '\r':
+                    literal.append("\\r");
+                    break;
+                case '\t':
+                    literal.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20 || c > 0x7e) {
+                        literal.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        literal.append(c);
+                    }
+            }
+        }
+        return literal.append('"').toString();
+    }
+}
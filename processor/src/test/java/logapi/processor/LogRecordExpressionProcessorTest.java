@@ -0,0 +1,239 @@
+package logapi.processor;
+
+import com.google.testing.compile.Compilation;
+import com.google.testing.compile.JavaFileObjects;
+import com.mzt.logapi.context.LogRecordContext;
+import logapi.parse.LogRecordCompiledExpression;
+import logapi.parse.LogRecordCompiledExpressions;
+import logapi.parse.LogRecordExpressionProvider;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.tools.JavaFileObject;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static com.google.testing.compile.CompilationSubject.assertThat;
+import static com.google.testing.compile.Compiler.javac;
+import static org.junit.jupiter.api.Assertions.*;
+
+class LogRecordExpressionProcessorTest {
+
+    private static final String GENERATED = "logapi.processor.OrderService_LogRecordExpressions";
+
+    private static final JavaFileObject ORDER_SERVICE = JavaFileObjects.forSourceLines("logapi.processor.OrderService",
+            "package logapi.processor;",
+            "",
+            "import logapi.annotation.LogRecord;",
+            "import logapi.processor.LogRecordExpressionProcessorTest.Order;",
+            "",
+            "public class OrderService {",
+            "",
+            "    @LogRecord(success = \"修改了订单{{#order.customer.name}}，会员{{#order.customer.vip}}，已支付{{#order?.payment?.paid}}\",",
+            "            bizType = \"ORDER\", bizNo = \"{{#order.id}}\", operator = \"{{#p0.customer.name}}\",",
+            "            extra = \"{{#order.remark()}}{{#order.missing}}{{#_ret}}\")",
+            "    public String update(Order order) {",
+            "        return null;",
+            "    }",
+            "}");
+
+    private Compilation compilation;
+    private Map<String, LogRecordCompiledExpression> expressions;
+
+    @BeforeEach
+    void compile() throws Exception {
+        compilation = javac().withProcessors(new LogRecordExpressionProcessor()).compile(ORDER_SERVICE);
+        assertThat(compilation).succeeded();
+
+        ClassLoader classLoader = new GeneratedClassLoader(compilation);
+        LogRecordExpressionProvider provider = (LogRecordExpressionProvider) classLoader.loadClass(GENERATED).newInstance();
+        Map<String, Map<String, LogRecordCompiledExpression>> methods = provider.getExpressions();
+        // 生成的 key 和运行时按 Method 计算的 key 一致
+        String methodKey = LogRecordCompiledExpressions.methodKey(classLoader.loadClass("logapi.processor.OrderService"),
+                "update", Order.class);
+        assertEquals(1, methods.size());
+        expressions = methods.get(methodKey);
+        assertNotNull(expressions);
+    }
+
+    @AfterEach
+    void clearContext() {
+        LogRecordContext.clear();
+        LogRecordContext.clearGlobal();
+    }
+
+    @Test
+    void resolvesGetterPaths() {
+        Order order = new Order(1L, new Customer("张三", true), null);
+
+        assertEquals(1L, evaluate("#order.id", order));
+        assertEquals("张三", evaluate("#order.customer.name", order));
+        // 布尔属性和 SpEL 一样找 isXxx
+        assertEquals(true, evaluate("#order.customer.vip", order));
+        // a0/p0 形式的参数
+        assertEquals("张三", evaluate("#p0.customer.name", order));
+        assertEquals("ok", expressions.get("#_ret").getValue(new Object[]{order}, "ok", null));
+        String serviceFile = contents(generatedFile(compilation, "META-INF/services/logapi.parse.LogRecordExpressionProvider"));
+        assertEquals(GENERATED, serviceFile.trim());
+    }
+
+    @Test
+    void leavesUnresolvablePathsToSpel() {
+        // 方法调用、找不到 getter 的属性不生成代码
+        assertFalse(expressions.containsKey("#order.remark()"));
+        assertFalse(expressions.containsKey("#order.missing"));
+        assertEquals(6, expressions.size());
+    }
+
+    @Test
+    void safeNavigationReturnsNull() {
+        assertNull(evaluate("#order?.payment?.paid", new Order(1L, null, null)));
+        assertNull(evaluate("#order?.payment?.paid", null));
+        assertEquals(Boolean.TRUE, evaluate("#order?.payment?.paid", new Order(1L, null, new Payment(true))));
+    }
+
+    @Test
+    void nullWithoutSafeNavigationFallsBack() {
+        // SpEL 在这里抛出异常，生成的代码交回 SpEL 处理
+        assertSame(LogRecordCompiledExpression.FALLBACK, evaluate("#order.customer.name", new Order(1L, null, null)));
+        assertSame(LogRecordCompiledExpression.FALLBACK, evaluate("#order.id", null));
+    }
+
+    @Test
+    void shadowedVariableFallsBack() {
+        Order order = new Order(1L, new Customer("张三", false), null);
+
+        LogRecordContext.putEmptySpan();
+        LogRecordContext.putVariable("order", new Order(2L, null, null));
+        // span 里的同名变量优先于方法参数
+        assertSame(LogRecordCompiledExpression.FALLBACK, evaluate("#order.id", order));
+        LogRecordContext.clear();
+
+        LogRecordContext.putGlobalVariable("order", new Order(3L, null, null));
+        // 全局变量只在参数为 null 时生效
+        assertEquals(1L, evaluate("#order.id", order));
+        assertSame(LogRecordCompiledExpression.FALLBACK, evaluate("#order?.payment?.paid", null));
+    }
+
+    private Object evaluate(String expression, Order order) {
+        LogRecordCompiledExpression compiled = expressions.get(expression);
+        assertNotNull(compiled, expression);
+        return compiled.getValue(new Object[]{order}, null, null);
+    }
+
+    private static JavaFileObject generatedFile(Compilation compilation, String path) {
+        for (JavaFileObject file : compilation.generatedFiles()) {
+            if (file.toUri().getPath().endsWith("/" + path)) {
+                return file;
+            }
+        }
+        return null;
+    }
+
+    private static String contents(JavaFileObject file) {
+        assertNotNull(file);
+        return new String(readAll(file), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readAll(JavaFileObject file) {
+        try (InputStream in = file.openInputStream()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 从编译结果里加载类，测试里的 Order 等类型仍然由测试的类加载器加载
+     */
+    private static final class GeneratedClassLoader extends ClassLoader {
+
+        private final Compilation compilation;
+
+        private GeneratedClassLoader(Compilation compilation) {
+            super(LogRecordExpressionProcessorTest.class.getClassLoader());
+            this.compilation = compilation;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            JavaFileObject file = generatedFile(compilation, name.replace('.', '/') + ".class");
+            if (file == null) {
+                throw new ClassNotFoundException(name);
+            }
+            byte[] bytes = readAll(file);
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    public static class Order {
+
+        private final Long id;
+        private final Customer customer;
+        private final Payment payment;
+
+        public Order(Long id, Customer customer, Payment payment) {
+            this.id = id;
+            this.customer = customer;
+            this.payment = payment;
+        }
+
+        public Long getId() {
+            return id;
+        }
+
+        public Customer getCustomer() {
+            return customer;
+        }
+
+        public Payment getPayment() {
+            return payment;
+        }
+
+        public String remark() {
+            return "remark";
+        }
+    }
+
+    public static class Customer {
+
+        private final String name;
+        private final boolean vip;
+
+        public Customer(String name, boolean vip) {
+            this.name = name;
+            this.vip = vip;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isVip() {
+            return vip;
+        }
+    }
+
+    public static class Payment {
+
+        private final Boolean paid;
+
+        public Payment(Boolean paid) {
+            this.paid = paid;
+        }
+
+        public Boolean isPaid() {
+            return paid;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package logapi.aop;
+
+import logapi.starter.LogRecordProperties;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 异步处理方法执行后的日志：模版解析、_DIFF、自定义函数和落库都在这里的工作线程上执行
+ * 固定线程数 + 有界队列，队列满时按 rejectPolicy 处理；关闭后提交的任务在调用线程上同步执行
+ *
+ * @author wulang
+ **/
+@Slf4j
+public class LogRecordAfterExecuteExecutor implements Executor {
+
+    private static final String THREAD_NAME_PREFIX = "log-record-worker-";
+    private static final long OFFER_TIMEOUT_MILLIS = 100;
+
+    private final ThreadPoolExecutor executor;
+    private final LogRecordProperties.RejectPolicy rejectPolicy;
+    private final long shutdownTimeoutMillis;
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    public LogRecordAfterExecuteExecutor(LogRecordProperties.AsyncAfterExecute config) {
+        int threads = Math.max(1, config.getThreads());
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(config.getQueueCapacity()), new WorkerThreadFactory(),
+                new ThreadPoolExecutor.AbortPolicy());
+        this.executor.prestartAllCoreThreads();
+        this.rejectPolicy = config.getRejectPolicy();
+        this.shutdownTimeoutMillis = config.getShutdownTimeout();
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (executor.isShutdown()) {
+            task.run();
+            return;
+        }
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            reject(task);
+        }
+    }
+
+    private void reject(Runnable task) {
+        if (executor.isShutdown()) {
+            // 提交的同时关闭了，工作线程不再接收任务
+            task.run();
+            return;
+        }
+        switch (rejectPolicy) {
+            case BLOCK:
+                try {
+                    // 线程数固定且已经预先启动，直接放进队列即可被执行；限时等待，关闭之后不再等待空位
+                    while (!executor.getQueue().offer(task, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                        if (executor.isShutdown()) {
+                            task.run();
+                            return;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    task.run();
+                    return;
+                }
+                // 入队的同时关闭了，工作线程可能已经退出，取回来同步执行
+                if (executor.isShutdown() && executor.remove(task)) {
+                    task.run();
+                }
+                break;
+            case DROP:
+                long dropped = droppedCount.incrementAndGet();
+                log.warn("log record worker queue is full, drop log, dropped={}", dropped);
+                break;
+            case CALLER_RUNS:
+            default:
+                task.run();
+                break;
+        }
+    }
+
+    /**
+     * @return 因队列满被丢弃的日志处理任务数
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * @return 队列中等待处理的任务数
+     */
+    public int getPendingCount() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * 停止接收新任务，并在 shutdownTimeout 内把队列中剩余的任务处理完
+     */
+    public void shutdown() {
+        if (executor.isShutdown()) {
+            return;
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(shutdownTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                log.error("log record worker shutdown timeout, {} logs not processed", executor.getQueue().size());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger index = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, THREAD_NAME_PREFIX + index.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -1,12 +1,13 @@
 package logapi.aop;
 
-import org.springframework.web.context.request.RequestContextHolder;
-import org.springframework.web.context.request.ServletRequestAttributes;
 import com.mzt.logapi.context.LogRecordContext;
+import logapi.context.LogRecordContextExecutors;
+import logapi.context.LogRecordRequestCache;
 import logapi.beans.CodeVariableType;
 import logapi.beans.LogRecord;
 import logapi.beans.LogRecordMeta;
 import logapi.beans.MethodExecuteResult;
+import logapi.beans.Operator;
 import logapi.parse.LogRecordValueParser;
 import logapi.service.ILogRecordPerformanceMonitor;
 import logapi.service.ILogRecordService;
@@ -24,17 +25,24 @@ import org.springframework.aop.support.AopUtils;
 import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Component;
 import org.springframework.util.CollectionUtils;
+import org.springframework.util.ConcurrentReferenceHashMap;
 import org.springframework.util.StopWatch;
 import org.springframework.util.StringUtils;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
-import javax.servlet.http.HttpServletRequest;
 import java.lang.reflect.Method;
 import java.util.*;
 
 import static logapi.service.ILogRecordPerformanceMonitor.MONITOR_NAME;
 import static logapi.service.ILogRecordPerformanceMonitor.MONITOR_TASK_AFTER_EXECUTE;
 import static logapi.service.ILogRecordPerformanceMonitor.MONITOR_TASK_BEFORE_EXECUTE;
+import static logapi.service.ILogRecordPerformanceMonitor.MONITOR_TASK_DIFF;
+import static logapi.service.ILogRecordPerformanceMonitor.MONITOR_TASK_OPERATOR;
+import static logapi.service.ILogRecordPerformanceMonitor.MONITOR_TASK_SINK;
+import static logapi.service.ILogRecordPerformanceMonitor.MONITOR_TASK_SUBMIT;
+import static logapi.service.ILogRecordPerformanceMonitor.MONITOR_TASK_TEMPLATE;
 
 
 /**
@@ -61,6 +69,42 @@ public class LogRecordInterceptor {
     @Resource
     private Environment environment;
 
+    /**
+     * 开启 async-after-execute 时的工作线程池，拦截器销毁时（早于它依赖的 ILogRecordService）处理完剩余任务
+     */
+    private LogRecordAfterExecuteExecutor afterExecuteExecutor;
+    private final Map<Method, Map<CodeVariableType, Object>> codeVariableCache = new ConcurrentReferenceHashMap<>(256);
+    private String applicationName;
+    /**
+     * 监控只实现了 print(StopWatch) 时仍然按阶段创建 StopWatch
+     */
+    private boolean stopWatchMonitor;
+
+    @PostConstruct
+    public void init() {
+        applicationName = environment.getProperty("spring.application.name");
+        stopWatchMonitor = !overridesRecord(logRecordPerformanceMonitor.getClass());
+        if (logRecordProperties.getAsyncAfterExecute().isEnabled()) {
+            afterExecuteExecutor = new LogRecordAfterExecuteExecutor(logRecordProperties.getAsyncAfterExecute());
+        }
+    }
+
+    private static boolean overridesRecord(Class<?> monitorClass) {
+        try {
+            Method record = monitorClass.getMethod("record", String.class, String.class, Method.class, long.class);
+            return record.getDeclaringClass() != ILogRecordPerformanceMonitor.class;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (afterExecuteExecutor != null) {
+            afterExecuteExecutor.shutdown();
+        }
+    }
+
 
     // 配置织入点
     @Pointcut("@annotation(logapi.annotation.LogRecord)")
@@ -91,22 +135,32 @@ public class LogRecordInterceptor {
         if (AopUtils.isAopProxy(target)) {
             return point.proceed();
         }
-        StopWatch stopWatch = new StopWatch(MONITOR_NAME);
-        stopWatch.start(MONITOR_TASK_BEFORE_EXECUTE);
+        long beforeStart = monitorStart();
+        StopWatch stopWatch = stopWatchMonitor ? new StopWatch(MONITOR_NAME) : null;
+        startStopWatch(stopWatch, MONITOR_TASK_BEFORE_EXECUTE);
         Class<?> targetClass = getTargetClass(target);
         Object ret = null;
+        // 一次调用共用一个 MethodExecuteResult，模版解析的 SpEL 上下文也挂在上面
         MethodExecuteResult methodExecuteResult = new MethodExecuteResult(method, args, targetClass);
         LogRecordContext.putEmptySpan();
         Collection<LogRecordMeta> operations = new ArrayList<>();
+        Set<LogRecordMeta> conditionCheckedOperations = Collections.emptySet();
         Map<String, String> functionNameAndReturnMap = new HashMap<>();
         try {
             operations = logRecordOperationSource.computeLogRecordOperations(method, targetClass);
-            List<String> spElTemplates = getBeforeExecuteFunctionTemplate(operations);
-            functionNameAndReturnMap = logRecordValueParser.processBeforeExecuteFunctionTemplate(spElTemplates, targetClass, method, args);
+            if (!CollectionUtils.isEmpty(operations)) {
+                conditionCheckedOperations = Collections.newSetFromMap(new IdentityHashMap<>(4));
+                operations = filterBeforeExecuteCondition(methodExecuteResult, operations, conditionCheckedOperations);
+            }
+            if (!CollectionUtils.isEmpty(operations)) {
+                List<String> spElTemplates = getBeforeExecuteFunctionTemplate(operations);
+                functionNameAndReturnMap = logRecordValueParser.processBeforeExecuteFunctionTemplate(spElTemplates, methodExecuteResult);
+            }
         } catch (Exception e) {
             log.error("log record parse before function exception", e);
         } finally {
-            stopWatch.stop();
+            stopStopWatch(stopWatch);
+            monitor(MONITOR_TASK_BEFORE_EXECUTE, getBizType(operations), method, beforeStart);
         }
 
         try {
@@ -118,23 +172,34 @@ public class LogRecordInterceptor {
             methodExecuteResult.setThrowable(e);
             methodExecuteResult.setErrorMsg(e.getMessage());
         }
-        stopWatch.start(MONITOR_TASK_AFTER_EXECUTE);
-        try {
-            if (!CollectionUtils.isEmpty(operations)) {
-                recordExecute(methodExecuteResult, functionNameAndReturnMap, operations);
-            }
-        } catch (Exception t) {
-            log.error("log record parse exception", t);
-            throw t;
-        } finally {
+        startStopWatch(stopWatch, MONITOR_TASK_AFTER_EXECUTE);
+        if (CollectionUtils.isEmpty(operations)) {
+            // 条件在方法执行前已经判定为 false，不需要再解析任何模版
             LogRecordContext.clear();
-            stopWatch.stop();
+        } else if (isAsyncAfterExecute()) {
+            long submitStart = monitorStart();
             try {
-                logRecordPerformanceMonitor.print(stopWatch);
-            } catch (Exception e) {
-                log.error("execute exception", e);
+                submitRecordExecute(methodExecuteResult, functionNameAndReturnMap, operations, conditionCheckedOperations);
+            } catch (Exception t) {
+                log.error("log record submit exception", t);
+            } finally {
+                LogRecordContext.clear();
+                monitor(MONITOR_TASK_SUBMIT, getBizType(operations), method, submitStart);
+            }
+        } else {
+            long afterStart = monitorStart();
+            try {
+                recordExecute(methodExecuteResult, functionNameAndReturnMap, operations, conditionCheckedOperations);
+            } catch (Exception t) {
+                log.error("log record parse exception", t);
+                throw t;
+            } finally {
+                LogRecordContext.clear();
+                monitor(MONITOR_TASK_AFTER_EXECUTE, getBizType(operations), method, afterStart);
+                printStopWatch(stopWatch);
             }
         }
+        printStopWatch(stopWatch);
 
         if (methodExecuteResult.getThrowable() != null) {
             throw methodExecuteResult.getThrowable();
@@ -142,6 +207,156 @@ public class LogRecordInterceptor {
         return ret;
     }
 
+    private boolean isAsyncAfterExecute() {
+        return afterExecuteExecutor != null && !logRecordProperties.isJoinTransaction();
+    }
+
+    /**
+     * 业务线程上只保存快照：方法参数、返回值、异常信息已经在 methodExecuteResult 里，
+     * 再取好只能在当前线程获取的请求 IP、操作人，LogRecordContext 的变量在提交时复制一份
+     * 参数和返回值对象本身不做深拷贝，方法返回后被修改会影响日志内容
+     */
+    private void submitRecordExecute(MethodExecuteResult methodExecuteResult, Map<String, String> functionNameAndReturnMap,
+                                     Collection<LogRecordMeta> operations, Set<LogRecordMeta> conditionCheckedOperations) {
+        methodExecuteResult.setCaller(getIp(), needsOperatorFromService(operations) ? getOperatorIdFromService() : null);
+        Method method = methodExecuteResult.getMethod();
+        afterExecuteExecutor.execute(LogRecordContextExecutors.wrap(() -> {
+            long afterStart = monitorStart();
+            try {
+                recordExecute(methodExecuteResult, functionNameAndReturnMap, operations, conditionCheckedOperations);
+            } catch (Exception t) {
+                log.error("log record async execute exception", t);
+            } finally {
+                monitor(MONITOR_TASK_AFTER_EXECUTE, getBizType(operations), method, afterStart);
+            }
+        }));
+    }
+
+    private boolean needsOperatorFromService(Collection<LogRecordMeta> operations) {
+        for (LogRecordMeta operation : operations) {
+            if (StringUtils.isEmpty(operation.getOperatorName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 同一个请求里只调用一次 IOperatorGetService
+     */
+    private String getOperatorIdFromService() {
+        LogRecordRequestCache requestCache = LogRecordRequestCache.current();
+        Operator operator = requestCache != null ? requestCache.getOperator(operatorGetService::getUser) : operatorGetService.getUser();
+        return operator == null ? null : operator.getOperatorId();
+    }
+
+    private void startStopWatch(StopWatch stopWatch, String task) {
+        if (stopWatch != null) {
+            stopWatch.start(task);
+        }
+    }
+
+    private void stopStopWatch(StopWatch stopWatch) {
+        if (stopWatch != null && stopWatch.isRunning()) {
+            stopWatch.stop();
+        }
+    }
+
+    /**
+     * 结束 after-execute 阶段并打印；同步落库抛异常时在 finally 里打印，已经停止的 stopWatch 不再重复打印
+     */
+    @SuppressWarnings("deprecation")
+    private void printStopWatch(StopWatch stopWatch) {
+        if (stopWatch == null || !stopWatch.isRunning()) {
+            return;
+        }
+        stopWatch.stop();
+        try {
+            logRecordPerformanceMonitor.print(stopWatch);
+        } catch (Exception e) {
+            log.error("execute exception", e);
+        }
+    }
+
+    private long monitorStart() {
+        return logRecordPerformanceMonitor.isEnabled() ? System.nanoTime() : 0L;
+    }
+
+    private void monitor(String stage, String bizType, Method method, long startNanos) {
+        if (!logRecordPerformanceMonitor.isEnabled()) {
+            return;
+        }
+        monitorNanos(stage, bizType, method, System.nanoTime() - startNanos);
+    }
+
+    private void monitorNanos(String stage, String bizType, Method method, long nanos) {
+        if (!logRecordPerformanceMonitor.isEnabled()) {
+            return;
+        }
+        try {
+            logRecordPerformanceMonitor.record(stage, bizType, method, nanos);
+        } catch (Exception e) {
+            log.error("execute exception", e);
+        }
+    }
+
+    /**
+     * 方法级别的阶段用第一个日志配置的 bizType 打标
+     */
+    private String getBizType(Collection<LogRecordMeta> operations) {
+        if (CollectionUtils.isEmpty(operations)) {
+            return "";
+        }
+        return operations.iterator().next().getBizType();
+    }
+
+    /**
+     * 模版解析耗时，其中 _DIFF 的耗时单独记录
+     */
+    private Map<String, String> processTemplateWithMonitor(MethodExecuteResult methodExecuteResult, LogRecordMeta operation,
+                                                           List<String> spElTemplates, Map<String, String> functionNameAndReturnMap) {
+        long start = monitorStart();
+        long diffNanosBefore = methodExecuteResult.getDiffNanos();
+        Map<String, String> expressionValues = logRecordValueParser.processTemplate(spElTemplates, methodExecuteResult, functionNameAndReturnMap);
+        if (logRecordPerformanceMonitor.isEnabled()) {
+            long diffNanos = methodExecuteResult.getDiffNanos() - diffNanosBefore;
+            monitorNanos(MONITOR_TASK_TEMPLATE, operation.getBizType(), methodExecuteResult.getMethod(), System.nanoTime() - start - diffNanos);
+            if (diffNanos > 0) {
+                monitorNanos(MONITOR_TASK_DIFF, operation.getBizType(), methodExecuteResult.getMethod(), diffNanos);
+            }
+        }
+        return expressionValues;
+    }
+
+    /**
+     * 只依赖方法参数的 condition 在方法执行前求值，为 false 的日志直接去掉，执行前函数和模版都不再解析
+     * 已经求值过的 condition 放进 conditionCheckedOperations，方法执行后不再重复求值
+     */
+    private List<LogRecordMeta> filterBeforeExecuteCondition(MethodExecuteResult methodExecuteResult,
+                                                             Collection<LogRecordMeta> operations,
+                                                             Set<LogRecordMeta> conditionCheckedOperations) {
+        List<LogRecordMeta> result = new ArrayList<>(operations.size());
+        for (LogRecordMeta operation : operations) {
+            String condition = operation.getCondition();
+            if (StringUtils.isEmpty(condition) || !logRecordValueParser.isBeforeExecuteCondition(condition,
+                    methodExecuteResult.getMethod(), methodExecuteResult.getTargetClass())) {
+                result.add(operation);
+                continue;
+            }
+            try {
+                if (Boolean.FALSE.equals(logRecordValueParser.evaluateCondition(condition, methodExecuteResult, Collections.emptyMap()))) {
+                    continue;
+                }
+                conditionCheckedOperations.add(operation);
+            } catch (Exception e) {
+                // 执行前求值失败的留到方法执行后再按原来的方式处理
+                log.warn("log record evaluate condition before execute failed, condition={}", condition, e);
+            }
+            result.add(operation);
+        }
+        return result;
+    }
+
     private List<String> getBeforeExecuteFunctionTemplate(Collection<LogRecordMeta> operations) {
         List<String> spElTemplates = new ArrayList<>();
         for (LogRecordMeta operation : operations) {
@@ -155,14 +370,15 @@ public class LogRecordInterceptor {
     }
 
     private void recordExecute(MethodExecuteResult methodExecuteResult, Map<String, String> functionNameAndReturnMap,
-                               Collection<LogRecordMeta> operations) {
+                               Collection<LogRecordMeta> operations, Set<LogRecordMeta> conditionCheckedOperations) {
         for (LogRecordMeta operation : operations) {
             try {
                 if (StringUtils.isEmpty(operation.getSuccessLogTemplate())
                         && StringUtils.isEmpty(operation.getFailLogTemplate())) {
                     continue;
                 }
-                if (exitsCondition(methodExecuteResult, functionNameAndReturnMap, operation)) continue;
+                if (!conditionCheckedOperations.contains(operation)
+                        && exitsCondition(methodExecuteResult, functionNameAndReturnMap, operation)) continue;
                 if (!methodExecuteResult.isSuccess()) {
                     failRecordExecute(methodExecuteResult, functionNameAndReturnMap, operation);
                 } else {
@@ -181,8 +397,8 @@ public class LogRecordInterceptor {
         String action = "";
         boolean flag = true;
         if (!StringUtils.isEmpty(operation.getIsSuccess())) {
-            String condition = logRecordValueParser.singleProcessTemplate(methodExecuteResult, operation.getIsSuccess(), functionNameAndReturnMap);
-            if (StringUtils.endsWithIgnoreCase(condition, "true")) {
+            Boolean condition = logRecordValueParser.evaluateCondition(operation.getIsSuccess(), methodExecuteResult, functionNameAndReturnMap);
+            if (Boolean.TRUE.equals(condition)) {
                 action = operation.getSuccessLogTemplate();
             } else {
                 action = operation.getFailLogTemplate();
@@ -196,9 +412,9 @@ public class LogRecordInterceptor {
             return;
         }
         List<String> spElTemplates = getSpElTemplates(operation, action);
-        String operatorIdFromService = getOperatorIdFromServiceAndPutTemplate(operation, spElTemplates);
-        Map<String, String> expressionValues = logRecordValueParser.processTemplate(spElTemplates, methodExecuteResult, functionNameAndReturnMap);
-        saveLog(methodExecuteResult.getMethod(), !flag, operation, operatorIdFromService, action, expressionValues);
+        String operatorIdFromService = getOperatorIdFromServiceAndPutTemplate(methodExecuteResult, operation, spElTemplates);
+        Map<String, String> expressionValues = processTemplateWithMonitor(methodExecuteResult, operation, spElTemplates, functionNameAndReturnMap);
+        saveLog(methodExecuteResult, !flag, operation, operatorIdFromService, action, expressionValues);
     }
 
     private void failRecordExecute(MethodExecuteResult methodExecuteResult, Map<String, String> functionNameAndReturnMap,
@@ -207,29 +423,30 @@ public class LogRecordInterceptor {
 
         String action = operation.getFailLogTemplate();
         List<String> spElTemplates = getSpElTemplates(operation, action);
-        String operatorIdFromService = getOperatorIdFromServiceAndPutTemplate(operation, spElTemplates);
+        String operatorIdFromService = getOperatorIdFromServiceAndPutTemplate(methodExecuteResult, operation, spElTemplates);
 
-        Map<String, String> expressionValues = logRecordValueParser.processTemplate(spElTemplates, methodExecuteResult, functionNameAndReturnMap);
-        saveLog(methodExecuteResult.getMethod(), true, operation, operatorIdFromService, action, expressionValues);
+        Map<String, String> expressionValues = processTemplateWithMonitor(methodExecuteResult, operation, spElTemplates, functionNameAndReturnMap);
+        saveLog(methodExecuteResult, true, operation, operatorIdFromService, action, expressionValues);
     }
 
     private boolean exitsCondition(MethodExecuteResult methodExecuteResult,
                                    Map<String, String> functionNameAndReturnMap, LogRecordMeta operation) {
         if (!StringUtils.isEmpty(operation.getCondition())) {
-            String condition = logRecordValueParser.singleProcessTemplate(methodExecuteResult, operation.getCondition(), functionNameAndReturnMap);
-            if (StringUtils.endsWithIgnoreCase(condition, "false")) return true;
+            Boolean condition = logRecordValueParser.evaluateCondition(operation.getCondition(), methodExecuteResult, functionNameAndReturnMap);
+            return Boolean.FALSE.equals(condition);
         }
         return false;
     }
 
-    private void saveLog(Method method, boolean flag, LogRecordMeta operation, String operatorFromService,
+    private void saveLog(MethodExecuteResult methodExecuteResult, boolean flag, LogRecordMeta operation, String operatorFromService,
                          String action, Map<String, String> expressionValues) {
+        Method method = methodExecuteResult.getMethod();
         if (StringUtils.isEmpty(expressionValues.get(action)) ||
                 (!logRecordValueParser.isDiffLog() && action.contains("#") && Objects.equals(action, expressionValues.get(action)))) {
             return;
         }
         LogRecord logRecord = LogRecord.builder()
-                .applicationName(environment.getProperty("spring.application.name"))
+                .applicationName(applicationName)
                 .bizType(expressionValues.get(operation.getBizType()))
                 .subBizType(expressionValues.get(operation.getSubBizType()))
                 .bizNo(expressionValues.get(operation.getBizNo()))
@@ -239,40 +456,39 @@ public class LogRecordInterceptor {
                 .action(expressionValues.get(action))
                 .fail(flag)
                 .createTime(new Date())
-                .ip(getIp())
+                .ip(resolveIp(methodExecuteResult))
                 .build();
+        long start = monitorStart();
         bizLogService.record(logRecord);
+        monitor(MONITOR_TASK_SINK, operation.getBizType(), method, start);
     }
 
     private String getIp() {
-        String ip = "";
-         ServletRequestAttributes sra = (ServletRequestAttributes) RequestContextHolder.getRequestAttributes();
-         if(sra == null) {
-             return ip;
-         }
-         HttpServletRequest request = sra.getRequest();
-         return getIp(request);
-    }
-
-    private String getIp(HttpServletRequest request) {
-        String ip = request.getHeader("x-forwarded-for");
-        if (ip == null || ip.length() == 0 || "unknown".equalsIgnoreCase(ip)) {
-            ip = request.getHeader("Proxy-Client-IP");
-        }
-        if (ip == null || ip.length() == 0 || "unknown".equalsIgnoreCase(ip)) {
-            ip = request.getHeader("WL-Proxy-Client-IP");
-        }
-        if (ip == null || ip.length() == 0 || "unknown".equalsIgnoreCase(ip)) {
-            ip = request.getRemoteAddr();
+        LogRecordRequestCache requestCache = LogRecordRequestCache.current();
+        return requestCache == null ? "" : requestCache.getIp();
+    }
+
+    private String resolveIp(MethodExecuteResult methodExecuteResult) {
+        if (!methodExecuteResult.isIpResolved()) {
+            methodExecuteResult.setIp(getIp());
         }
-        return ip;
+        return methodExecuteResult.getIp();
     }
 
+    /**
+     * 每个方法只创建一次，所有日志共用同一个不可变的 map
+     */
     private Map<CodeVariableType, Object> getCodeVariable(Method method) {
-        Map<CodeVariableType, Object> map = new HashMap<>();
-        map.put(CodeVariableType.ClassName, method.getDeclaringClass());
-        map.put(CodeVariableType.MethodName, method.getName());
-        return map;
+        Map<CodeVariableType, Object> codeVariable = codeVariableCache.get(method);
+        if (codeVariable == null) {
+            codeVariable = codeVariableCache.computeIfAbsent(method, key -> {
+                Map<CodeVariableType, Object> map = new EnumMap<>(CodeVariableType.class);
+                map.put(CodeVariableType.ClassName, key.getDeclaringClass());
+                map.put(CodeVariableType.MethodName, key.getName());
+                return Collections.unmodifiableMap(map);
+            });
+        }
+        return codeVariable;
     }
 
     private List<String> getSpElTemplates(LogRecordMeta operation, String... actions) {
@@ -289,11 +505,17 @@ public class LogRecordInterceptor {
         return !StringUtils.isEmpty(operatorFromService) ? operatorFromService : expressionValues.get(operation.getOperatorName());
     }
 
-    private String getOperatorIdFromServiceAndPutTemplate(LogRecordMeta operation, List<String> spElTemplates) {
+    private String getOperatorIdFromServiceAndPutTemplate(MethodExecuteResult methodExecuteResult, LogRecordMeta operation,
+                                                          List<String> spElTemplates) {
 
         String realOperatorId = "";
         if (StringUtils.isEmpty(operation.getOperatorName())) {
-            realOperatorId = operatorGetService.getUser().getOperatorId();
+            if (!methodExecuteResult.isOperatorResolved()) {
+                long start = monitorStart();
+                methodExecuteResult.setOperatorId(getOperatorIdFromService());
+                monitor(MONITOR_TASK_OPERATOR, operation.getBizType(), methodExecuteResult.getMethod(), start);
+            }
+            realOperatorId = methodExecuteResult.getOperatorId();
             if (StringUtils.isEmpty(realOperatorId)) {
                 throw new IllegalArgumentException("[LogRecord] operator is null");
             }
@@ -4,6 +4,7 @@ import logapi.annotation.LogRecord;
 import logapi.annotation.LogRecords;
 import logapi.beans.LogRecordMeta;
 import org.springframework.core.BridgeMethodResolver;
+import org.springframework.core.MethodClassKey;
 import org.springframework.core.annotation.AnnotatedElementUtils;
 import org.springframework.util.ClassUtils;
 import org.springframework.util.ConcurrentReferenceHashMap;
@@ -25,7 +26,58 @@ public class LogRecordOperationAssist {
      */
     private static final Map<Method, Method> INTERFACE_METHOD_CACHE = new ConcurrentReferenceHashMap<>(256);
 
+    /**
+     * Canonical value held in cache to indicate no log record operation was
+     * found for this method, and we don't need to look again.
+     */
+    private static final Collection<LogRecordMeta> NULL_LOG_RECORD_OPERATIONS = Collections.emptyList();
+
+    /**
+     * Cache of resolved log record operations, keyed by method and target class.
+     */
+    private final Map<Object, Collection<LogRecordMeta>> attributeCache = new ConcurrentReferenceHashMap<>(1024);
+
+    /**
+     * Determine the log record operations for this method invocation.
+     * <p>Only method-level {@code @LogRecord}/{@code @LogRecords} annotations are considered, merged from
+     * the most specific method on the target class and the corresponding interface method; annotations
+     * on the class itself are not inherited, and non-public methods have no operations.
+     * After the first call for a method/targetClass pair this is a single cache lookup.
+     *
+     * @param method      the method for the current invocation (never {@code null})
+     * @param targetClass the target class for this invocation (may be {@code null})
+     * @return the log record operations for this method, or an empty collection if none
+     */
     public Collection<LogRecordMeta> computeLogRecordOperations(Method method, Class<?> targetClass) {
+        Object cacheKey = getCacheKey(method, targetClass);
+        Collection<LogRecordMeta> cached = this.attributeCache.get(cacheKey);
+        if (cached != null) {
+            return cached;
+        }
+        Collection<LogRecordMeta> operations = computeLogRecordOperationsInternal(method, targetClass);
+        if (operations.isEmpty()) {
+            this.attributeCache.put(cacheKey, NULL_LOG_RECORD_OPERATIONS);
+            return NULL_LOG_RECORD_OPERATIONS;
+        }
+        operations = Collections.unmodifiableCollection(operations);
+        this.attributeCache.put(cacheKey, operations);
+        return operations;
+    }
+
+    /**
+     * Determine a cache key for the given method and target class.
+     * <p>Must not produce same key for overloaded methods.
+     * Must produce same key for different instances of the same method.
+     *
+     * @param method      the method (never {@code null})
+     * @param targetClass the target class (may be {@code null})
+     * @return the cache key (never {@code null})
+     */
+    protected Object getCacheKey(Method method, Class<?> targetClass) {
+        return new MethodClassKey(method, targetClass);
+    }
+
+    private Collection<LogRecordMeta> computeLogRecordOperationsInternal(Method method, Class<?> targetClass) {
         // Don't allow no-public methods as required.
         if (!Modifier.isPublic(method.getModifiers())) {
             return Collections.emptyList();
@@ -40,8 +92,9 @@ public class LogRecordOperationAssist {
         // First try is the method in the target class.
         Collection<LogRecordMeta> LogRecordMeta = parseLogRecordAnnotations(specificMethod);
         Collection<LogRecordMeta> logRecordsOps = parseLogRecordsAnnotations(specificMethod);
-        Collection<LogRecordMeta> abstractLogRecordMeta = parseLogRecordAnnotations(getInterfaceMethodIfPossible(method));
-        Collection<LogRecordMeta> abstractLogRecordsOps = parseLogRecordsAnnotations(getInterfaceMethodIfPossible(method));
+        Method interfaceMethod = getInterfaceMethodIfPossible(method);
+        Collection<LogRecordMeta> abstractLogRecordMeta = parseLogRecordAnnotations(interfaceMethod);
+        Collection<LogRecordMeta> abstractLogRecordsOps = parseLogRecordsAnnotations(interfaceMethod);
         HashSet<LogRecordMeta> result = new HashSet<>();
         result.addAll(LogRecordMeta);
         result.addAll(abstractLogRecordMeta);
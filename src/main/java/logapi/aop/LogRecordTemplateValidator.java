@@ -0,0 +1,151 @@
+package logapi.aop;
+
+import logapi.annotation.LogRecord;
+import logapi.annotation.LogRecords;
+import logapi.beans.LogRecordMeta;
+import logapi.parse.LogRecordTemplate;
+import logapi.parse.LogRecordValueParser;
+import logapi.service.impl.ParseFunctionFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.aop.framework.AopProxyUtils;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.context.expression.AnnotatedElementKey;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.lang.NonNull;
+import org.springframework.util.StringUtils;
+
+import java.lang.reflect.Method;
+import java.util.*;
+
+/**
+ * 启动时预解析所有 @LogRecord 方法：解析 LogRecordMeta、预编译模版里的 SpEL 表达式、检查自定义函数是否存在，
+ * 使第一次请求和之后的请求一样快；模版有错误时启动失败，而不是等到第一次调用时才在日志里报错
+ * 扫描的方法和 key 与 {@link LogRecordInterceptor} 运行时一致：目标类的 public 方法 + 目标类
+ *
+ * @author wulang
+ **/
+@Slf4j
+public class LogRecordTemplateValidator implements SmartInitializingSingleton, BeanFactoryAware {
+
+    private final LogRecordOperationAssist logRecordOperationAssist;
+    private final LogRecordValueParser logRecordValueParser;
+    private final ParseFunctionFactory parseFunctionFactory;
+    private final boolean failOnError;
+    private ConfigurableListableBeanFactory beanFactory;
+
+    /**
+     * @param parseFunctionFactory 用于检查函数名，业务方自定义了 IFunctionService 时传 null，不检查函数名
+     * @param failOnError          true 时模版有错误直接启动失败，false 时只打印错误日志
+     */
+    public LogRecordTemplateValidator(LogRecordOperationAssist logRecordOperationAssist, LogRecordValueParser logRecordValueParser,
+                                      ParseFunctionFactory parseFunctionFactory, boolean failOnError) {
+        this.logRecordOperationAssist = logRecordOperationAssist;
+        this.logRecordValueParser = logRecordValueParser;
+        this.parseFunctionFactory = parseFunctionFactory;
+        this.failOnError = failOnError;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        long start = System.currentTimeMillis();
+        List<String> errors = new ArrayList<>();
+        Set<Class<?>> visited = new HashSet<>();
+        int methodCount = 0;
+        for (String beanName : beanFactory.getBeanDefinitionNames()) {
+            if (!isCandidateBean(beanName)) {
+                continue;
+            }
+            Class<?> targetClass = AopProxyUtils.ultimateTargetClass(beanFactory.getBean(beanName));
+            if (!visited.add(targetClass) || !AnnotationUtils.isCandidateClass(targetClass, Arrays.asList(LogRecord.class, LogRecords.class))) {
+                continue;
+            }
+            for (Method method : targetClass.getMethods()) {
+                if (!AnnotatedElementUtils.hasAnnotation(method, LogRecord.class)
+                        && !AnnotatedElementUtils.hasAnnotation(method, LogRecords.class)) {
+                    continue;
+                }
+                methodCount++;
+                validateMethod(method, targetClass, errors);
+            }
+        }
+        if (!errors.isEmpty()) {
+            String message = "Invalid @LogRecord template:\n" + String.join("\n", errors);
+            if (failOnError) {
+                throw new IllegalStateException(message);
+            }
+            log.error(message);
+        }
+        log.info("log record templates precompiled, methods={}, errors={}, cost={}ms", methodCount, errors.size(),
+                System.currentTimeMillis() - start);
+    }
+
+    private boolean isCandidateBean(String beanName) {
+        BeanDefinition beanDefinition = beanFactory.getBeanDefinition(beanName);
+        // 只看已经创建好的单例，不触发懒加载 bean 的创建
+        return !beanDefinition.isAbstract() && beanDefinition.isSingleton() && !beanDefinition.isLazyInit()
+                && beanDefinition.getRole() == BeanDefinition.ROLE_APPLICATION && beanFactory.containsSingleton(beanName);
+    }
+
+    private void validateMethod(Method method, Class<?> targetClass, List<String> errors) {
+        Collection<LogRecordMeta> operations;
+        try {
+            operations = logRecordOperationAssist.computeLogRecordOperations(method, targetClass);
+        } catch (RuntimeException e) {
+            errors.add(method.toGenericString() + ": " + e.getMessage());
+            return;
+        }
+        AnnotatedElementKey methodKey = new AnnotatedElementKey(method, targetClass);
+        for (LogRecordMeta operation : operations) {
+            for (String template : Arrays.asList(operation.getBizType(), operation.getBizNo(), operation.getSubBizType(),
+                    operation.getExtra(), operation.getSuccessLogTemplate(), operation.getFailLogTemplate(),
+                    operation.getOperatorName(), operation.getIsSuccess())) {
+                validateTemplate(method, methodKey, template, errors);
+            }
+            String condition = operation.getCondition();
+            if (validateTemplate(method, methodKey, condition, errors) && !StringUtils.isEmpty(condition)) {
+                // 同时缓存方法参数名，条件在方法执行前求值时使用
+                logRecordValueParser.isBeforeExecuteCondition(condition, method, targetClass);
+            }
+        }
+    }
+
+    /**
+     * 编译模版并放入缓存，检查模版里的函数名
+     *
+     * @return 模版是否有效
+     */
+    private boolean validateTemplate(Method method, AnnotatedElementKey methodKey, String template, List<String> errors) {
+        if (StringUtils.isEmpty(template)) {
+            return true;
+        }
+        LogRecordTemplate compiled;
+        try {
+            compiled = logRecordValueParser.getTemplate(methodKey, template);
+        } catch (RuntimeException e) {
+            errors.add(method.toGenericString() + ": '" + template + "' " + e.getMessage());
+            return false;
+        }
+        if (parseFunctionFactory == null) {
+            return true;
+        }
+        boolean valid = true;
+        for (LogRecordTemplate.Slot slot : compiled.getSlots()) {
+            if (slot.getType() == LogRecordTemplate.SlotType.FUNCTION && !parseFunctionFactory.hasFunction(slot.getFunctionName())) {
+                errors.add(method.toGenericString() + ": '" + template + "' unknown function '" + slot.getFunctionName() + "'");
+                valid = false;
+            }
+        }
+        return valid;
+    }
+
+    @Override
+    public void setBeanFactory(@NonNull BeanFactory beanFactory) throws BeansException {
+        this.beanFactory = (ConfigurableListableBeanFactory) beanFactory;
+    }
+}
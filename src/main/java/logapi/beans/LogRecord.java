@@ -88,4 +88,10 @@ public class LogRecord implements Serializable{
      * CodeVariableType 日志记录的ClassName、MethodName
      */
     private Map<CodeVariableType, Object> codeVariable;
+
+    /**
+     * 幂等键，开启本地 spool 时按写入 spool 的位置生成，开启多输出时入队前生成
+     * spool 重放和多输出 store 失败重试整批时可能重复投递，这两种情况下存储端需要按它建唯一索引去重
+     */
+    private String idempotencyKey;
 }
\ No newline at end of file
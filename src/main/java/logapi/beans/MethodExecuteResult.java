@@ -1,6 +1,8 @@
 package logapi.beans;
 
+import logapi.parse.LogRecordEvaluationContext;
 import lombok.Getter;
+import org.springframework.context.expression.AnnotatedElementKey;
 
 import java.lang.reflect.Method;
 
@@ -17,6 +19,25 @@ public class MethodExecuteResult {
     private final Method method;
     private final Object[] args;
     private final Class<?> targetClass;
+    /**
+     * 方法 + 目标类，预编译模版和表达式的缓存 key，第一次取用时创建
+     */
+    private AnnotatedElementKey methodKey;
+    /**
+     * 本次调用中 _DIFF 累计耗时，单位纳秒
+     */
+    private long diffNanos;
+    /**
+     * 本次调用共用的 SpEL 上下文，第一次解析模版时创建
+     */
+    private LogRecordEvaluationContext evaluationContext;
+    /**
+     * 请求 IP 和操作人，一次调用只解析一次，多条日志共用；异步处理时在业务线程上提前取好
+     */
+    private String ip;
+    private String operatorId;
+    private boolean ipResolved;
+    private boolean operatorResolved;
 
     public MethodExecuteResult(Method method, Object[] args, Class<?> targetClass) {
         this.method = method;
@@ -24,6 +45,15 @@ public class MethodExecuteResult {
         this.targetClass = targetClass;
     }
 
+    public AnnotatedElementKey getMethodKey() {
+        AnnotatedElementKey key = this.methodKey;
+        if (key == null) {
+            key = new AnnotatedElementKey(method, targetClass);
+            this.methodKey = key;
+        }
+        return key;
+    }
+
     public void setSuccess(boolean success) {
         this.success = success;
     }
@@ -39,4 +69,27 @@ public class MethodExecuteResult {
     public void setResult(Object result) {
         this.result = result;
     }
+
+    public void setEvaluationContext(LogRecordEvaluationContext evaluationContext) {
+        this.evaluationContext = evaluationContext;
+    }
+
+    public void setCaller(String ip, String operatorId) {
+        setIp(ip);
+        setOperatorId(operatorId);
+    }
+
+    public void setIp(String ip) {
+        this.ip = ip;
+        this.ipResolved = true;
+    }
+
+    public void setOperatorId(String operatorId) {
+        this.operatorId = operatorId;
+        this.operatorResolved = true;
+    }
+
+    public void addDiffNanos(long nanos) {
+        this.diffNanos += nanos;
+    }
 }
@@ -1,81 +1,78 @@
 package com.mzt.logapi.context;
 
-import org.springframework.util.CollectionUtils;
-
-import java.util.ArrayDeque;
-import java.util.Deque;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
 /**
+ * 每个被拦截的方法一个 span，span 里的变量只在 putVariable 时才创建 map，方法结束后 map 清空留给下一次复用
+ * 不再使用 InheritableThreadLocal：子线程不会自动继承，也不会把旧的 span 带进线程池
+ * 需要在其他线程使用时通过 {@link #capture()} 和 {@link #restore(Snapshot)} 显式传递
+ *
  * @author muzhantong
  * create on 2021/2/9 2:22 下午
  */
 public class LogRecordContext {
 
-    private static final InheritableThreadLocal<Deque<Map<String, Object>>> VARIABLE_MAP_STACK = new InheritableThreadLocal<>();
-
-    private static final InheritableThreadLocal<Map<String, Object>> GLOBAL_VARIABLE_MAP = new InheritableThreadLocal<>();
+    private static final ThreadLocal<Frames> FRAMES = ThreadLocal.withInitial(Frames::new);
 
     private LogRecordContext() {
         throw new IllegalStateException("Utility class");
     }
 
     public static void putVariable(String name, Object value) {
-        if (VARIABLE_MAP_STACK.get() == null) {
-            Deque<Map<String, Object>> stack = new ArrayDeque<>();
-            VARIABLE_MAP_STACK.set(stack);
-        }
-        Deque<Map<String, Object>> mapStack = VARIABLE_MAP_STACK.get();
-        if (mapStack.isEmpty()) {
-            VARIABLE_MAP_STACK.get().push(new HashMap<>());
+        Frames frames = FRAMES.get();
+        if (frames.depth == 0) {
+            frames.push();
         }
-        VARIABLE_MAP_STACK.get().element().put(name, value);
+        frames.currentOrCreate().put(name, value);
     }
 
     public static void putGlobalVariable(String name, Object value) {
-        if (GLOBAL_VARIABLE_MAP.get() == null) {
-            GLOBAL_VARIABLE_MAP.set(new HashMap<>());
+        Frames frames = FRAMES.get();
+        if (frames.global == null) {
+            frames.global = new HashMap<>();
         }
-        GLOBAL_VARIABLE_MAP.get().put(name, value);
+        frames.global.put(name, value);
     }
 
     public static Object getVariable(String key) {
-        Map<String, Object> variableMap = VARIABLE_MAP_STACK.get().peek();
+        Map<String, Object> variableMap = FRAMES.get().current();
         return variableMap == null ? null : variableMap.get(key);
     }
 
     public static Object getMethodOrGlobal(String key) {
-        Object result = null;
-        Map<String, Object> variableMap = VARIABLE_MAP_STACK.get().peek();
-        if (!CollectionUtils.isEmpty(variableMap) && (result = variableMap.get(key)) != null) {
+        Frames frames = FRAMES.get();
+        Map<String, Object> variableMap = frames.current();
+        Object result;
+        if (variableMap != null && (result = variableMap.get(key)) != null) {
             return result;
         }
-        Map<String, Object> globalMap = GLOBAL_VARIABLE_MAP.get();
-        if (!CollectionUtils.isEmpty(globalMap)) {
-            return globalMap.get(key);
-        }
-        return result;
+        return frames.global == null ? null : frames.global.get(key);
     }
 
+    /**
+     * @return 当前 span 的变量，没有变量时返回空 map
+     */
     public static Map<String, Object> getVariables() {
-        Deque<Map<String, Object>> mapStack = VARIABLE_MAP_STACK.get();
-        return mapStack.peek();
+        Map<String, Object> variableMap = FRAMES.get().current();
+        return variableMap == null ? Collections.emptyMap() : variableMap;
     }
 
     public static Map<String, Object> getGlobalVariableMap() {
-        return GLOBAL_VARIABLE_MAP.get();
+        Map<String, Object> globalMap = FRAMES.get().global;
+        return globalMap == null ? Collections.emptyMap() : globalMap;
     }
 
     public static void clear() {
-        if (VARIABLE_MAP_STACK.get() != null) {
-            VARIABLE_MAP_STACK.get().pop();
-        }
+        FRAMES.get().pop();
     }
 
     public static void clearGlobal() {
-        if (GLOBAL_VARIABLE_MAP.get() != null) {
-            GLOBAL_VARIABLE_MAP.get().clear();
+        Frames frames = FRAMES.get();
+        if (frames.global != null) {
+            frames.global.clear();
         }
     }
 
@@ -84,15 +81,125 @@ public class LogRecordContext {
      * 每进入一个方法初始化一个 span 放入到 stack中，方法执行完后 pop 掉这个span
      */
     public static void putEmptySpan() {
-        Deque<Map<String, Object>> mapStack = VARIABLE_MAP_STACK.get();
-        if (mapStack == null) {
-            Deque<Map<String, Object>> stack = new ArrayDeque<>();
-            VARIABLE_MAP_STACK.set(stack);
+        FRAMES.get().push();
+    }
+
+    /**
+     * 复制当前线程的 span 变量和全局变量，用于交给其他线程
+     *
+     * @return 不可变的快照
+     */
+    public static Snapshot capture() {
+        Frames frames = FRAMES.get();
+        return new Snapshot(copy(frames.current()), copy(frames.global), null);
+    }
+
+    /**
+     * 用快照替换当前线程的上下文：快照里的变量作为一个新的 span，全局变量单独复制一份
+     * 返回值是被替换掉的上下文，执行完后再 restore 它即可恢复原状
+     * <pre>
+     * Snapshot previous = LogRecordContext.restore(snapshot);
+     * try {
+     *     ...
+     * } finally {
+     *     LogRecordContext.restore(previous);
+     * }
+     * </pre>
+     *
+     * @param snapshot {@link #capture()} 或者上一次 restore 的返回值
+     * @return 被替换掉的上下文
+     */
+    public static Snapshot restore(Snapshot snapshot) {
+        Frames previous = FRAMES.get();
+        if (snapshot.frames != null) {
+            FRAMES.set(snapshot.frames);
+        } else {
+            Frames frames = new Frames();
+            frames.push();
+            if (!snapshot.variables.isEmpty()) {
+                frames.currentOrCreate().putAll(snapshot.variables);
+            }
+            if (!snapshot.globalVariables.isEmpty()) {
+                frames.global = new HashMap<>(snapshot.globalVariables);
+            }
+            FRAMES.set(frames);
+        }
+        return new Snapshot(null, null, previous);
+    }
+
+    private static Map<String, Object> copy(Map<String, Object> map) {
+        return map == null || map.isEmpty() ? Collections.emptyMap() : Collections.unmodifiableMap(new HashMap<>(map));
+    }
+
+    public static final class Snapshot {
+        private final Map<String, Object> variables;
+        private final Map<String, Object> globalVariables;
+        /**
+         * restore 返回的快照直接持有被替换掉的上下文
+         */
+        private final Frames frames;
+
+        private Snapshot(Map<String, Object> variables, Map<String, Object> globalVariables, Frames frames) {
+            this.variables = variables;
+            this.globalVariables = globalVariables;
+            this.frames = frames;
+        }
+
+        public Map<String, Object> getVariables() {
+            return variables == null ? Collections.emptyMap() : variables;
+        }
+
+        public Map<String, Object> getGlobalVariables() {
+            return globalVariables == null ? Collections.emptyMap() : globalVariables;
+        }
+    }
+
+    /**
+     * span 栈，数组和每一层的 map 都在线程内复用
+     */
+    private static final class Frames {
+        private static final int INITIAL_CAPACITY = 4;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private Map<String, Object>[] spans = new Map[INITIAL_CAPACITY];
+        /**
+         * 当前层的 map 是否已经被使用，未使用的层 current() 返回 null
+         */
+        private boolean[] used = new boolean[INITIAL_CAPACITY];
+        private int depth;
+        private Map<String, Object> global;
+
+        private void push() {
+            if (depth == spans.length) {
+                spans = Arrays.copyOf(spans, depth * 2);
+                used = Arrays.copyOf(used, depth * 2);
+            }
+            used[depth] = false;
+            depth++;
+        }
+
+        private void pop() {
+            if (depth == 0) {
+                return;
+            }
+            depth--;
+            if (used[depth]) {
+                spans[depth].clear();
+                used[depth] = false;
+            }
+        }
+
+        private Map<String, Object> current() {
+            return depth == 0 || !used[depth - 1] ? null : spans[depth - 1];
         }
-        VARIABLE_MAP_STACK.get().push(new HashMap<>());
 
-        if (GLOBAL_VARIABLE_MAP.get() == null) {
-            GLOBAL_VARIABLE_MAP.set(new HashMap<>());
+        private Map<String, Object> currentOrCreate() {
+            int index = depth - 1;
+            if (spans[index] == null) {
+                spans[index] = new HashMap<>(8);
+            }
+            used[index] = true;
+            return spans[index];
         }
     }
 }
@@ -0,0 +1,93 @@
+package logapi.context;
+
+import com.mzt.logapi.context.LogRecordContext;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * 把 LogRecordContext 带到其他线程：提交任务时对当前 span 变量和全局变量做快照，
+ * 工作线程执行前装上快照，执行完恢复工作线程原来的上下文，任务之间互不影响
+ * <pre>
+ * CompletableFuture.supplyAsync(LogRecordContextExecutors.wrap(() -> load(id)), executor);
+ * LogRecordContextExecutors.supplyAsync(() -> load(id), executor);
+ * </pre>
+ *
+ * @author wulang
+ **/
+public final class LogRecordContextExecutors {
+
+    private LogRecordContextExecutors() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    public static Runnable wrap(Runnable task) {
+        LogRecordContext.Snapshot snapshot = LogRecordContext.capture();
+        return () -> {
+            LogRecordContext.Snapshot previous = LogRecordContext.restore(snapshot);
+            try {
+                task.run();
+            } finally {
+                LogRecordContext.restore(previous);
+            }
+        };
+    }
+
+    public static <T> Callable<T> wrap(Callable<T> task) {
+        LogRecordContext.Snapshot snapshot = LogRecordContext.capture();
+        return () -> {
+            LogRecordContext.Snapshot previous = LogRecordContext.restore(snapshot);
+            try {
+                return task.call();
+            } finally {
+                LogRecordContext.restore(previous);
+            }
+        };
+    }
+
+    public static <T> Supplier<T> wrap(Supplier<T> task) {
+        LogRecordContext.Snapshot snapshot = LogRecordContext.capture();
+        return () -> {
+            LogRecordContext.Snapshot previous = LogRecordContext.restore(snapshot);
+            try {
+                return task.get();
+            } finally {
+                LogRecordContext.restore(previous);
+            }
+        };
+    }
+
+    /**
+     * @param executor 原始线程池
+     * @return 每次 execute 都会传递提交线程上下文的线程池
+     */
+    public static Executor wrap(Executor executor) {
+        if (executor instanceof ContextPropagatingExecutor) {
+            return executor;
+        }
+        return new ContextPropagatingExecutor(executor);
+    }
+
+    public static <T> CompletableFuture<T> supplyAsync(Supplier<T> supplier, Executor executor) {
+        return CompletableFuture.supplyAsync(wrap(supplier), executor);
+    }
+
+    public static CompletableFuture<Void> runAsync(Runnable runnable, Executor executor) {
+        return CompletableFuture.runAsync(wrap(runnable), executor);
+    }
+
+    private static final class ContextPropagatingExecutor implements Executor {
+        private final Executor delegate;
+
+        private ContextPropagatingExecutor(Executor delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            delegate.execute(wrap(command));
+        }
+    }
+}
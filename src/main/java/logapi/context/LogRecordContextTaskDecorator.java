@@ -0,0 +1,21 @@
+package logapi.context;
+
+import org.springframework.core.task.TaskDecorator;
+import org.springframework.lang.NonNull;
+
+/**
+ * 配置到 ThreadPoolTaskExecutor 上，让 @Async 和线程池任务能读到提交线程的 LogRecordContext
+ * <pre>
+ * executor.setTaskDecorator(new LogRecordContextTaskDecorator());
+ * </pre>
+ *
+ * @author wulang
+ **/
+public class LogRecordContextTaskDecorator implements TaskDecorator {
+
+    @Override
+    @NonNull
+    public Runnable decorate(@NonNull Runnable runnable) {
+        return LogRecordContextExecutors.wrap(runnable);
+    }
+}
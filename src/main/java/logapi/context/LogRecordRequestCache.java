@@ -0,0 +1,76 @@
+package logapi.context;
+
+import logapi.beans.Operator;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.function.Supplier;
+
+/**
+ * 一次 HTTP 请求里解析过的调用方信息（请求 IP、操作人），作为 request attribute 保存，第一次使用时解析
+ * 同一个请求里多个 @LogRecord 方法、多条日志共用，不再重复读请求头、调用 IOperatorGetService
+ * 不在请求线程里（定时任务、MQ 消费等）时没有缓存，每次调用方法时重新解析
+ *
+ * @author wulang
+ **/
+public final class LogRecordRequestCache {
+
+    private static final String ATTRIBUTE_NAME = LogRecordRequestCache.class.getName();
+
+    private final HttpServletRequest request;
+    private String ip;
+    private Operator operator;
+
+    private LogRecordRequestCache(HttpServletRequest request) {
+        this.request = request;
+    }
+
+    /**
+     * @return 当前请求的缓存，当前线程没有绑定请求时返回 null
+     */
+    public static LogRecordRequestCache current() {
+        RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+        if (!(requestAttributes instanceof ServletRequestAttributes)) {
+            return null;
+        }
+        LogRecordRequestCache cache = (LogRecordRequestCache) requestAttributes.getAttribute(ATTRIBUTE_NAME, RequestAttributes.SCOPE_REQUEST);
+        if (cache == null) {
+            cache = new LogRecordRequestCache(((ServletRequestAttributes) requestAttributes).getRequest());
+            requestAttributes.setAttribute(ATTRIBUTE_NAME, cache, RequestAttributes.SCOPE_REQUEST);
+        }
+        return cache;
+    }
+
+    public String getIp() {
+        if (ip == null) {
+            ip = resolveIp(request);
+        }
+        return ip;
+    }
+
+    /**
+     * @param loader 没有缓存时获取操作人，返回 null 时不缓存
+     */
+    public Operator getOperator(Supplier<Operator> loader) {
+        if (operator == null) {
+            operator = loader.get();
+        }
+        return operator;
+    }
+
+    public static String resolveIp(HttpServletRequest request) {
+        String ip = request.getHeader("x-forwarded-for");
+        if (ip == null || ip.length() == 0 || "unknown".equalsIgnoreCase(ip)) {
+            ip = request.getHeader("Proxy-Client-IP");
+        }
+        if (ip == null || ip.length() == 0 || "unknown".equalsIgnoreCase(ip)) {
+            ip = request.getHeader("WL-Proxy-Client-IP");
+        }
+        if (ip == null || ip.length() == 0 || "unknown".equalsIgnoreCase(ip)) {
+            ip = request.getRemoteAddr();
+        }
+        return ip;
+    }
+}
@@ -5,6 +5,7 @@ import lombok.AllArgsConstructor;
 import org.apache.logging.log4j.util.Strings;
 import org.springframework.util.StringUtils;
 
+import java.util.Collection;
 import java.util.Map;
 
 /**
@@ -31,6 +32,27 @@ public class LogFunctionParser {
         return functionReturnValue;
     }
 
+    /**
+     * 与 {@link #getFunctionReturnValue} 相同，函数调用的唯一标志由调用方预先算好
+     */
+    public String applyFunction(Map<String, String> beforeFunctionNameAndReturnMap, Object value,
+                                String functionName, String functionCallInstanceKey) {
+        if (StringUtils.isEmpty(functionName)) {
+            return value == null ? Strings.EMPTY : value.toString();
+        }
+        if (beforeFunctionNameAndReturnMap != null && beforeFunctionNameAndReturnMap.containsKey(functionCallInstanceKey)) {
+            return beforeFunctionNameAndReturnMap.get(functionCallInstanceKey);
+        }
+        return functionService.apply(functionName, value);
+    }
+
+    /**
+     * 同一个函数的多个入参一次转换
+     */
+    public Map<Object, String> applyFunctions(String functionName, Collection<Object> values) {
+        return functionService.applyAll(functionName, values);
+    }
+
     /**
      * @param functionName    函数名称
      * @param paramExpression 解析前的表达式
@@ -0,0 +1,25 @@
+package logapi.parse;
+
+/**
+ * 编译期生成的表达式求值代码，对应模版里的一个 SpEL 表达式，直接调用 getter，不经过反射和类型转换
+ * 由 demo-log-processor 注解处理器生成，通过 {@link LogRecordExpressionProvider} 注册
+ *
+ * @author wulang
+ **/
+@FunctionalInterface
+public interface LogRecordCompiledExpression {
+
+    /**
+     * 生成的代码无法得到与 SpEL 相同的结果时返回这个值，由 SpEL 重新求值
+     * 比如变量被 LogRecordContext 里的同名变量覆盖、非安全导航遇到 null（SpEL 会抛出异常）
+     */
+    Object FALLBACK = new Object();
+
+    /**
+     * @param args     方法参数
+     * @param ret      方法返回值，方法执行前为 null
+     * @param errorMsg 异常信息
+     * @return 表达式的值，或者 {@link #FALLBACK}
+     */
+    Object getValue(Object[] args, Object ret, String errorMsg);
+}
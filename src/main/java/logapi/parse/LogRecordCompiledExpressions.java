@@ -0,0 +1,88 @@
+package logapi.parse;
+
+import com.mzt.logapi.context.LogRecordContext;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 通过 ServiceLoader 加载编译期生成的表达式，按方法查找
+ * 没有使用注解处理器时没有任何 provider，所有表达式仍然由 SpEL 求值
+ *
+ * @author wulang
+ **/
+@Slf4j
+public final class LogRecordCompiledExpressions {
+
+    private final Map<String, Map<String, LogRecordCompiledExpression>> expressionsByMethod;
+    private final Map<Method, Map<String, LogRecordCompiledExpression>> methodCache = new ConcurrentHashMap<>(64);
+
+    public LogRecordCompiledExpressions(ClassLoader classLoader) {
+        Map<String, Map<String, LogRecordCompiledExpression>> expressions = new HashMap<>();
+        Iterator<LogRecordExpressionProvider> providers = ServiceLoader.load(LogRecordExpressionProvider.class, classLoader).iterator();
+        while (true) {
+            try {
+                if (!providers.hasNext()) {
+                    break;
+                }
+                expressions.putAll(providers.next().getExpressions());
+            } catch (ServiceConfigurationError | LinkageError e) {
+                // 生成的类和当前代码不一致（比如没有重新编译），这部分表达式退回 SpEL
+                log.warn("load log record expression provider failed", e);
+            }
+        }
+        this.expressionsByMethod = expressions;
+        if (!expressions.isEmpty()) {
+            log.info("log record compiled expressions loaded, methods={}", expressions.size());
+        }
+    }
+
+    /**
+     * @return 表达式字符串 -> 生成的求值代码，没有生成代码的方法返回空 map
+     */
+    public Map<String, LogRecordCompiledExpression> getExpressions(Method method) {
+        if (expressionsByMethod.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, LogRecordCompiledExpression> expressions = methodCache.get(method);
+        if (expressions == null) {
+            expressions = methodCache.computeIfAbsent(method, key -> expressionsByMethod.getOrDefault(
+                    methodKey(key.getDeclaringClass(), key.getName(), key.getParameterTypes()), Collections.emptyMap()));
+        }
+        return expressions;
+    }
+
+    /**
+     * 生成的代码和运行时使用同一个方法计算 key
+     */
+    public static String methodKey(Class<?> declaringClass, String methodName, Class<?>... parameterTypes) {
+        StringBuilder key = new StringBuilder(declaringClass.getName()).append('#').append(methodName).append('(');
+        for (int i = 0; i < parameterTypes.length; i++) {
+            if (i > 0) {
+                key.append(',');
+            }
+            key.append(parameterTypes[i].getName());
+        }
+        return key.append(')').toString();
+    }
+
+    /**
+     * 与 {@link LogRecordEvaluationContext#lookupVariable(String)} 的查找顺序一致：span 变量优先于方法参数，
+     * 全局变量只在参数为 null 时生效；返回 true 时生成的代码返回 {@link LogRecordCompiledExpression#FALLBACK}
+     *
+     * @param argument 方法参数的值
+     */
+    public static boolean isShadowed(String variableName, Object argument) {
+        if (LogRecordContext.getVariable(variableName) != null) {
+            return true;
+        }
+        return argument == null && LogRecordContext.getGlobalVariableMap().get(variableName) != null;
+    }
+}
@@ -5,31 +5,79 @@ import org.springframework.context.expression.MethodBasedEvaluationContext;
 import org.springframework.core.ParameterNameDiscoverer;
 
 import java.lang.reflect.Method;
+import java.util.Collections;
 import java.util.Map;
 
 /**
  * DATE 4:12 PM
+ * LogRecordContext 里的变量不再复制进来，求值时按 _ret/_errorMsg、span 变量、方法参数、全局变量的顺序查找，
+ * 和原来一样，全局变量只在没有同名方法参数时生效
  *
  * @author mzt.
  */
 public class LogRecordEvaluationContext extends MethodBasedEvaluationContext {
 
+    public static final String RET = "_ret";
+    public static final String ERROR_MSG = "_errorMsg";
+
+    private final Object[] arguments;
+    private Object ret;
+    private String errorMsg;
+    /**
+     * 当前方法编译期生成的表达式，没有时为空 map
+     */
+    private Map<String, LogRecordCompiledExpression> compiledExpressions = Collections.emptyMap();
+
     public LogRecordEvaluationContext(Object rootObject, Method method, Object[] arguments,
                                       ParameterNameDiscoverer parameterNameDiscoverer, Object ret, String errorMsg) {
         super(rootObject, method, arguments, parameterNameDiscoverer);
-        Map<String, Object> variables = LogRecordContext.getVariables();
-        Map<String, Object> globalVariable = LogRecordContext.getGlobalVariableMap();
-        if (variables != null) {
-            setVariables(variables);
+        this.arguments = arguments;
+        setResult(ret, errorMsg);
+    }
+
+    public void setCompiledExpressions(Map<String, LogRecordCompiledExpression> compiledExpressions) {
+        this.compiledExpressions = compiledExpressions;
+    }
+
+    /**
+     * 用编译期生成的代码求值
+     *
+     * @return 表达式的值，没有生成代码或者生成的代码无法处理时返回 {@link LogRecordCompiledExpression#FALLBACK}
+     */
+    Object getCompiledValue(String expressionString) {
+        if (compiledExpressions.isEmpty()) {
+            return LogRecordCompiledExpression.FALLBACK;
+        }
+        LogRecordCompiledExpression compiledExpression = compiledExpressions.get(expressionString);
+        if (compiledExpression == null) {
+            return LogRecordCompiledExpression.FALLBACK;
+        }
+        return compiledExpression.getValue(arguments, ret, errorMsg);
+    }
+
+    /**
+     * 同一次调用复用一个上下文，方法执行完后更新返回值和异常信息
+     */
+    public void setResult(Object ret, String errorMsg) {
+        this.ret = ret;
+        this.errorMsg = errorMsg;
+        setVariable(RET, ret);
+        setVariable(ERROR_MSG, errorMsg);
+    }
+
+    @Override
+    public Object lookupVariable(String name) {
+        if (RET.equals(name) || ERROR_MSG.equals(name)) {
+            return super.lookupVariable(name);
+        }
+        Object value = LogRecordContext.getVariable(name);
+        if (value != null) {
+            return value;
         }
-        if (globalVariable != null && !globalVariable.isEmpty()) {
-            for (Map.Entry<String, Object> entry : globalVariable.entrySet()) {
-                if (lookupVariable(entry.getKey()) == null) {
-                    setVariable(entry.getKey(), entry.getValue());
-                }
-            }
+        value = super.lookupVariable(name);
+        if (value != null) {
+            return value;
         }
-        setVariable("_ret", ret);
-        setVariable("_errorMsg", errorMsg);
+        return LogRecordContext.getGlobalVariableMap().get(name);
     }
-}
\ No newline at end of file
+}
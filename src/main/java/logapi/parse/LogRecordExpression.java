@@ -0,0 +1,122 @@
+package logapi.parse;
+
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.SpelCompilerMode;
+import org.springframework.expression.spel.SpelNode;
+import org.springframework.expression.spel.ast.FunctionReference;
+import org.springframework.expression.spel.ast.VariableReference;
+import org.springframework.expression.spel.standard.SpelExpression;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 日志模版里的一个 SpEL 表达式，同一个方法上的同一个表达式字符串只解析一次
+ * 记录求值次数，并能查看在 IMMEDIATE/MIXED 模式下是否已经编译成字节码
+ * 当前方法有编译期生成的代码（{@link LogRecordCompiledExpression}）时优先使用，无法处理时再交给 SpEL
+ *
+ * @author wulang
+ **/
+public final class LogRecordExpression {
+
+    /**
+     * SpEL 解释执行超过这个次数后自己会尝试编译，IMMEDIATE 是第 2 次，MIXED 是第 101 次
+     */
+    private final int compileThreshold;
+    private final Expression expression;
+    private final LongAdder evaluationCount = new LongAdder();
+    private final AtomicInteger interpretedCount = new AtomicInteger();
+    private final Set<String> variableNames;
+    private volatile boolean compiled;
+
+    LogRecordExpression(Expression expression, SpelCompilerMode compilerMode) {
+        this.expression = expression;
+        this.variableNames = resolveVariableNames(expression);
+        if (!(expression instanceof SpelExpression) || compilerMode == null || compilerMode == SpelCompilerMode.OFF) {
+            this.compileThreshold = -1;
+        } else {
+            this.compileThreshold = compilerMode == SpelCompilerMode.IMMEDIATE ? 1 : 100;
+        }
+    }
+
+    public Object getValue(EvaluationContext evaluationContext) {
+        evaluationCount.increment();
+        if (evaluationContext instanceof LogRecordEvaluationContext) {
+            Object value = ((LogRecordEvaluationContext) evaluationContext).getCompiledValue(getExpressionString());
+            if (value != LogRecordCompiledExpression.FALLBACK) {
+                return value;
+            }
+        }
+        Object value = expression.getValue(evaluationContext, Object.class);
+        if (compileThreshold >= 0 && !compiled && interpretedCount.incrementAndGet() > compileThreshold) {
+            // SpEL 在这次求值里已经尝试过编译，已编译时 compileExpression 直接返回 true，不会重复编译
+            compiled = ((SpelExpression) expression).compileExpression();
+        }
+        return value;
+    }
+
+    public String getExpressionString() {
+        return expression.getExpressionString();
+    }
+
+    public Expression getExpression() {
+        return expression;
+    }
+
+    /**
+     * @return 表达式里引用的变量名（#name，不包含 #root/#this），无法分析（比如调用了 #fn() 函数）时返回 null
+     */
+    public Set<String> getVariableNames() {
+        return variableNames;
+    }
+
+    public long getEvaluationCount() {
+        return evaluationCount.sum();
+    }
+
+    /**
+     * @return 是否已经编译成功，OFF 模式或者表达式不支持编译时一直为 false
+     * MIXED 模式下编译后的代码执行失败时 SpEL 会退回解释执行，这里不会再变回 false
+     */
+    public boolean isCompiled() {
+        return compiled;
+    }
+
+    private static Set<String> resolveVariableNames(Expression expression) {
+        if (!(expression instanceof SpelExpression)) {
+            return null;
+        }
+        Set<String> names = new HashSet<>();
+        if (!collectVariableNames(((SpelExpression) expression).getAST(), names)) {
+            return null;
+        }
+        return Collections.unmodifiableSet(names);
+    }
+
+    private static boolean collectVariableNames(SpelNode node, Set<String> names) {
+        if (node instanceof FunctionReference) {
+            return false;
+        }
+        if (node instanceof VariableReference) {
+            String name = node.toStringAST().substring(1);
+            if (!"root".equals(name) && !"this".equals(name)) {
+                names.add(name);
+            }
+        }
+        for (int i = 0; i < node.getChildCount(); i++) {
+            if (!collectVariableNames(node.getChild(i), names)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return getExpressionString() + "[evaluations=" + getEvaluationCount() + ", compiled=" + isCompiled() + "]";
+    }
+}
@@ -7,9 +7,17 @@ import org.springframework.context.expression.BeanFactoryResolver;
 import org.springframework.context.expression.CachedExpressionEvaluator;
 import org.springframework.expression.EvaluationContext;
 import org.springframework.expression.Expression;
+import org.springframework.expression.spel.SpelCompilerMode;
+import org.springframework.expression.spel.SpelParserConfiguration;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.util.ClassUtils;
 
 import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -21,11 +29,57 @@ public class LogRecordExpressionEvaluator extends CachedExpressionEvaluator {
 
     private final Map<AnnotatedElementKey, Method> targetMethodCache = new ConcurrentHashMap<>(64);
     private final Map<ExpressionKey, Expression> expressionCache = new ConcurrentHashMap<>(64);
+    private final Map<LogRecordExpressionKey, LogRecordExpression> logRecordExpressionCache = new ConcurrentHashMap<>(64);
+    private final Map<AnnotatedElementKey, Set<String>> parameterNamesCache = new ConcurrentHashMap<>(64);
+    private final LogRecordCompiledExpressions compiledExpressions;
+    private final SpelCompilerMode compilerMode;
+    private volatile BeanFactoryResolver beanFactoryResolver;
+
+    public LogRecordExpressionEvaluator() {
+        super();
+        this.compiledExpressions = new LogRecordCompiledExpressions(ClassUtils.getDefaultClassLoader());
+        this.compilerMode = SpelCompilerMode.OFF;
+    }
+
+    /**
+     * @param compilerMode SpEL 编译模式，IMMEDIATE/MIXED 下表达式会被编译成字节码
+     * @param classLoader  编译生成的类使用的 classLoader，一般是应用的 classLoader
+     */
+    public LogRecordExpressionEvaluator(SpelCompilerMode compilerMode, ClassLoader classLoader) {
+        super(new SpelExpressionParser(new SpelParserConfiguration(compilerMode, classLoader)));
+        this.compiledExpressions = new LogRecordCompiledExpressions(classLoader);
+        this.compilerMode = compilerMode;
+    }
 
     public Object parseExpression(String conditionExpression, AnnotatedElementKey methodKey, EvaluationContext evalContext) {
         return getExpression(this.expressionCache, methodKey, conditionExpression).getValue(evalContext, Object.class);
     }
 
+    /**
+     * 解析表达式，同一个方法上相同的表达式字符串返回同一个实例，调用方可以持有，比如预编译的 {@link LogRecordTemplate}
+     * 不同方法上的同一个表达式各自解析：编译模式下生成的字节码和第一次求值时的参数类型绑定，不能跨方法共用
+     *
+     * @param methodKey  表达式所在的方法 + 目标类
+     * @param expression SpEL 表达式
+     * @return 解析后的表达式
+     */
+    public LogRecordExpression createExpression(AnnotatedElementKey methodKey, String expression) {
+        LogRecordExpressionKey expressionKey = new LogRecordExpressionKey(methodKey, expression);
+        LogRecordExpression logRecordExpression = logRecordExpressionCache.get(expressionKey);
+        if (logRecordExpression == null) {
+            logRecordExpression = logRecordExpressionCache.computeIfAbsent(expressionKey,
+                    key -> new LogRecordExpression(getParser().parseExpression(expression), compilerMode));
+        }
+        return logRecordExpression;
+    }
+
+    /**
+     * @return 已解析的表达式，包含求值次数以及是否已编译
+     */
+    public Collection<LogRecordExpression> getExpressions() {
+        return Collections.unmodifiableCollection(logRecordExpressionCache.values());
+    }
+
     /**
      * Create an {@link EvaluationContext}.
      *
@@ -37,17 +91,57 @@ public class LogRecordExpressionEvaluator extends CachedExpressionEvaluator {
      * @param beanFactory Spring beanFactory
      * @return the evaluation context
      */
-    public EvaluationContext createEvaluationContext(Method method, Object[] args, Class<?> targetClass,
-                                                     Object result, String errorMsg, BeanFactory beanFactory) {
+    public LogRecordEvaluationContext createEvaluationContext(Method method, Object[] args, Class<?> targetClass,
+                                                              Object result, String errorMsg, BeanFactory beanFactory) {
         Method targetMethod = getTargetMethod(targetClass, method);
         LogRecordEvaluationContext evaluationContext = new LogRecordEvaluationContext(
                 null, targetMethod, args, getParameterNameDiscoverer(), result, errorMsg);
+        evaluationContext.setCompiledExpressions(compiledExpressions.getExpressions(targetMethod));
         if (beanFactory != null) {
-            evaluationContext.setBeanResolver(new BeanFactoryResolver(beanFactory));
+            evaluationContext.setBeanResolver(getBeanFactoryResolver(beanFactory));
         }
         return evaluationContext;
     }
 
+    /**
+     * 方法参数在上下文里可以使用的变量名：参数名以及 a0/p0 这样的下标形式
+     *
+     * @return 不可变的变量名集合
+     */
+    public Set<String> getParameterVariableNames(Method method, Class<?> targetClass) {
+        AnnotatedElementKey methodKey = new AnnotatedElementKey(method, targetClass);
+        Set<String> names = parameterNamesCache.get(methodKey);
+        if (names == null) {
+            names = parameterNamesCache.computeIfAbsent(methodKey, key -> resolveParameterVariableNames(getTargetMethod(targetClass, method)));
+        }
+        return names;
+    }
+
+    private Set<String> resolveParameterVariableNames(Method method) {
+        Set<String> names = new HashSet<>();
+        for (int i = 0; i < method.getParameterCount(); i++) {
+            names.add("a" + i);
+            names.add("p" + i);
+        }
+        String[] parameterNames = getParameterNameDiscoverer().getParameterNames(method);
+        if (parameterNames != null) {
+            Collections.addAll(names, parameterNames);
+        }
+        return Collections.unmodifiableSet(names);
+    }
+
+    /**
+     * BeanFactoryResolver 没有状态，同一个 beanFactory 复用一个
+     */
+    private BeanFactoryResolver getBeanFactoryResolver(BeanFactory beanFactory) {
+        BeanFactoryResolver resolver = this.beanFactoryResolver;
+        if (resolver == null) {
+            resolver = new BeanFactoryResolver(beanFactory);
+            this.beanFactoryResolver = resolver;
+        }
+        return resolver;
+    }
+
     private Method getTargetMethod(Class<?> targetClass, Method method) {
         AnnotatedElementKey methodKey = new AnnotatedElementKey(method, targetClass);
         return targetMethodCache.computeIfAbsent(methodKey, k -> AopUtils.getMostSpecificMethod(method, targetClass));
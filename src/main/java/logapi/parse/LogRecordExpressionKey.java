@@ -0,0 +1,44 @@
+package logapi.parse;
+
+import org.springframework.context.expression.AnnotatedElementKey;
+
+/**
+ * 方法 + 表达式（或模版）字符串，和 {@link org.springframework.context.expression.CachedExpressionEvaluator} 的缓存 key 一致
+ * 同一个表达式在不同方法上的参数类型可能不同，IMMEDIATE/MIXED 模式下编译出的字节码不能共用
+ *
+ * @author wulang
+ **/
+final class LogRecordExpressionKey {
+
+    private final AnnotatedElementKey element;
+    private final String expression;
+    private final int hash;
+
+    LogRecordExpressionKey(AnnotatedElementKey element, String expression) {
+        this.element = element;
+        this.expression = expression;
+        this.hash = element.hashCode() * 29 + expression.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof LogRecordExpressionKey)) {
+            return false;
+        }
+        LogRecordExpressionKey otherKey = (LogRecordExpressionKey) other;
+        return hash == otherKey.hash && element.equals(otherKey.element) && expression.equals(otherKey.expression);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return element + " with expression \"" + expression + "\"";
+    }
+}
@@ -0,0 +1,17 @@
+package logapi.parse;
+
+import java.util.Map;
+
+/**
+ * 编译期生成的表达式集合，每个带 @LogRecord 方法的类生成一个实现，通过 ServiceLoader 加载
+ * META-INF/services/logapi.parse.LogRecordExpressionProvider 由注解处理器生成
+ *
+ * @author wulang
+ **/
+public interface LogRecordExpressionProvider {
+
+    /**
+     * @return 方法 key（{@link LogRecordCompiledExpressions#methodKey(Class, String, Class[])}） -> 表达式字符串 -> 生成的求值代码
+     */
+    Map<String, Map<String, LogRecordCompiledExpression>> getExpressions();
+}
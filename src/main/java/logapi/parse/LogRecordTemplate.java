@@ -0,0 +1,85 @@
+package logapi.parse;
+
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * 预编译后的日志模版：模版里 {fn{expr}} 之间的文本片段 + 每个占位符对应的槽位
+ * literals 比 slots 多一个，渲染时按 literal[0] slot[0] literal[1] ... literal[n] 的顺序拼接
+ * 注解里的模版不会变化，同一个模版只解析一次
+ *
+ * @author wulang
+ **/
+@Getter
+public final class LogRecordTemplate {
+
+    private final String template;
+    private final String[] literals;
+    private final Slot[] slots;
+    private final int literalLength;
+    /**
+     * 整个模版只有一个 {{#expr}} 占位符时的表达式，可以直接取表达式的值而不用拼接字符串，否则为 null
+     */
+    private final LogRecordExpression singleExpression;
+
+    LogRecordTemplate(String template, List<String> literals, List<Slot> slots) {
+        this.template = template;
+        this.literals = literals.toArray(new String[0]);
+        this.slots = slots.toArray(new Slot[0]);
+        int length = 0;
+        for (String literal : this.literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+        this.singleExpression = this.slots.length == 1 && this.slots[0].type == SlotType.EXPRESSION
+                && length == 0 ? this.slots[0].expressions[0] : null;
+    }
+
+    public boolean hasSlots() {
+        return slots.length > 0;
+    }
+
+    public enum SlotType {
+        /**
+         * {{#expr}}，直接输出表达式的值
+         */
+        EXPRESSION,
+        /**
+         * {fn{#expr}}，表达式的值经过自定义函数转换
+         */
+        FUNCTION,
+        /**
+         * {_DIFF{#source, #target}} 或 {_DIFF{#target}}
+         */
+        DIFF,
+    }
+
+    @Getter
+    public static final class Slot {
+        private final SlotType type;
+        private final String functionName;
+        private final String expressionString;
+        /**
+         * 函数调用的唯一标志：函数名+参数表达式，用于取方法执行前缓存的函数结果
+         */
+        private final String functionCallInstanceKey;
+        /**
+         * 表达式中是否引用了 #_ret 或 #_errorMsg，引用了就不能在方法执行前求值
+         */
+        private final boolean afterExecuteOnly;
+        /**
+         * EXPRESSION/FUNCTION 为单个表达式，DIFF 为一个或两个参数表达式
+         */
+        private final LogRecordExpression[] expressions;
+
+        Slot(SlotType type, String functionName, String expressionString, LogRecordExpression[] expressions) {
+            this.type = type;
+            this.functionName = functionName;
+            this.expressionString = expressionString;
+            this.functionCallInstanceKey = functionName + expressionString;
+            this.afterExecuteOnly = expressionString.contains("#_ret") || expressionString.contains("#_errorMsg");
+            this.expressions = expressions;
+        }
+    }
+}
@@ -10,10 +10,12 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.expression.AnnotatedElementKey;
 import org.springframework.expression.EvaluationContext;
 import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
 
 import javax.annotation.Resource;
 import java.lang.reflect.Method;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -28,11 +30,14 @@ public class LogRecordValueParser {
 
     private static final Pattern pattern = Pattern.compile("\\{\\s*(\\w*)\\s*\\{(.*?)}}");
     public static final String COMMA = ",";
-    private final LogRecordExpressionEvaluator expressionEvaluator = new LogRecordExpressionEvaluator();
+    private final Map<LogRecordExpressionKey, LogRecordTemplate> templateCache = new ConcurrentHashMap<>(64);
 
     @Resource
     private LogRecordProperties logRecordProperties;
 
+    @Resource
+    private LogRecordExpressionEvaluator expressionEvaluator;
+
     @Resource
     protected BeanFactory beanFactory;
 
@@ -55,60 +60,268 @@ public class LogRecordValueParser {
     public String singleProcessTemplate(MethodExecuteResult methodExecuteResult,
                                         String templates,
                                         Map<String, String> beforeFunctionNameAndReturnMap) {
-        Map<String, String> stringStringMap = processTemplate(Collections.singletonList(templates), methodExecuteResult,
-                beforeFunctionNameAndReturnMap);
-        return stringStringMap.get(templates);
+        EvaluationContext evaluationContext = getEvaluationContext(methodExecuteResult);
+        AnnotatedElementKey methodKey = methodExecuteResult.getMethodKey();
+        Map<LogRecordTemplate.Slot, String> functionValues = resolveFunctionBatch(methodKey, Collections.singletonList(templates),
+                evaluationContext, beforeFunctionNameAndReturnMap);
+        return render(getTemplate(methodKey, templates), methodExecuteResult, evaluationContext, beforeFunctionNameAndReturnMap, functionValues);
     }
 
     public Map<String, String> processTemplate(Collection<String> templates, MethodExecuteResult methodExecuteResult,
                                                Map<String, String> beforeFunctionNameAndReturnMap) {
-        Map<String, String> expressionValues = new HashMap<>();
-        EvaluationContext evaluationContext = expressionEvaluator.createEvaluationContext(methodExecuteResult.getMethod(),
-                methodExecuteResult.getArgs(), methodExecuteResult.getTargetClass(), methodExecuteResult.getResult(),
-                methodExecuteResult.getErrorMsg(), beanFactory);
+        Map<String, String> expressionValues = new HashMap<>(templates.size() * 2);
+        EvaluationContext evaluationContext = getEvaluationContext(methodExecuteResult);
+        AnnotatedElementKey methodKey = methodExecuteResult.getMethodKey();
+        Map<LogRecordTemplate.Slot, String> functionValues = resolveFunctionBatch(methodKey, templates, evaluationContext,
+                beforeFunctionNameAndReturnMap);
+
+        for (String expressionTemplate : templates) {
+            LogRecordTemplate template = getTemplate(methodKey, expressionTemplate);
+            expressionValues.put(expressionTemplate, render(template, methodExecuteResult, evaluationContext,
+                    beforeFunctionNameAndReturnMap, functionValues));
+        }
+        return expressionValues;
+    }
 
+    /**
+     * 同一个自定义函数在这批模版里出现多次时，先求出所有入参，再通过 applyAll 一次转换
+     * 执行前已经算好的函数、入参为 null 的占位符仍然在渲染时逐个处理
+     *
+     * @return 槽位 -> 函数返回值，没有需要批量转换的函数时返回空 map
+     */
+    private Map<LogRecordTemplate.Slot, String> resolveFunctionBatch(AnnotatedElementKey methodKey, Collection<String> templates,
+                                                                     EvaluationContext evaluationContext,
+                                                                     Map<String, String> beforeFunctionNameAndReturnMap) {
+        List<LogRecordTemplate.Slot> functionSlots = null;
         for (String expressionTemplate : templates) {
-            if (expressionTemplate.contains("{")) {
-                Matcher matcher = pattern.matcher(expressionTemplate);
-                StringBuffer parsedStr = new StringBuffer();
-                AnnotatedElementKey annotatedElementKey = new AnnotatedElementKey(methodExecuteResult.getMethod(), methodExecuteResult.getTargetClass());
-                boolean diffLogFlag = !isDiffLog();
-                while (matcher.find()) {
-
-                    String expression = matcher.group(2);
-                    String functionName = matcher.group(1);
-                    if (DiffParseFunction.diffFunctionName.equals(functionName)) {
-                        expression = getDiffFunctionValue(evaluationContext, annotatedElementKey, expression);
-                    } else {
-                        Object value = expressionEvaluator.parseExpression(expression, annotatedElementKey, evaluationContext);
-                        expression = logFunctionParser.getFunctionReturnValue(beforeFunctionNameAndReturnMap, value, expression, functionName);
-                    }
-                    if (expression != null && !Objects.equals(expression, "")) {
-                        diffLogFlag = false;
-                    }
-                    matcher.appendReplacement(parsedStr, Matcher.quoteReplacement(expression == null ? "" : expression));
+            for (LogRecordTemplate.Slot slot : getTemplate(methodKey, expressionTemplate).getSlots()) {
+                if (slot.getType() != LogRecordTemplate.SlotType.FUNCTION || (beforeFunctionNameAndReturnMap != null
+                        && beforeFunctionNameAndReturnMap.containsKey(slot.getFunctionCallInstanceKey()))) {
+                    continue;
+                }
+                if (functionSlots == null) {
+                    functionSlots = new ArrayList<>();
+                }
+                functionSlots.add(slot);
+            }
+        }
+        if (functionSlots == null || functionSlots.size() < 2) {
+            return Collections.emptyMap();
+        }
+        Map<String, List<LogRecordTemplate.Slot>> slotsByFunction = new HashMap<>();
+        for (LogRecordTemplate.Slot slot : functionSlots) {
+            slotsByFunction.computeIfAbsent(slot.getFunctionName(), k -> new ArrayList<>(4)).add(slot);
+        }
+        Map<LogRecordTemplate.Slot, String> functionValues = new IdentityHashMap<>();
+        for (Map.Entry<String, List<LogRecordTemplate.Slot>> entry : slotsByFunction.entrySet()) {
+            List<LogRecordTemplate.Slot> slots = entry.getValue();
+            if (slots.size() < 2) {
+                continue;
+            }
+            Map<LogRecordTemplate.Slot, Object> slotValues = new IdentityHashMap<>();
+            Set<Object> values = new LinkedHashSet<>();
+            for (LogRecordTemplate.Slot slot : slots) {
+                Object value = slot.getExpressions()[0].getValue(evaluationContext);
+                if (value != null) {
+                    slotValues.put(slot, value);
+                    values.add(value);
                 }
-                matcher.appendTail(parsedStr);
-                expressionValues.put(expressionTemplate, diffLogFlag ? expressionTemplate : parsedStr.toString());
-            } else {
-                expressionValues.put(expressionTemplate, expressionTemplate);
             }
+            if (values.size() < 2) {
+                continue;
+            }
+            Map<Object, String> resolved = logFunctionParser.applyFunctions(entry.getKey(), values);
+            for (Map.Entry<LogRecordTemplate.Slot, Object> slotValue : slotValues.entrySet()) {
+                String functionValue = resolved.get(slotValue.getValue());
+                if (functionValue != null) {
+                    functionValues.put(slotValue.getKey(), functionValue);
+                }
+            }
+        }
+        return functionValues;
+    }
 
+    /**
+     * 条件模版求值：模版只有一个 {{#expr}} 占位符且结果是布尔值时直接返回，
+     * 否则渲染成字符串，兼容以前按 true/false 结尾判断的方式
+     *
+     * @return 条件结果，既不是 true 也不是 false 时返回 null
+     */
+    public Boolean evaluateCondition(String condition, MethodExecuteResult methodExecuteResult,
+                                     Map<String, String> beforeFunctionNameAndReturnMap) {
+        LogRecordTemplate template = getTemplate(methodExecuteResult.getMethodKey(), condition);
+        EvaluationContext evaluationContext = getEvaluationContext(methodExecuteResult);
+        LogRecordExpression expression = template.getSingleExpression();
+        if (expression != null) {
+            Object value = expression.getValue(evaluationContext);
+            if (value instanceof Boolean) {
+                return (Boolean) value;
+            }
+            return toCondition(value == null ? null : value.toString());
         }
-        return expressionValues;
+        return toCondition(render(template, methodExecuteResult, evaluationContext, beforeFunctionNameAndReturnMap,
+                Collections.emptyMap()));
     }
 
-    private String getDiffFunctionValue(EvaluationContext evaluationContext, AnnotatedElementKey annotatedElementKey, String expression) {
-        String[] params = parseDiffFunction(expression);
+    /**
+     * 条件能否在方法执行前求值：模版里只有 {{#expr}} 占位符，并且只引用了方法参数
+     * 引用了 #_ret/#_errorMsg、方法里才放进 LogRecordContext 的变量或者自定义函数的条件只能在方法执行后求值
+     */
+    public boolean isBeforeExecuteCondition(String condition, Method method, Class<?> targetClass) {
+        LogRecordTemplate template = getTemplate(new AnnotatedElementKey(method, targetClass), condition);
+        if (!template.hasSlots()) {
+            return false;
+        }
+        Set<String> parameterNames = null;
+        for (LogRecordTemplate.Slot slot : template.getSlots()) {
+            if (slot.getType() != LogRecordTemplate.SlotType.EXPRESSION || slot.isAfterExecuteOnly()) {
+                return false;
+            }
+            Set<String> variableNames = slot.getExpressions()[0].getVariableNames();
+            if (variableNames == null) {
+                return false;
+            }
+            if (variableNames.isEmpty()) {
+                continue;
+            }
+            if (parameterNames == null) {
+                parameterNames = expressionEvaluator.getParameterVariableNames(method, targetClass);
+            }
+            if (!parameterNames.containsAll(variableNames)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Boolean toCondition(String value) {
+        if (StringUtils.endsWithIgnoreCase(value, "true")) {
+            return Boolean.TRUE;
+        }
+        if (StringUtils.endsWithIgnoreCase(value, "false")) {
+            return Boolean.FALSE;
+        }
+        return null;
+    }
+
+    /**
+     * 一次调用只创建一个上下文，之后每次取用时同步最新的返回值和异常信息
+     */
+    private EvaluationContext getEvaluationContext(MethodExecuteResult methodExecuteResult) {
+        LogRecordEvaluationContext evaluationContext = methodExecuteResult.getEvaluationContext();
+        if (evaluationContext == null) {
+            evaluationContext = expressionEvaluator.createEvaluationContext(methodExecuteResult.getMethod(),
+                    methodExecuteResult.getArgs(), methodExecuteResult.getTargetClass(), methodExecuteResult.getResult(),
+                    methodExecuteResult.getErrorMsg(), beanFactory);
+            methodExecuteResult.setEvaluationContext(evaluationContext);
+        } else {
+            evaluationContext.setResult(methodExecuteResult.getResult(), methodExecuteResult.getErrorMsg());
+        }
+        return evaluationContext;
+    }
+
+    private String render(LogRecordTemplate template, MethodExecuteResult methodExecuteResult,
+                          EvaluationContext evaluationContext, Map<String, String> beforeFunctionNameAndReturnMap,
+                          Map<LogRecordTemplate.Slot, String> functionValues) {
+        if (!template.hasSlots()) {
+            return template.getTemplate();
+        }
+        String[] literals = template.getLiterals();
+        LogRecordTemplate.Slot[] slots = template.getSlots();
+        StringBuilder parsedStr = new StringBuilder(template.getLiteralLength() + slots.length * 16);
+        boolean diffLogFlag = !isDiffLog();
+        for (int i = 0; i < slots.length; i++) {
+            parsedStr.append(literals[i]);
+            String value = functionValues.get(slots[i]);
+            if (value == null) {
+                value = evaluateSlot(slots[i], methodExecuteResult, evaluationContext, beforeFunctionNameAndReturnMap);
+            }
+            if (value != null && !value.isEmpty()) {
+                diffLogFlag = false;
+                parsedStr.append(value);
+            }
+        }
+        parsedStr.append(literals[slots.length]);
+        return diffLogFlag ? template.getTemplate() : parsedStr.toString();
+    }
+
+    private String evaluateSlot(LogRecordTemplate.Slot slot, MethodExecuteResult methodExecuteResult,
+                                EvaluationContext evaluationContext, Map<String, String> beforeFunctionNameAndReturnMap) {
+        LogRecordExpression[] expressions = slot.getExpressions();
+        switch (slot.getType()) {
+            case DIFF:
+                long start = System.nanoTime();
+                try {
+                    return getDiffFunctionValue(evaluationContext, expressions);
+                } finally {
+                    methodExecuteResult.addDiffNanos(System.nanoTime() - start);
+                }
+            case FUNCTION:
+                Object value = expressions[0].getValue(evaluationContext);
+                return logFunctionParser.applyFunction(beforeFunctionNameAndReturnMap, value, slot.getFunctionName(),
+                        slot.getFunctionCallInstanceKey());
+            case EXPRESSION:
+            default:
+                Object result = expressions[0].getValue(evaluationContext);
+                return result == null ? "" : result.toString();
+        }
+    }
+
+    private String getDiffFunctionValue(EvaluationContext evaluationContext, LogRecordExpression[] params) {
         if (params.length == 1) {
-            Object targetObj = expressionEvaluator.parseExpression(params[0], annotatedElementKey, evaluationContext);
-            expression = diffParseFunction.diff(targetObj);
-        } else if (params.length == 2) {
-            Object sourceObj = expressionEvaluator.parseExpression(params[0], annotatedElementKey, evaluationContext);
-            Object targetObj = expressionEvaluator.parseExpression(params[1], annotatedElementKey, evaluationContext);
-            expression = diffParseFunction.diff(sourceObj, targetObj);
+            Object targetObj = params[0].getValue(evaluationContext);
+            return diffParseFunction.diff(targetObj);
+        }
+        Object sourceObj = params[0].getValue(evaluationContext);
+        Object targetObj = params[1].getValue(evaluationContext);
+        return diffParseFunction.diff(sourceObj, targetObj);
+    }
+
+    /**
+     * 获取预编译的模版，注解里的模版不会变化，每个方法上的每个模版只解析一次
+     *
+     * @param methodKey 模版所在的方法 + 目标类，模版里的表达式按方法分别解析
+     */
+    public LogRecordTemplate getTemplate(AnnotatedElementKey methodKey, String expressionTemplate) {
+        LogRecordExpressionKey templateKey = new LogRecordExpressionKey(methodKey, expressionTemplate);
+        LogRecordTemplate template = templateCache.get(templateKey);
+        if (template == null) {
+            template = templateCache.computeIfAbsent(templateKey, key -> compileTemplate(methodKey, expressionTemplate));
         }
-        return expression;
+        return template;
+    }
+
+    private LogRecordTemplate compileTemplate(AnnotatedElementKey methodKey, String expressionTemplate) {
+        List<String> literals = new ArrayList<>();
+        List<LogRecordTemplate.Slot> slots = new ArrayList<>();
+        if (expressionTemplate.contains("{")) {
+            Matcher matcher = pattern.matcher(expressionTemplate);
+            int last = 0;
+            while (matcher.find()) {
+                literals.add(expressionTemplate.substring(last, matcher.start()));
+                slots.add(compileSlot(methodKey, matcher.group(1), matcher.group(2)));
+                last = matcher.end();
+            }
+            literals.add(expressionTemplate.substring(last));
+        } else {
+            literals.add(expressionTemplate);
+        }
+        return new LogRecordTemplate(expressionTemplate, literals, slots);
+    }
+
+    private LogRecordTemplate.Slot compileSlot(AnnotatedElementKey methodKey, String functionName, String expression) {
+        if (DiffParseFunction.diffFunctionName.equals(functionName)) {
+            String[] params = parseDiffFunction(expression);
+            LogRecordExpression[] expressions = new LogRecordExpression[params.length];
+            for (int i = 0; i < params.length; i++) {
+                expressions[i] = expressionEvaluator.createExpression(methodKey, params[i]);
+            }
+            return new LogRecordTemplate.Slot(LogRecordTemplate.SlotType.DIFF, functionName, expression, expressions);
+        }
+        LogRecordTemplate.SlotType type = functionName.isEmpty()
+                ? LogRecordTemplate.SlotType.EXPRESSION : LogRecordTemplate.SlotType.FUNCTION;
+        return new LogRecordTemplate.Slot(type, functionName, expression,
+                new LogRecordExpression[]{expressionEvaluator.createExpression(methodKey, expression)});
     }
 
     private String[] parseDiffFunction(String expression) {
@@ -118,27 +331,24 @@ public class LogRecordValueParser {
         return new String[]{expression};
     }
 
-    public Map<String, String> processBeforeExecuteFunctionTemplate(Collection<String> templates, Class<?> targetClass, Method method, Object[] args) {
+    public Map<String, String> processBeforeExecuteFunctionTemplate(Collection<String> templates, MethodExecuteResult methodExecuteResult) {
         Map<String, String> functionNameAndReturnValueMap = new HashMap<>();
-        EvaluationContext evaluationContext = expressionEvaluator.createEvaluationContext(method, args, targetClass, null, null, beanFactory);
+        EvaluationContext evaluationContext = null;
+        AnnotatedElementKey methodKey = methodExecuteResult.getMethodKey();
 
         for (String expressionTemplate : templates) {
-            if (expressionTemplate.contains("{")) {
-                Matcher matcher = pattern.matcher(expressionTemplate);
-                while (matcher.find()) {
-                    String expression = matcher.group(2);
-                    if (expression.contains("#_ret") || expression.contains("#_errorMsg")) {
-                        continue;
-                    }
-                    AnnotatedElementKey annotatedElementKey = new AnnotatedElementKey(method, targetClass);
-                    String functionName = matcher.group(1);
-                    if (logFunctionParser.beforeFunction(functionName)) {
-                        Object value = expressionEvaluator.parseExpression(expression, annotatedElementKey, evaluationContext);
-                        String functionReturnValue = logFunctionParser.getFunctionReturnValue(null, value, expression, functionName);
-                        String functionCallInstanceKey = logFunctionParser.getFunctionCallInstanceKey(functionName, expression);
-                        functionNameAndReturnValueMap.put(functionCallInstanceKey, functionReturnValue);
-                    }
+            for (LogRecordTemplate.Slot slot : getTemplate(methodKey, expressionTemplate).getSlots()) {
+                if (slot.getType() != LogRecordTemplate.SlotType.FUNCTION || slot.isAfterExecuteOnly()
+                        || !logFunctionParser.beforeFunction(slot.getFunctionName())) {
+                    continue;
+                }
+                if (evaluationContext == null) {
+                    evaluationContext = getEvaluationContext(methodExecuteResult);
                 }
+                Object value = slot.getExpressions()[0].getValue(evaluationContext);
+                String functionReturnValue = logFunctionParser.applyFunction(null, value, slot.getFunctionName(),
+                        slot.getFunctionCallInstanceKey());
+                functionNameAndReturnValueMap.put(slot.getFunctionCallInstanceKey(), functionReturnValue);
             }
         }
         return functionNameAndReturnValueMap;
@@ -9,4 +9,11 @@ import de.danielbechler.diff.node.DiffNode;
 public interface IDiffItemsToLogContentService {
 
     String toLogContent(DiffNode diffNode, final Object o1, final Object o2);
+
+    /**
+     * @return 是否需要先用 java-object-diff 生成 DiffNode，返回 false 时 toLogContent 收到的 diffNode 为 null
+     */
+    default boolean requiresDiffNode() {
+        return true;
+    }
 }
@@ -1,8 +1,23 @@
 package logapi.service;
 
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 public interface IFunctionService {
 
     String apply(String functionName, Object value);
 
     boolean beforeFunction(String functionName);
+
+    /**
+     * 同一个函数批量转换，见 {@link IParseFunction#applyAll(Collection)}
+     */
+    default Map<Object, String> applyAll(String functionName, Collection<Object> values) {
+        Map<Object, String> result = new LinkedHashMap<>(values.size() * 2);
+        for (Object value : values) {
+            result.put(value, apply(functionName, value));
+        }
+        return result;
+    }
 }
@@ -0,0 +1,27 @@
+package logapi.service;
+
+import logapi.beans.LogRecord;
+
+/**
+ * 开启 mzt.log.record.pipeline.enabled 后，在处理线程上补充日志内容（比如 traceId、租户），之后再校验、序列化、落库
+ * 处理线程看不到业务线程的 MDC 和 ThreadLocal，这类上下文需要在 {@link #capture()} 里取出，处理线程上通过 enrich 的 context 参数拿到
+ * 多个实现按 {@link org.springframework.core.Ordered} 顺序执行；enrich 同一时刻只有一个线程调用，实现不需要线程安全
+ *
+ * @author wulang
+ **/
+public interface ILogRecordEnricher {
+
+    /**
+     * 在调用 record 的线程上执行，开启 async-after-execute 时这个线程是工作线程而不是业务线程
+     *
+     * @return 传给 {@link #enrich(LogRecord, Object)} 的上下文，不需要时返回 null
+     */
+    default Object capture() {
+        return null;
+    }
+
+    /**
+     * @param context {@link #capture()} 的返回值
+     */
+    void enrich(LogRecord logRecord, Object context);
+}
@@ -2,11 +2,67 @@ package logapi.service;
 
 import org.springframework.util.StopWatch;
 
+import java.lang.reflect.Method;
+
 public interface ILogRecordPerformanceMonitor {
 
-     void print(StopWatch stopWatch);
+     /**
+      * 只实现了这个方法、没有覆盖 {@link #record(String, String, Method, long)} 的监控，拦截器仍然按原来的方式
+      * 为每次调用创建 StopWatch（before-execute、after-execute 两个阶段）并在方法结束后调用
+      *
+      * @deprecated 改为按阶段实现 {@link #record(String, String, Method, long)}，不需要每次调用创建 StopWatch
+      */
+     @Deprecated
+     default void print(StopWatch stopWatch) {
+     }
+
+     /**
+      * @return 是否需要采集耗时，返回 false 时拦截器不会调用 System.nanoTime 和 record
+      */
+     default boolean isEnabled() {
+          return true;
+     }
+
+     /**
+      * 记录一个阶段的耗时
+      *
+      * @param stage   阶段，见 MONITOR_TASK_* 常量
+      * @param bizType 注解上配置的 bizType 模版，方法上没有日志配置时为空字符串
+      * @param method  被拦截的方法
+      * @param nanos   耗时，单位纳秒
+      */
+     default void record(String stage, String bizType, Method method, long nanos) {
+     }
+
+     /**
+      * 开启 fan-out 后，一个输出写完一批日志时在它的线程上调用
+      *
+      * @param sink         输出名称，被包装的 ILogRecordService 为 store
+      * @param size         这批日志的条数
+      * @param lagNanos     这批第一条日志从 record 到开始写入的等待时间，单位纳秒
+      * @param latencyNanos 写入耗时，单位纳秒
+      */
+     default void recordSink(String sink, int size, long lagNanos, long latencyNanos) {
+     }
+
+     /**
+      * 开启 fan-out 后，输出的队列已满、写入失败或者关闭超时丢弃日志时调用
+      *
+      * @param sink  输出名称
+      * @param count 丢弃的条数
+      */
+     default void recordSinkDropped(String sink, int count) {
+     }
 
      String MONITOR_NAME = "log-record-performance";
      String MONITOR_TASK_BEFORE_EXECUTE = "before-execute";
      String MONITOR_TASK_AFTER_EXECUTE = "after-execute";
+     /**
+      * 异步处理时业务线程上保存快照、提交任务的耗时，after-execute 为工作线程上的耗时
+      */
+     String MONITOR_TASK_SUBMIT = "submit";
+     String MONITOR_TASK_TEMPLATE = "template";
+     String MONITOR_TASK_DIFF = "diff";
+     String MONITOR_TASK_OPERATOR = "operator";
+     String MONITOR_TASK_SINK = "sink";
 }
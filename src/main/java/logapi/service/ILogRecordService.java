@@ -14,6 +14,17 @@ public interface ILogRecordService {
      */
     void record(LogRecord logRecord);
 
+    /**
+     * 批量保存log，默认逐条调用 {@link #record(LogRecord)}，实现方可以覆盖为批量插入
+     *
+     * @param logRecords 日志实体列表
+     */
+    default void batchRecord(List<LogRecord> logRecords) {
+        for (LogRecord logRecord : logRecords) {
+            record(logRecord);
+        }
+    }
+
     /**
      * 返回最多100条记录
      *
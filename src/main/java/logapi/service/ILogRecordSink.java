@@ -0,0 +1,42 @@
+package logapi.service;
+
+import logapi.beans.LogRecord;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 开启 mzt.log.record.pipeline.enabled 后，除 ILogRecordService 以外的日志输出（比如审计导出、消息队列）
+ * 每个实现在自己的线程上按顺序收到通过校验的日志，慢的输出不会拖慢落库；
+ * 队列满或者已经关闭时也可能在调用 record 的线程上写入，同一时刻只有一个线程调用 write 和 flush
+ *
+ * @author wulang
+ **/
+public interface ILogRecordSink {
+
+    /**
+     * @return 名称，用于线程名和日志
+     */
+    default String getName() {
+        return getClass().getSimpleName();
+    }
+
+    /**
+     * @return 是否需要序列化后的日志，所有输出都不需要时处理线程跳过序列化
+     */
+    default boolean requiresSerialized() {
+        return false;
+    }
+
+    /**
+     * @param logRecord  日志，不能修改
+     * @param serialized {@link logapi.util.codec.LogRecordCodec} 编码后的只读内容，{@link #requiresSerialized()} 返回 false 时为 null，
+     *                   方法返回后底层缓冲区会被复用，需要保存时自行复制
+     */
+    void write(LogRecord logRecord, ByteBuffer serialized) throws Exception;
+
+    /**
+     * 一批日志写完后调用，攒批的输出在这里提交
+     */
+    default void flush() throws Exception {
+    }
+}
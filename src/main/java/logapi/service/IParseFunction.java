@@ -1,11 +1,23 @@
 package logapi.service;
 
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 public interface IParseFunction {
 
     default boolean executeBefore() {
         return false;
     }
 
+    /**
+     * 函数结果只依赖入参（比如 id 转名称）时可以返回 true，结果按 mzt.log.record.function-cache 的配置缓存
+     * 也可以不改代码，在 mzt.log.record.function-cache.functions 里按函数名开启
+     */
+    default boolean cacheable() {
+        return false;
+    }
+
     String functionName();
 
     /**
@@ -15,4 +27,19 @@ public interface IParseFunction {
      * 老版本需要改下自定义函数的声明，实现使用中把 用到 value的地方修改为 value.toString 就可以兼容了
      */
     String apply(Object value);
+
+    /**
+     * 批量转换，同一个函数需要转换多个值时（比如 diff 出来的 id 列表、同一个模版里的多个占位符）一次调用
+     * 默认逐个调用 {@link #apply(Object)}，可以一次查库/RPC 的函数建议重写
+     *
+     * @param values 函数入参，已去重，不包含 null
+     * @return 入参 -> 文案，缺少的入参会退回逐个调用 apply
+     */
+    default Map<Object, String> applyAll(Collection<Object> values) {
+        Map<Object, String> result = new LinkedHashMap<>(values.size() * 2);
+        for (Object value : values) {
+            result.put(value, apply(value));
+        }
+        return result;
+    }
 }
@@ -0,0 +1,194 @@
+package logapi.service.impl;
+
+import logapi.beans.LogRecord;
+import logapi.service.ILogRecordService;
+import logapi.starter.LogRecordProperties;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 异步批量落库：record 只把日志放入有界队列，后台线程按条数或时间攒批后调用 {@link ILogRecordService#batchRecord(List)}
+ * 查询直接委托给被包装的 ILogRecordService
+ *
+ * @author wulang
+ **/
+@Slf4j
+public class AsyncLogRecordServiceImpl implements ILogRecordService {
+
+    private static final String FLUSHER_THREAD_NAME = "log-record-flusher";
+    private static final long OFFER_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final ILogRecordService delegate;
+    private final BlockingQueue<LogRecord> queue;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final long shutdownTimeoutMillis;
+    private final LogRecordProperties.RejectPolicy rejectPolicy;
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final Thread flusher;
+
+    private volatile boolean running = true;
+
+    public AsyncLogRecordServiceImpl(ILogRecordService delegate, LogRecordProperties.Async async) {
+        this.delegate = delegate;
+        this.queue = new ArrayBlockingQueue<>(async.getQueueCapacity());
+        this.batchSize = Math.max(1, async.getBatchSize());
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(async.getFlushInterval());
+        this.shutdownTimeoutMillis = async.getShutdownTimeout();
+        this.rejectPolicy = async.getRejectPolicy();
+        this.flusher = new Thread(this::flushLoop, FLUSHER_THREAD_NAME);
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    @Override
+    public void record(LogRecord logRecord) {
+        if (!running) {
+            // 已经关闭，退化为同步落库
+            delegate.record(logRecord);
+            return;
+        }
+        switch (rejectPolicy) {
+            case BLOCK:
+                try {
+                    // 限时等待，关闭之后不再等待 flusher 腾出空位
+                    while (!queue.offer(logRecord, OFFER_TIMEOUT_NANOS, TimeUnit.NANOSECONDS)) {
+                        if (!running) {
+                            delegate.record(logRecord);
+                            return;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    delegate.record(logRecord);
+                    return;
+                }
+                break;
+            case DROP:
+                if (!queue.offer(logRecord)) {
+                    long dropped = droppedCount.incrementAndGet();
+                    log.warn("log record queue is full, drop log, bizType={}, bizNo={}, dropped={}",
+                            logRecord.getBizType(), logRecord.getBizNo(), dropped);
+                    return;
+                }
+                break;
+            case CALLER_RUNS:
+            default:
+                if (!queue.offer(logRecord)) {
+                    delegate.record(logRecord);
+                    return;
+                }
+                break;
+        }
+        // 入队的同时关闭了，flusher 和 shutdown 可能都已经不再消费队列，取回来同步落库
+        if (!running && queue.remove(logRecord)) {
+            delegate.record(logRecord);
+        }
+    }
+
+    @Override
+    public List<LogRecord> queryLog(String bizNo, String type) {
+        return delegate.queryLog(bizNo, type);
+    }
+
+    @Override
+    public List<LogRecord> queryLogByBizNo(String bizNo, String type, String subType) {
+        return delegate.queryLogByBizNo(bizNo, type, subType);
+    }
+
+    /**
+     * @return 因队列满被丢弃的日志条数
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * @return 队列中等待落库的日志条数
+     */
+    public int getPendingCount() {
+        return queue.size();
+    }
+
+    /**
+     * 停止接收新日志，并在 shutdownTimeout 内把队列中剩余的日志刷完
+     * flusher 退出之后仍然可能有并发的 record 刚刚入队，在当前线程上同步刷完
+     */
+    public void shutdown() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            flusher.join(shutdownTimeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (flusher.isAlive()) {
+            log.error("log record flusher shutdown timeout, {} logs not saved", queue.size());
+            return;
+        }
+        List<LogRecord> batch = new ArrayList<>(batchSize);
+        while (queue.drainTo(batch, batchSize) > 0) {
+            flush(batch);
+        }
+    }
+
+    private void flushLoop() {
+        List<LogRecord> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                LogRecord first = queue.poll(flushIntervalNanos, TimeUnit.NANOSECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                fillBatch(batch);
+            } catch (InterruptedException e) {
+                running = false;
+            }
+            flush(batch);
+        }
+    }
+
+    /**
+     * 攒批：达到 batchSize 或者距第一条日志超过 flushInterval 就返回
+     */
+    private void fillBatch(List<LogRecord> batch) throws InterruptedException {
+        long deadline = System.nanoTime() + flushIntervalNanos;
+        while (batch.size() < batchSize) {
+            queue.drainTo(batch, batchSize - batch.size());
+            if (batch.size() >= batchSize || !running) {
+                return;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return;
+            }
+            LogRecord next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    private void flush(List<LogRecord> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            delegate.batchRecord(batch);
+        } catch (Exception e) {
+            log.error("log record batch save exception, size={}", batch.size(), e);
+        } finally {
+            batch.clear();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package logapi.service.impl;
+
+import logapi.beans.LogRecord;
+import logapi.service.ILogRecordService;
+import logapi.starter.LogRecordProperties;
+import logapi.util.cache.ExpiringLruCache;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * queryLog/queryLogByBizNo 的结果缓存，key 为 (bizNo, type, subType)
+ * record 写入成功后失效同一个 bizNo 对应的两个 key，因此本实例的写入之后立即能查到
+ * 加载期间如果同一个 bizNo 被写入，加载结果只返回不缓存，避免把写入前的旧结果放进缓存
+ * 其他实例的写入只能等过期，expireAfterWrite 就是跨实例的最大延迟
+ * 包装在最内层（直接包装业务方的 ILogRecordService），异步落库时在真正写入存储后才失效
+ *
+ * @author wulang
+ **/
+public class CachingLogRecordServiceImpl implements ILogRecordService {
+
+    private static final int STAMP_STRIPES = 1024;
+
+    private final ILogRecordService delegate;
+    private final ExpiringLruCache<QueryKey, List<LogRecord>> cache;
+    /**
+     * 按 bizNo 的 hash 分条的写入计数，加载前后不一致说明加载期间可能有写入
+     */
+    private final AtomicLongArray writeStamps = new AtomicLongArray(STAMP_STRIPES);
+
+    public CachingLogRecordServiceImpl(ILogRecordService delegate, LogRecordProperties.QueryCache config) {
+        this.delegate = delegate;
+        this.cache = new ExpiringLruCache<>(config.getMaximumSize(), config.getExpireAfterWrite(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void record(LogRecord logRecord) {
+        delegate.record(logRecord);
+        invalidate(logRecord);
+    }
+
+    @Override
+    public void batchRecord(List<LogRecord> logRecords) {
+        delegate.batchRecord(logRecords);
+        for (LogRecord logRecord : logRecords) {
+            invalidate(logRecord);
+        }
+    }
+
+    @Override
+    public List<LogRecord> queryLog(String bizNo, String type) {
+        return query(new QueryKey(bizNo, type, false, null));
+    }
+
+    @Override
+    public List<LogRecord> queryLogByBizNo(String bizNo, String type, String subType) {
+        return query(new QueryKey(bizNo, type, true, subType));
+    }
+
+    public ExpiringLruCache<?, ?> getCache() {
+        return cache;
+    }
+
+    private List<LogRecord> query(QueryKey key) {
+        int stripe = stripe(key.bizNo);
+        long stamp = writeStamps.get(stripe);
+        return cache.get(key, this::load, () -> writeStamps.get(stripe) == stamp);
+    }
+
+    private List<LogRecord> load(QueryKey key) {
+        List<LogRecord> logRecords = !key.bySubType
+                ? delegate.queryLog(key.bizNo, key.type)
+                : delegate.queryLogByBizNo(key.bizNo, key.type, key.subType);
+        // 缓存的结果被多个调用方共享，不允许修改
+        return logRecords == null ? null : Collections.unmodifiableList(logRecords);
+    }
+
+    /**
+     * 先更新写入计数再失效；加载结果在段锁内检查写入计数后才放入缓存，失效也在段锁内，
+     * 所以加载期间发生的写入要么让检查失败，要么在放入之后把它删掉
+     */
+    private void invalidate(LogRecord logRecord) {
+        writeStamps.incrementAndGet(stripe(logRecord.getBizNo()));
+        cache.invalidate(new QueryKey(logRecord.getBizNo(), logRecord.getBizType(), false, null));
+        cache.invalidate(new QueryKey(logRecord.getBizNo(), logRecord.getBizType(), true, logRecord.getSubBizType()));
+    }
+
+    private static int stripe(String bizNo) {
+        int h = Objects.hashCode(bizNo);
+        h ^= (h >>> 16);
+        return h & (STAMP_STRIPES - 1);
+    }
+
+    private static final class QueryKey {
+        private final String bizNo;
+        private final String type;
+        /**
+         * 区分 queryLog 和 queryLogByBizNo
+         */
+        private final boolean bySubType;
+        private final String subType;
+        private final int hash;
+
+        private QueryKey(String bizNo, String type, boolean bySubType, String subType) {
+            this.bizNo = bizNo;
+            this.type = type;
+            this.bySubType = bySubType;
+            this.subType = subType;
+            this.hash = Objects.hash(bizNo, type, bySubType, subType);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof QueryKey)) {
+                return false;
+            }
+            QueryKey that = (QueryKey) o;
+            return bySubType == that.bySubType && Objects.equals(bizNo, that.bizNo) && Objects.equals(type, that.type)
+                    && Objects.equals(subType, that.subType);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package logapi.service.impl;
+
+import logapi.service.IParseFunction;
+import logapi.util.cache.ExpiringLruCache;
+import org.springframework.beans.BeanUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存自定义函数的结果，比如 id 转名称这类每次都要查库或者 RPC 的函数
+ * 只缓存简单类型（String、数字、枚举等）的入参，对象入参可能被修改，直接调用原函数
+ *
+ * @author wulang
+ **/
+public class CachingParseFunction implements IParseFunction {
+
+    private final IParseFunction delegate;
+    private final ExpiringLruCache<Object, String> cache;
+
+    public CachingParseFunction(IParseFunction delegate, int maximumSize, long expireAfterWrite) {
+        this.delegate = delegate;
+        this.cache = new ExpiringLruCache<>(maximumSize, expireAfterWrite, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public boolean executeBefore() {
+        return delegate.executeBefore();
+    }
+
+    @Override
+    public boolean cacheable() {
+        return true;
+    }
+
+    @Override
+    public String functionName() {
+        return delegate.functionName();
+    }
+
+    @Override
+    public String apply(Object value) {
+        if (value == null || !BeanUtils.isSimpleValueType(value.getClass())) {
+            return delegate.apply(value);
+        }
+        return cache.get(value, delegate::apply);
+    }
+
+    @Override
+    public Map<Object, String> applyAll(Collection<Object> values) {
+        List<Object> cacheableValues = new ArrayList<>(values.size());
+        List<Object> otherValues = null;
+        for (Object value : values) {
+            if (BeanUtils.isSimpleValueType(value.getClass())) {
+                cacheableValues.add(value);
+            } else {
+                if (otherValues == null) {
+                    otherValues = new ArrayList<>();
+                }
+                otherValues.add(value);
+            }
+        }
+        Map<Object, String> result = cache.getAll(cacheableValues, delegate::applyAll);
+        if (otherValues != null) {
+            result.putAll(delegate.applyAll(otherValues));
+        }
+        return result;
+    }
+
+    public IParseFunction getDelegate() {
+        return delegate;
+    }
+
+    public ExpiringLruCache<Object, String> getCache() {
+        return cache;
+    }
+}
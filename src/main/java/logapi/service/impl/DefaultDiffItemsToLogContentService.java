@@ -8,6 +8,7 @@ import logapi.service.IFunctionService;
 import logapi.starter.LogRecordProperties;
 import de.danielbechler.diff.node.DiffNode;
 import de.danielbechler.diff.selector.ElementSelector;
+import logapi.util.diff.CollectionDiffUtils;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
@@ -142,8 +143,9 @@ public class DefaultDiffItemsToLogContentService implements IDiffItemsToLogConte
         Collection<Object> targetList = getListValue(node, targetObject);
         Collection<Object> addItemList = listSubtract(targetList, sourceList);
         Collection<Object> delItemList = listSubtract(sourceList, targetList);
-        String listAddContent = listToContent(functionName, addItemList);
-        String listDelContent = listToContent(functionName, delItemList);
+        Map<Object, String> functionValues = CollectionDiffUtils.applyFunction(functionService, functionName, addItemList, delItemList);
+        String listAddContent = listToContent(functionName, addItemList, functionValues);
+        String listDelContent = listToContent(functionName, delItemList, functionValues);
         return logRecordProperties.formatList(filedLogName, listAddContent, listDelContent);
     }
 
@@ -165,22 +167,25 @@ public class DefaultDiffItemsToLogContentService implements IDiffItemsToLogConte
         Object fieldSourceValue = getFieldValue(node, object);
         //noinspection unchecked
         if (fieldSourceValue != null && fieldSourceValue.getClass().isArray()) {
-            return new ArrayList<>(Arrays.asList((Object[]) fieldSourceValue));
+            return Arrays.asList((Object[]) fieldSourceValue);
         }
         return fieldSourceValue == null ? new ArrayList<>() : (Collection<Object>) fieldSourceValue;
     }
 
+    /**
+     * 与 removeAll 语义一致，hashCode 可靠时 O(n)
+     */
     private Collection<Object> listSubtract(Collection<Object> minuend, Collection<Object> subTractor) {
-        Collection<Object> addItemList = new ArrayList<>(minuend);
-        addItemList.removeAll(subTractor);
-        return addItemList;
+        return CollectionDiffUtils.subtract(minuend, subTractor);
     }
 
-    private String listToContent(String functionName, Collection<Object> addItemList) {
+    private String listToContent(String functionName, Collection<Object> addItemList, Map<Object, String> functionValues) {
         StringBuilder listAddContent = new StringBuilder();
         if (!CollectionUtils.isEmpty(addItemList)) {
             for (Object item : addItemList) {
-                listAddContent.append(getFunctionValue(item, functionName)).append(logRecordProperties.getListItemSeparator());
+                String functionValue = functionValues.get(item.toString());
+                listAddContent.append(functionValue != null ? functionValue : getFunctionValue(item, functionName))
+                        .append(logRecordProperties.getListItemSeparator());
             }
         }
         return listAddContent.toString().replaceAll(logRecordProperties.getListItemSeparator() + "$", "");
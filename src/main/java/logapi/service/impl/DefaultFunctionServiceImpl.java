@@ -4,6 +4,10 @@ package logapi.service.impl;
 import logapi.service.IFunctionService;
 import logapi.service.IParseFunction;
 
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 /**
  * @author muzhantong
  * create on 2021/2/1 5:18 下午
@@ -25,6 +29,19 @@ public class DefaultFunctionServiceImpl implements IFunctionService {
         return function.apply(value);
     }
 
+    @Override
+    public Map<Object, String> applyAll(String functionName, Collection<Object> values) {
+        IParseFunction function = parseFunctionFactory.getFunction(functionName);
+        if (function == null) {
+            Map<Object, String> result = new LinkedHashMap<>(values.size() * 2);
+            for (Object value : values) {
+                result.put(value, value.toString());
+            }
+            return result;
+        }
+        return function.applyAll(values);
+    }
+
     @Override
     public boolean beforeFunction(String functionName) {
         return parseFunctionFactory.isBeforeFunction(functionName);
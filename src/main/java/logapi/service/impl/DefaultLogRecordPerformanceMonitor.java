@@ -2,7 +2,8 @@ package logapi.service.impl;
 
 import logapi.service.ILogRecordPerformanceMonitor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.util.StopWatch;
+
+import java.lang.reflect.Method;
 
 /**
  * @author muzhantong
@@ -12,7 +13,22 @@ import org.springframework.util.StopWatch;
 public class DefaultLogRecordPerformanceMonitor implements ILogRecordPerformanceMonitor {
 
     @Override
-    public void print(StopWatch stopWatch) {
-        log.debug("LogRecord performance={}", stopWatch.prettyPrint());
+    public boolean isEnabled() {
+        return log.isDebugEnabled();
+    }
+
+    @Override
+    public void record(String stage, String bizType, Method method, long nanos) {
+        log.debug("LogRecord performance stage={}, bizType={}, method={}, cost={}ns", stage, bizType, method.getName(), nanos);
+    }
+
+    @Override
+    public void recordSink(String sink, int size, long lagNanos, long latencyNanos) {
+        log.debug("LogRecord sink={}, size={}, lag={}ns, cost={}ns", sink, size, lagNanos, latencyNanos);
+    }
+
+    @Override
+    public void recordSinkDropped(String sink, int count) {
+        log.debug("LogRecord sink={}, dropped={}", sink, count);
     }
 }
@@ -9,7 +9,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 /**
- * 先放入线程池，然后线程池定时录入数据库
+ * 同步落库，开启 mzt.log.record.async.enabled 后由 {@link AsyncLogRecordServiceImpl} 包装，先放入队列，然后定时批量录入数据库
  * @author muzhantong
  * create on 2020/4/29 4:34 下午
  */
@@ -27,6 +27,15 @@ public class DefaultLogRecordServiceImpl implements ILogRecordService {
         logRecordMapper.insertSelective(logRecord);
     }
 
+    @Override
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public void batchRecord(List<LogRecord> logRecords) {
+        log.info("【logRecord】batch size={}", logRecords.size());
+        for (LogRecord logRecord : logRecords) {
+            logRecordMapper.insertSelective(logRecord);
+        }
+    }
+
     @Override
     public List<LogRecord> queryLog(String bizNo, String type) {
         return new ArrayList<>();
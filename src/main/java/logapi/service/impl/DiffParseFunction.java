@@ -3,17 +3,22 @@ package logapi.service.impl;
 import com.mzt.logapi.context.LogRecordContext;
 import logapi.service.IDiffItemsToLogContentService;
 import com.mzt.logapi.util.diff.ArrayDiffer;
+import de.danielbechler.diff.ObjectDiffer;
 import de.danielbechler.diff.ObjectDifferBuilder;
 import de.danielbechler.diff.comparison.ComparisonService;
+import de.danielbechler.diff.introspection.Introspector;
 import de.danielbechler.diff.node.DiffNode;
+import logapi.util.diff.CachingIntrospector;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.aop.support.AopUtils;
 
 import java.lang.reflect.InvocationTargetException;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author muzhantong
@@ -26,7 +31,19 @@ public class DiffParseFunction {
 
     private IDiffItemsToLogContentService diffItemsToLogContentService;
 
-    private final Set<Class<?>> comparisonSet = new HashSet<>();
+    private final Set<Class<?>> comparisonSet = new CopyOnWriteArraySet<>();
+
+    /**
+     * comparisonSet 每变化一次加一，线程内缓存的 ObjectDiffer 版本落后时重新构建
+     */
+    private final AtomicInteger comparisonVersion = new AtomicInteger();
+
+    /**
+     * ObjectDiffer 内部有循环引用检测的状态，不能多线程共享，每个线程构建一次后复用
+     */
+    private final ThreadLocal<VersionedObjectDiffer> objectDifferHolder = new ThreadLocal<>();
+
+    private final Introspector introspector = new CachingIntrospector();
 
     //@Override
     public String functionName() {
@@ -52,15 +69,30 @@ public class DiffParseFunction {
             log.error("diff的两个对象类型不同, source.class={}, target.class={}", source.getClass().toString(), target.getClass().toString());
             return "";
         }
+        DiffNode diffNode = diffItemsToLogContentService.requiresDiffNode() ? getObjectDiffer().compare(target, source) : null;
+        return diffItemsToLogContentService.toLogContent(diffNode, source, target);
+    }
+
+    private ObjectDiffer getObjectDiffer() {
+        int version = comparisonVersion.get();
+        VersionedObjectDiffer holder = objectDifferHolder.get();
+        if (holder == null || holder.version != version) {
+            holder = new VersionedObjectDiffer(version, buildObjectDiffer());
+            objectDifferHolder.set(holder);
+        }
+        return holder.objectDiffer;
+    }
+
+    private ObjectDiffer buildObjectDiffer() {
         ObjectDifferBuilder objectDifferBuilder = ObjectDifferBuilder.startBuilding();
+        objectDifferBuilder.introspection().setDefaultIntrospector(introspector);
         ObjectDifferBuilder register = objectDifferBuilder
                 .differs().register((differDispatcher, nodeQueryService) ->
                         new ArrayDiffer(differDispatcher, (ComparisonService) objectDifferBuilder.comparison(), objectDifferBuilder.identity()));
         for (Class<?> clazz : comparisonSet) {
             register.comparison().ofType(clazz).toUseEqualsMethod();
         }
-        DiffNode diffNode = register.build().compare(target, source);
-        return diffItemsToLogContentService.toLogContent(diffNode, source, target);
+        return register.build();
     }
 
     public String diff(Object newObj) {
@@ -77,7 +109,9 @@ public class DiffParseFunction {
             for (String clazz : classList) {
                 try {
                     Class<?> aClass = Class.forName(clazz);
-                    comparisonSet.add(aClass);
+                    if (comparisonSet.add(aClass)) {
+                        comparisonVersion.incrementAndGet();
+                    }
                 } catch (ClassNotFoundException e) {
                     log.warn("无效的比对类型, className={}", clazz);
                 }
@@ -86,6 +120,25 @@ public class DiffParseFunction {
     }
 
     public void addUseEqualsClass(Class clazz) {
-        comparisonSet.add(clazz);
+        if (comparisonSet.add(clazz)) {
+            comparisonVersion.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return 用 equals 比较、不展开属性的类型，只读视图，之后添加的类型同样可见
+     */
+    public Set<Class<?>> getUseEqualsClasses() {
+        return Collections.unmodifiableSet(comparisonSet);
+    }
+
+    private static final class VersionedObjectDiffer {
+        private final int version;
+        private final ObjectDiffer objectDiffer;
+
+        private VersionedObjectDiffer(int version, ObjectDiffer objectDiffer) {
+            this.version = version;
+            this.objectDiffer = objectDiffer;
+        }
     }
 }
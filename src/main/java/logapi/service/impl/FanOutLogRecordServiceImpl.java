@@ -0,0 +1,383 @@
+package logapi.service.impl;
+
+import logapi.beans.LogRecord;
+import logapi.service.ILogRecordPerformanceMonitor;
+import logapi.service.ILogRecordService;
+import logapi.service.ILogRecordSink;
+import logapi.starter.LogRecordProperties;
+import logapi.util.breaker.CircuitBreaker;
+import logapi.util.codec.LogRecordCodec;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 多输出落库：同一条日志写入被包装的 ILogRecordService（输出名 store）和每个 {@link ILogRecordSink}（比如本地文件、搜索索引）
+ * 每个输出有自己的有界队列、线程和熔断器，record 只入队不等待，慢的或者不可用的输出不会拖慢业务线程和其他输出：
+ * 队列满时丢弃这个输出的日志，连续失败后熔断，熔断期间日志留在队列里，半开探测成功后继续写入
+ * <p>store 不丢日志：队列满时按 storeRejectPolicy 处理，写入失败的批次留在输出线程上，熔断恢复后重试
+ * 重试的是整批，被包装的 ILogRecordService 写入一部分后失败时，这部分会重复写入；入队前给每条日志分配
+ * {@link LogRecord#getIdempotencyKey() 幂等键}（已有的不覆盖），store 需要按它建唯一索引或者去重
+ * 每批的等待时间、写入耗时以及丢弃条数通过 {@link ILogRecordPerformanceMonitor} 上报
+ * <p>开启 spool 时 store 在调用线程上同步写入，写入失败抛给 spool 重试，spool 的 checkpoint 仍然表示已经落库
+ * 查询直接委托给被包装的 ILogRecordService
+ *
+ * @author wulang
+ **/
+@Slf4j
+public class FanOutLogRecordServiceImpl implements ILogRecordService {
+
+    public static final String STORE_SINK_NAME = "store";
+
+    private static final String THREAD_NAME_PREFIX = "log-record-sink-";
+    private static final long POLL_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final int INITIAL_SERIALIZED_CAPACITY = 512;
+
+    private final ILogRecordService delegate;
+    private final boolean syncStore;
+    private final ILogRecordPerformanceMonitor monitor;
+    private final int batchSize;
+    private final long shutdownTimeoutMillis;
+    private final LogRecordProperties.RejectPolicy storeRejectPolicy;
+    private final List<SinkChannel> channels = new ArrayList<>();
+    /**
+     * 幂等键前缀：启动时间 + 随机数，区分不同进程和同一进程里的多个实例
+     */
+    private final String idempotencyKeyPrefix = Long.toString(System.currentTimeMillis(), 36) + "-"
+            + Integer.toString(ThreadLocalRandom.current().nextInt(Integer.MAX_VALUE), 36) + "-";
+    private final AtomicLong idempotencyKeySequence = new AtomicLong();
+
+    private volatile boolean running = true;
+
+    /**
+     * @param syncStore 是否在调用线程上同步写入被包装的 ILogRecordService，外层是 spool 时为 true
+     */
+    public FanOutLogRecordServiceImpl(ILogRecordService delegate, LogRecordProperties.FanOut config, List<ILogRecordSink> sinks,
+                                      ILogRecordPerformanceMonitor monitor, boolean syncStore) {
+        this.delegate = delegate;
+        this.syncStore = syncStore;
+        this.monitor = monitor;
+        this.batchSize = Math.max(1, config.getBatchSize());
+        this.shutdownTimeoutMillis = config.getShutdownTimeout();
+        this.storeRejectPolicy = config.getStoreRejectPolicy();
+        if (!syncStore) {
+            channels.add(new SinkChannel(STORE_SINK_NAME, config, new StoreWriter(), true));
+        }
+        for (ILogRecordSink sink : sinks) {
+            channels.add(new SinkChannel(sink.getName(), config, new SinkWriter(sink), false));
+        }
+        for (SinkChannel channel : channels) {
+            channel.thread.start();
+        }
+    }
+
+    @Override
+    public void record(LogRecord logRecord) {
+        if (!running) {
+            // 已经关闭，退化为同步落库
+            delegate.record(logRecord);
+            return;
+        }
+        if (syncStore) {
+            delegate.record(logRecord);
+        } else {
+            assignIdempotencyKey(logRecord);
+        }
+        Entry entry = new Entry(logRecord, System.nanoTime());
+        for (SinkChannel channel : channels) {
+            channel.offer(entry);
+        }
+    }
+
+    @Override
+    public void batchRecord(List<LogRecord> logRecords) {
+        if (!running) {
+            delegate.batchRecord(logRecords);
+            return;
+        }
+        if (syncStore) {
+            delegate.batchRecord(logRecords);
+        }
+        long now = System.nanoTime();
+        for (LogRecord logRecord : logRecords) {
+            if (!syncStore) {
+                assignIdempotencyKey(logRecord);
+            }
+            Entry entry = new Entry(logRecord, now);
+            for (SinkChannel channel : channels) {
+                channel.offer(entry);
+            }
+        }
+    }
+
+    /**
+     * store 失败重试整批，可能重复写入，用幂等键去重；开启 spool 时 spool 已经按写入位置生成
+     */
+    private void assignIdempotencyKey(LogRecord logRecord) {
+        if (logRecord.getIdempotencyKey() == null) {
+            logRecord.setIdempotencyKey(idempotencyKeyPrefix + Long.toString(idempotencyKeySequence.incrementAndGet(), 36));
+        }
+    }
+
+    @Override
+    public List<LogRecord> queryLog(String bizNo, String type) {
+        return delegate.queryLog(bizNo, type);
+    }
+
+    @Override
+    public List<LogRecord> queryLogByBizNo(String bizNo, String type, String subType) {
+        return delegate.queryLogByBizNo(bizNo, type, subType);
+    }
+
+    /**
+     * @return 所有输出因队列满、写入失败、关闭超时丢弃的日志条数之和，store 只会因为 DROP 策略或者关闭超时丢弃
+     */
+    public long getDroppedCount() {
+        long dropped = 0;
+        for (SinkChannel channel : channels) {
+            dropped += channel.droppedCount.get();
+        }
+        return dropped;
+    }
+
+    /**
+     * @return 所有输出队列中等待写入的日志条数之和
+     */
+    public int getPendingCount() {
+        int pending = 0;
+        for (SinkChannel channel : channels) {
+            pending += channel.queue.size() + channel.retainedCount;
+        }
+        return pending;
+    }
+
+    /**
+     * @return 输出当前的熔断状态，输出不存在时返回 null
+     */
+    public CircuitBreaker.State getCircuitBreakerState(String sink) {
+        for (SinkChannel channel : channels) {
+            if (channel.name.equals(sink)) {
+                return channel.circuitBreaker.getState();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 停止接收新日志，并在 shutdownTimeout 内让每个输出写完队列中剩余的日志，熔断中的输出直接丢弃
+     * 之后 store 队列满时不再等待，直接同步落库
+     */
+    public void shutdown() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(shutdownTimeoutMillis);
+        for (SinkChannel channel : channels) {
+            try {
+                channel.thread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        for (SinkChannel channel : channels) {
+            int pending = channel.queue.size() + channel.retainedCount;
+            if (pending > 0) {
+                log.error("log record sink {} shutdown timeout, {} logs not written", channel.name, pending);
+                monitor.recordSinkDropped(channel.name, pending);
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final LogRecord logRecord;
+        private final long createNanos;
+
+        private Entry(LogRecord logRecord, long createNanos) {
+            this.logRecord = logRecord;
+            this.createNanos = createNanos;
+        }
+    }
+
+    @FunctionalInterface
+    private interface BatchWriter {
+        void write(List<Entry> batch) throws Exception;
+    }
+
+    private final class StoreWriter implements BatchWriter {
+
+        private final List<LogRecord> logRecords = new ArrayList<>(batchSize);
+
+        @Override
+        public void write(List<Entry> batch) {
+            try {
+                for (Entry entry : batch) {
+                    logRecords.add(entry.logRecord);
+                }
+                delegate.batchRecord(logRecords);
+            } finally {
+                logRecords.clear();
+            }
+        }
+    }
+
+    private static final class SinkWriter implements BatchWriter {
+
+        private final ILogRecordSink sink;
+        private final boolean serialized;
+        private ByteBuffer buffer;
+
+        private SinkWriter(ILogRecordSink sink) {
+            this.sink = sink;
+            this.serialized = sink.requiresSerialized();
+            this.buffer = serialized ? ByteBuffer.allocate(INITIAL_SERIALIZED_CAPACITY) : null;
+        }
+
+        @Override
+        public void write(List<Entry> batch) throws Exception {
+            for (Entry entry : batch) {
+                if (serialized) {
+                    buffer = LogRecordCodec.encodeGrowing(entry.logRecord, buffer);
+                    sink.write(entry.logRecord, buffer.asReadOnlyBuffer());
+                } else {
+                    sink.write(entry.logRecord, null);
+                }
+            }
+            sink.flush();
+        }
+    }
+
+    /**
+     * 一个输出：有界队列 + 写入线程 + 熔断器，只有写入线程访问 batch 和熔断器
+     * retryFailed 为 true 时（store）写入失败的 batch 不清空，等熔断器放行后原样重试，已经写入的日志靠幂等键去重
+     */
+    private final class SinkChannel implements Runnable {
+
+        private final String name;
+        private final BatchWriter writer;
+        private final boolean retryFailed;
+        private final BlockingQueue<Entry> queue;
+        private final CircuitBreaker circuitBreaker;
+        private final AtomicLong droppedCount = new AtomicLong();
+        private final List<Entry> batch = new ArrayList<>(batchSize);
+        private final Thread thread;
+        /**
+         * 写入失败、等待重试的条数，供其他线程读取
+         */
+        private volatile int retainedCount;
+
+        private SinkChannel(String name, LogRecordProperties.FanOut config, BatchWriter writer, boolean retryFailed) {
+            this.name = name;
+            this.writer = writer;
+            this.retryFailed = retryFailed;
+            this.queue = new ArrayBlockingQueue<>(config.getQueueCapacity());
+            this.circuitBreaker = new CircuitBreaker(config.getFailureThreshold(), config.getOpenDuration());
+            this.thread = new Thread(this, THREAD_NAME_PREFIX + name);
+            this.thread.setDaemon(true);
+        }
+
+        private void offer(Entry entry) {
+            if (queue.offer(entry)) {
+                return;
+            }
+            // 只有 store 使用 storeRejectPolicy，其他输出队列满时直接丢弃
+            LogRecordProperties.RejectPolicy rejectPolicy = retryFailed ? storeRejectPolicy : LogRecordProperties.RejectPolicy.DROP;
+            switch (rejectPolicy) {
+                case BLOCK:
+                    try {
+                        while (running) {
+                            if (queue.offer(entry, POLL_INTERVAL_NANOS, TimeUnit.NANOSECONDS)) {
+                                return;
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    // 已经关闭或者等待被中断，输出线程可能不再消费队列，同步落库
+                    delegate.record(entry.logRecord);
+                    break;
+                case CALLER_RUNS:
+                    delegate.record(entry.logRecord);
+                    break;
+                case DROP:
+                default:
+                    long dropped = droppedCount.incrementAndGet();
+                    log.warn("log record sink {} queue is full, drop log, bizType={}, bizNo={}, dropped={}",
+                            name, entry.logRecord.getBizType(), entry.logRecord.getBizNo(), dropped);
+                    monitor.recordSinkDropped(name, 1);
+                    break;
+            }
+        }
+
+        @Override
+        public void run() {
+            while (running || !queue.isEmpty() || !batch.isEmpty()) {
+                if (!circuitBreaker.allowRequest()) {
+                    if (!running) {
+                        // 关闭时不再等待熔断恢复
+                        return;
+                    }
+                    LockSupport.parkNanos(Math.min(circuitBreaker.getRemainingOpenNanos(), POLL_INTERVAL_NANOS));
+                    continue;
+                }
+                if (batch.isEmpty()) {
+                    try {
+                        Entry first = queue.poll(POLL_INTERVAL_NANOS, TimeUnit.NANOSECONDS);
+                        if (first == null) {
+                            continue;
+                        }
+                        batch.add(first);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    queue.drainTo(batch, batchSize - 1);
+                }
+                if (!write()) {
+                    // 熔断器打开之前也不要立即重试
+                    LockSupport.parkNanos(POLL_INTERVAL_NANOS);
+                }
+            }
+        }
+
+        /**
+         * @return 是否写完了这一批，写入失败并保留下来等待重试时返回 false
+         */
+        private boolean write() {
+            long start = System.nanoTime();
+            try {
+                writer.write(batch);
+            } catch (Exception e) {
+                circuitBreaker.onFailure();
+                if (retryFailed) {
+                    retainedCount = batch.size();
+                    log.error("log record sink {} write exception, retry later, size={}, circuitBreaker={}",
+                            name, batch.size(), circuitBreaker.getState(), e);
+                    return false;
+                }
+                long dropped = droppedCount.addAndGet(batch.size());
+                log.error("log record sink {} write exception, size={}, circuitBreaker={}, dropped={}",
+                        name, batch.size(), circuitBreaker.getState(), dropped, e);
+                monitor.recordSinkDropped(name, batch.size());
+                batch.clear();
+                return true;
+            }
+            circuitBreaker.onSuccess();
+            if (monitor.isEnabled()) {
+                monitor.recordSink(name, batch.size(), start - batch.get(0).createNanos, System.nanoTime() - start);
+            }
+            retainedCount = 0;
+            batch.clear();
+            return true;
+        }
+    }
+}
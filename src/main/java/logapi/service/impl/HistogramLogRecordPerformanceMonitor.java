@@ -0,0 +1,163 @@
+package logapi.service.impl;
+
+import logapi.service.ILogRecordPerformanceMonitor;
+import logapi.util.metrics.LatencyHistogram;
+import lombok.Getter;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * 按 阶段 + bizType + 方法 统计耗时分布，可以查看切面给每个接口增加的 p99 耗时；开启 fan-out 时另外按输出统计等待时间、写入耗时和丢弃条数
+ * 开启方式：mzt.log.record.metrics-enabled=true，存在 Micrometer 时同时导出到 MeterRegistry
+ *
+ * @author wulang
+ **/
+public class HistogramLogRecordPerformanceMonitor implements ILogRecordPerformanceMonitor {
+
+    /**
+     * method -> bizType -> stage -> histogram，三层 map 查找，热路径上不创建 key 对象
+     */
+    private final Map<Method, Map<String, Map<String, Metric>>> metrics = new ConcurrentHashMap<>(64);
+    private final List<Consumer<Metric>> listeners = new CopyOnWriteArrayList<>();
+    private final Map<String, SinkMetric> sinkMetrics = new ConcurrentHashMap<>(8);
+    private final List<Consumer<SinkMetric>> sinkListeners = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void record(String stage, String bizType, Method method, long nanos) {
+        Map<String, Map<String, Metric>> byBizType = metrics.get(method);
+        if (byBizType == null) {
+            byBizType = metrics.computeIfAbsent(method, k -> new ConcurrentHashMap<>(4));
+        }
+        Map<String, Metric> stageMetrics = byBizType.get(bizType);
+        if (stageMetrics == null) {
+            stageMetrics = byBizType.computeIfAbsent(bizType, k -> new ConcurrentHashMap<>(8));
+        }
+        Metric metric = stageMetrics.get(stage);
+        if (metric == null) {
+            metric = stageMetrics.computeIfAbsent(stage, k -> newMetric(stage, bizType, method));
+        }
+        metric.getHistogram().record(nanos);
+    }
+
+    @Override
+    public void recordSink(String sink, int size, long lagNanos, long latencyNanos) {
+        SinkMetric metric = getSinkMetric(sink);
+        metric.written.add(size);
+        metric.lag.record(lagNanos);
+        metric.latency.record(latencyNanos);
+    }
+
+    @Override
+    public void recordSinkDropped(String sink, int count) {
+        getSinkMetric(sink).dropped.add(count);
+    }
+
+    private SinkMetric getSinkMetric(String sink) {
+        SinkMetric metric = sinkMetrics.get(sink);
+        if (metric == null) {
+            metric = sinkMetrics.computeIfAbsent(sink, this::newSinkMetric);
+        }
+        return metric;
+    }
+
+    private SinkMetric newSinkMetric(String sink) {
+        SinkMetric metric = new SinkMetric(sink);
+        for (Consumer<SinkMetric> listener : sinkListeners) {
+            listener.accept(metric);
+        }
+        return metric;
+    }
+
+    /**
+     * 新的输出第一次出现时回调，已有的输出立即回调一次，用于导出到监控系统
+     */
+    public void addSinkMetricListener(Consumer<SinkMetric> listener) {
+        sinkListeners.add(listener);
+        sinkMetrics.values().forEach(listener);
+    }
+
+    public List<SinkMetric> getSinkMetrics() {
+        return new ArrayList<>(sinkMetrics.values());
+    }
+
+    /**
+     * 新的 阶段 + bizType + 方法 组合第一次出现时回调，已有的组合立即回调一次，用于导出到监控系统
+     */
+    public void addMetricListener(Consumer<Metric> listener) {
+        listeners.add(listener);
+        getMetrics().forEach(listener);
+    }
+
+    public List<Metric> getMetrics() {
+        List<Metric> result = new ArrayList<>();
+        for (Map<String, Map<String, Metric>> byBizType : metrics.values()) {
+            for (Map<String, Metric> byStage : byBizType.values()) {
+                result.addAll(byStage.values());
+            }
+        }
+        return result;
+    }
+
+    private Metric newMetric(String stage, String bizType, Method method) {
+        Metric metric = new Metric(stage, bizType, method.getDeclaringClass().getSimpleName() + "#" + method.getName());
+        for (Consumer<Metric> listener : listeners) {
+            listener.accept(metric);
+        }
+        return metric;
+    }
+
+    @Getter
+    public static final class Metric {
+        private final String stage;
+        private final String bizType;
+        private final String method;
+        private final LatencyHistogram histogram = new LatencyHistogram();
+
+        private Metric(String stage, String bizType, String method) {
+            this.stage = stage;
+            this.bizType = bizType;
+            this.method = method;
+        }
+
+        @Override
+        public String toString() {
+            return "stage=" + stage + ", bizType=" + bizType + ", method=" + method
+                    + ", count=" + histogram.getCount()
+                    + ", p50=" + histogram.getPercentile(50)
+                    + ", p99=" + histogram.getPercentile(99)
+                    + ", max=" + histogram.getMaxNanos();
+        }
+    }
+
+    @Getter
+    public static final class SinkMetric {
+        private final String sink;
+        /**
+         * 从 record 到开始写入的等待时间
+         */
+        private final LatencyHistogram lag = new LatencyHistogram();
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder written = new LongAdder();
+        private final LongAdder dropped = new LongAdder();
+
+        private SinkMetric(String sink) {
+            this.sink = sink;
+        }
+
+        @Override
+        public String toString() {
+            return "sink=" + sink + ", written=" + written.sum() + ", dropped=" + dropped.sum()
+                    + ", lagP99=" + lag.getPercentile(99)
+                    + ", p50=" + latency.getPercentile(50)
+                    + ", p99=" + latency.getPercentile(99)
+                    + ", max=" + latency.getMaxNanos();
+        }
+    }
+}
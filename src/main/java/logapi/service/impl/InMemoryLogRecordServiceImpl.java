@@ -0,0 +1,128 @@
+package logapi.service.impl;
+
+import logapi.beans.LogRecord;
+import logapi.service.ILogRecordService;
+import logapi.starter.LogRecordProperties;
+import logapi.util.store.InMemoryLogRecordStore;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 最近日志的内存层：record 同时写入内存索引和被包装的 ILogRecordService
+ * 查询只需要最新的 100 条，内存里已经有 100 条时直接返回；不足时再查被包装的服务，两边的结果去重后按时间倒序合并，
+ * 这样异步落库还没有写入存储的日志也能查到，被包装的服务查不到数据（比如默认实现）时仍然返回内存里的日志
+ * delegate 为 null 时只使用内存，适合本地开发
+ * 内存索引只包含当前实例写入的日志，多实例部署时内存命中的结果不包含其他实例刚写入的日志
+ *
+ * @author wulang
+ **/
+public class InMemoryLogRecordServiceImpl implements ILogRecordService {
+
+    public static final int QUERY_LIMIT = 100;
+
+    private static final Comparator<LogRecord> NEWEST_FIRST = Comparator.comparing(LogRecord::getCreateTime,
+            Comparator.nullsLast(Comparator.reverseOrder()));
+
+    private final ILogRecordService delegate;
+    private final InMemoryLogRecordStore store;
+
+    public InMemoryLogRecordServiceImpl(LogRecordProperties.MemoryStore config) {
+        this(null, config);
+    }
+
+    public InMemoryLogRecordServiceImpl(ILogRecordService delegate, LogRecordProperties.MemoryStore config) {
+        this.delegate = delegate;
+        this.store = new InMemoryLogRecordStore(config.getSegmentCapacity(), config.getMaxBytes());
+    }
+
+    @Override
+    public void record(LogRecord logRecord) {
+        store.add(logRecord);
+        if (delegate != null) {
+            delegate.record(logRecord);
+        }
+    }
+
+    @Override
+    public void batchRecord(List<LogRecord> logRecords) {
+        for (LogRecord logRecord : logRecords) {
+            store.add(logRecord);
+        }
+        if (delegate != null) {
+            delegate.batchRecord(logRecords);
+        }
+    }
+
+    @Override
+    public List<LogRecord> queryLog(String bizNo, String type) {
+        List<LogRecord> logRecords = store.query(type, bizNo, QUERY_LIMIT);
+        if (delegate == null || logRecords.size() >= QUERY_LIMIT) {
+            return logRecords;
+        }
+        return merge(logRecords, delegate.queryLog(bizNo, type));
+    }
+
+    @Override
+    public List<LogRecord> queryLogByBizNo(String bizNo, String type, String subType) {
+        List<LogRecord> logRecords = store.query(type, subType, bizNo, QUERY_LIMIT);
+        if (delegate == null || logRecords.size() >= QUERY_LIMIT) {
+            return logRecords;
+        }
+        return merge(logRecords, delegate.queryLogByBizNo(bizNo, type, subType));
+    }
+
+    /**
+     * 存储里的日志与内存里某一条的幂等键、id 或者内容相同时视为重复，结果按创建时间倒序，最多 100 条
+     */
+    private static List<LogRecord> merge(List<LogRecord> memoryRecords, List<LogRecord> storedRecords) {
+        if (storedRecords == null || storedRecords.isEmpty()) {
+            return memoryRecords;
+        }
+        if (memoryRecords.isEmpty()) {
+            return storedRecords;
+        }
+        List<LogRecord> result = new ArrayList<>(memoryRecords.size() + storedRecords.size());
+        Set<Object> keys = new HashSet<>();
+        for (LogRecord logRecord : memoryRecords) {
+            addDedupeKeys(keys, logRecord);
+            result.add(logRecord);
+        }
+        for (LogRecord logRecord : storedRecords) {
+            if (!isDuplicate(keys, logRecord)) {
+                result.add(logRecord);
+            }
+        }
+        result.sort(NEWEST_FIRST);
+        return result.size() > QUERY_LIMIT ? new ArrayList<>(result.subList(0, QUERY_LIMIT)) : result;
+    }
+
+    private static void addDedupeKeys(Set<Object> keys, LogRecord logRecord) {
+        if (logRecord.getIdempotencyKey() != null) {
+            keys.add(logRecord.getIdempotencyKey());
+        }
+        if (logRecord.getId() != null) {
+            keys.add(logRecord.getId());
+        }
+        keys.add(contentKey(logRecord));
+    }
+
+    private static boolean isDuplicate(Set<Object> keys, LogRecord logRecord) {
+        return (logRecord.getIdempotencyKey() != null && keys.contains(logRecord.getIdempotencyKey()))
+                || (logRecord.getId() != null && keys.contains(logRecord.getId()))
+                || keys.contains(contentKey(logRecord));
+    }
+
+    private static List<Object> contentKey(LogRecord logRecord) {
+        return Arrays.asList(logRecord.getCreateTime(), logRecord.getBizType(), logRecord.getSubBizType(),
+                logRecord.getBizNo(), logRecord.getOperator(), logRecord.getAction());
+    }
+
+    public InMemoryLogRecordStore getStore() {
+        return store;
+    }
+}
@@ -0,0 +1,123 @@
+package logapi.service.impl;
+
+import logapi.beans.LogRecord;
+import logapi.service.ILogRecordSink;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本地替身输出，保存最近写入的日志，用于测试 fan-out 而不依赖文件、搜索索引等外部系统
+ * 可以模拟慢输出（latencyMillis）和不可用的输出（failing），验证队列、熔断和监控指标
+ * 开启方式：mzt.log.record.fan-out.local-sink=true
+ *
+ * @author wulang
+ **/
+public class LocalLogRecordSink implements ILogRecordSink {
+
+    private final String name;
+    private final int capacity;
+    private final Deque<LogRecord> records;
+    private final AtomicLong writtenCount = new AtomicLong();
+    private final AtomicLong serializedBytes = new AtomicLong();
+    private volatile boolean serialized;
+    private volatile long latencyMillis;
+    private volatile boolean failing;
+
+    public LocalLogRecordSink() {
+        this("local", 1000);
+    }
+
+    /**
+     * @param capacity 最多保存的日志条数，超过后丢弃最老的
+     */
+    public LocalLogRecordSink(String name, int capacity) {
+        this.name = name;
+        this.capacity = Math.max(1, capacity);
+        this.records = new ArrayDeque<>(this.capacity);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public boolean requiresSerialized() {
+        return serialized;
+    }
+
+    @Override
+    public void write(LogRecord logRecord, ByteBuffer serialized) throws Exception {
+        if (failing) {
+            throw new IllegalStateException("local log record sink is failing");
+        }
+        if (serialized != null) {
+            serializedBytes.addAndGet(serialized.remaining());
+        }
+        synchronized (records) {
+            if (records.size() == capacity) {
+                records.pollFirst();
+            }
+            records.addLast(logRecord);
+        }
+        writtenCount.incrementAndGet();
+    }
+
+    @Override
+    public void flush() throws Exception {
+        long latency = latencyMillis;
+        if (latency > 0) {
+            TimeUnit.MILLISECONDS.sleep(latency);
+        }
+    }
+
+    /**
+     * @return 最近写入的日志，按写入顺序
+     */
+    public List<LogRecord> getRecords() {
+        synchronized (records) {
+            return new ArrayList<>(records);
+        }
+    }
+
+    public void clear() {
+        synchronized (records) {
+            records.clear();
+        }
+    }
+
+    public long getWrittenCount() {
+        return writtenCount.get();
+    }
+
+    public long getSerializedBytes() {
+        return serializedBytes.get();
+    }
+
+    /**
+     * 是否要求序列化后的日志，需要在开启 fan-out 之前设置
+     */
+    public void setSerialized(boolean serialized) {
+        this.serialized = serialized;
+    }
+
+    /**
+     * 每批写入后等待的时间，模拟慢输出
+     */
+    public void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * 开启后每次写入都抛异常，模拟不可用的输出
+     */
+    public void setFailing(boolean failing) {
+        this.failing = failing;
+    }
+}
@@ -1,9 +1,12 @@
 package logapi.service.impl;
 
 import logapi.service.IParseFunction;
+import logapi.starter.LogRecordProperties;
+import logapi.util.cache.ExpiringLruCache;
 import org.springframework.util.CollectionUtils;
 import org.springframework.util.StringUtils;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -16,25 +19,53 @@ import java.util.Map;
 
 public class ParseFunctionFactory {
     private Map<String, IParseFunction> allFunctionMap;
+    private Map<String, ExpiringLruCache<Object, String>> functionCaches = Collections.emptyMap();
 
     public ParseFunctionFactory(List<IParseFunction> parseFunctions) {
+        this(parseFunctions, null);
+    }
+
+    /**
+     * @param functionCache 函数结果缓存配置，开启了缓存的函数在这里包装一层 {@link CachingParseFunction}
+     */
+    public ParseFunctionFactory(List<IParseFunction> parseFunctions, LogRecordProperties.FunctionCache functionCache) {
         if (CollectionUtils.isEmpty(parseFunctions)) {
             return;
         }
         allFunctionMap = new HashMap<>();
+        Map<String, ExpiringLruCache<Object, String>> caches = new HashMap<>();
         for (IParseFunction parseFunction : parseFunctions) {
-            if (StringUtils.isEmpty(parseFunction.functionName())) {
+            String functionName = parseFunction.functionName();
+            if (StringUtils.isEmpty(functionName)) {
                 continue;
             }
-            allFunctionMap.put(parseFunction.functionName(), parseFunction);
+            if (functionCache != null && (parseFunction.cacheable() || functionCache.getFunctions().containsKey(functionName))) {
+                CachingParseFunction cachingParseFunction = new CachingParseFunction(parseFunction,
+                        functionCache.getMaximumSize(functionName), functionCache.getExpireAfterWrite(functionName));
+                caches.put(functionName, cachingParseFunction.getCache());
+                parseFunction = cachingParseFunction;
+            }
+            allFunctionMap.put(functionName, parseFunction);
         }
+        functionCaches = Collections.unmodifiableMap(caches);
     }
 
     public IParseFunction getFunction(String functionName) {
         return allFunctionMap.get(functionName);
     }
 
+    public boolean hasFunction(String functionName) {
+        return allFunctionMap != null && allFunctionMap.containsKey(functionName);
+    }
+
     public boolean isBeforeFunction(String functionName) {
         return allFunctionMap.get(functionName) != null && allFunctionMap.get(functionName).executeBefore();
     }
+
+    /**
+     * @return 函数名 -> 结果缓存，只包含开启了缓存的函数
+     */
+    public Map<String, ExpiringLruCache<Object, String>> getFunctionCaches() {
+        return functionCaches;
+    }
 }
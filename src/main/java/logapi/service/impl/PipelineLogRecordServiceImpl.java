@@ -0,0 +1,377 @@
+package logapi.service.impl;
+
+import logapi.beans.LogRecord;
+import logapi.service.ILogRecordEnricher;
+import logapi.service.ILogRecordService;
+import logapi.service.ILogRecordSink;
+import logapi.starter.LogRecordProperties;
+import logapi.util.codec.LogRecordCodec;
+import logapi.util.ring.BatchEventProcessor;
+import logapi.util.ring.EventHandler;
+import logapi.util.ring.RingBuffer;
+import logapi.util.ring.Sequence;
+import logapi.util.ring.WaitStrategies;
+import logapi.util.ring.WaitStrategy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.StringUtils;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 分阶段落库：record 只把日志放进预分配的 {@link RingBuffer}，处理线程依次补充（{@link ILogRecordEnricher}）、校验、序列化，
+ * 之后被包装的 ILogRecordService 和每个 {@link ILogRecordSink} 在各自的线程上并行消费同一个槽位
+ * <p>槽位和序列化缓冲区一直复用；LogRecord 本身不复用，落库、内存索引等会继续持有它的引用
+ * <p>producerType=SINGLE 只适用于只有一个线程调用 record 的场景；队列满时的 CALLER_RUNS 和关闭之后的 record
+ * 在调用线程上依次补充、校验、序列化，再同步写入被包装的 ILogRecordService 和每个 ILogRecordSink
+ * <p>{@link ILogRecordEnricher#capture()} 在 record 的线程上执行，结果随槽位交给处理线程
+ * 查询直接委托给被包装的 ILogRecordService
+ *
+ * @author wulang
+ **/
+@Slf4j
+public class PipelineLogRecordServiceImpl implements ILogRecordService {
+
+    private static final String THREAD_NAME_PREFIX = "log-record-pipeline-";
+    private static final int INITIAL_SERIALIZED_CAPACITY = 512;
+
+    private final ILogRecordService delegate;
+    private final List<ILogRecordEnricher> enrichers;
+    private final RingBuffer<LogRecordEvent> ringBuffer;
+    private final int batchSize;
+    private final long shutdownTimeoutMillis;
+    private final LogRecordProperties.RejectPolicy rejectPolicy;
+    private final boolean serializeRequired;
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong invalidCount = new AtomicLong();
+    private final List<SinkHandler> sinkHandlers = new ArrayList<>();
+    private final List<BatchEventProcessor<LogRecordEvent>> processors = new ArrayList<>();
+    private final List<Thread> threads = new ArrayList<>();
+
+    private volatile boolean running = true;
+
+    public PipelineLogRecordServiceImpl(ILogRecordService delegate, LogRecordProperties.Pipeline config,
+                                        List<ILogRecordEnricher> enrichers, List<ILogRecordSink> sinks) {
+        this.delegate = delegate;
+        this.enrichers = new ArrayList<>(enrichers);
+        this.batchSize = Math.max(1, config.getBatchSize());
+        this.shutdownTimeoutMillis = config.getShutdownTimeout();
+        this.rejectPolicy = config.getRejectPolicy();
+        this.serializeRequired = sinks.stream().anyMatch(ILogRecordSink::requiresSerialized);
+        int enricherCount = this.enrichers.size();
+        this.ringBuffer = new RingBuffer<>(() -> new LogRecordEvent(enricherCount), bufferSize(config.getBufferSize()),
+                config.getProducerType() == LogRecordProperties.ProducerType.MULTI, waitStrategy(config.getWaitStrategy()));
+
+        BatchEventProcessor<LogRecordEvent> processStage = new BatchEventProcessor<>("process", ringBuffer, this::process);
+        processors.add(processStage);
+        Sequence[] processed = {processStage.getSequence()};
+        processors.add(new BatchEventProcessor<>("store", ringBuffer, new StoreHandler(), processed));
+        for (ILogRecordSink sink : sinks) {
+            SinkHandler sinkHandler = new SinkHandler(sink);
+            sinkHandlers.add(sinkHandler);
+            processors.add(new BatchEventProcessor<>(sink.getName(), ringBuffer, sinkHandler, processed));
+        }
+        // 生产者只需要等待最末端的消费者，它们都依赖处理阶段
+        Sequence[] gatingSequences = new Sequence[processors.size() - 1];
+        for (int i = 1; i < processors.size(); i++) {
+            gatingSequences[i - 1] = processors.get(i).getSequence();
+        }
+        ringBuffer.setGatingSequences(gatingSequences);
+        for (BatchEventProcessor<LogRecordEvent> processor : processors) {
+            Thread thread = new Thread(processor, THREAD_NAME_PREFIX + processor.getName());
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+    }
+
+    private static int bufferSize(int bufferSize) {
+        int size = Integer.highestOneBit(Math.max(2, bufferSize));
+        return size < bufferSize ? size << 1 : size;
+    }
+
+    private static WaitStrategy waitStrategy(LogRecordProperties.WaitStrategyType type) {
+        switch (type) {
+            case BLOCKING:
+                return WaitStrategies.blocking();
+            case YIELDING:
+                return WaitStrategies.yielding();
+            case BUSY_SPIN:
+                return WaitStrategies.busySpin();
+            case SLEEPING:
+            default:
+                return WaitStrategies.sleeping();
+        }
+    }
+
+    @Override
+    public void record(LogRecord logRecord) {
+        if (!running) {
+            // 已经关闭，退化为同步处理
+            recordInline(logRecord);
+            return;
+        }
+        long sequence;
+        switch (rejectPolicy) {
+            case BLOCK:
+                sequence = ringBuffer.tryNext();
+                while (sequence < 0) {
+                    if (!running) {
+                        // 关闭之后消费者不再前进，不能继续等待空位
+                        recordInline(logRecord);
+                        return;
+                    }
+                    LockSupport.parkNanos(1);
+                    sequence = ringBuffer.tryNext();
+                }
+                break;
+            case DROP:
+                sequence = ringBuffer.tryNext();
+                if (sequence < 0) {
+                    long dropped = droppedCount.incrementAndGet();
+                    log.warn("log record ring buffer is full, drop log, bizType={}, bizNo={}, dropped={}",
+                            logRecord.getBizType(), logRecord.getBizNo(), dropped);
+                    return;
+                }
+                break;
+            case CALLER_RUNS:
+            default:
+                sequence = ringBuffer.tryNext();
+                if (sequence < 0) {
+                    recordInline(logRecord);
+                    return;
+                }
+                break;
+        }
+        LogRecordEvent event = ringBuffer.get(sequence);
+        event.logRecord = logRecord;
+        capture(event);
+        ringBuffer.publish(sequence);
+    }
+
+    @Override
+    public List<LogRecord> queryLog(String bizNo, String type) {
+        return delegate.queryLog(bizNo, type);
+    }
+
+    @Override
+    public List<LogRecord> queryLogByBizNo(String bizNo, String type, String subType) {
+        return delegate.queryLogByBizNo(bizNo, type, subType);
+    }
+
+    /**
+     * @return 因队列满被丢弃的日志条数
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * @return 校验不通过被丢弃的日志条数
+     */
+    public long getInvalidCount() {
+        return invalidCount.get();
+    }
+
+    /**
+     * @return 还没有被所有消费者处理完的日志条数
+     */
+    public long getPendingCount() {
+        return ringBuffer.getBacklog();
+    }
+
+    /**
+     * 停止接收新日志，并在 shutdownTimeout 内等所有消费者处理完队列中剩余的日志
+     */
+    public void shutdown() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(shutdownTimeoutMillis);
+        while (ringBuffer.getBacklog() > 0 && System.nanoTime() - deadline < 0) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        long pending = ringBuffer.getBacklog();
+        for (BatchEventProcessor<LogRecordEvent> processor : processors) {
+            processor.halt();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        if (pending > 0) {
+            log.error("log record pipeline shutdown timeout, {} logs not saved", pending);
+        }
+    }
+
+    /**
+     * 在调用线程上走完处理阶段、落库和所有输出，用于队列满时的 CALLER_RUNS 和关闭之后的 record
+     */
+    private void recordInline(LogRecord logRecord) {
+        LogRecordEvent event = new LogRecordEvent(enrichers.size());
+        event.logRecord = logRecord;
+        capture(event);
+        process(event, -1, true);
+        if (!event.valid) {
+            return;
+        }
+        delegate.record(logRecord);
+        for (SinkHandler sinkHandler : sinkHandlers) {
+            sinkHandler.onEvent(event, -1, true);
+        }
+    }
+
+    /**
+     * 在调用 record 的线程上取出每个 enricher 需要的上下文，发布槽位之前不能抛出异常
+     */
+    private void capture(LogRecordEvent event) {
+        for (int i = 0; i < enrichers.size(); i++) {
+            ILogRecordEnricher enricher = enrichers.get(i);
+            try {
+                event.contexts[i] = enricher.capture();
+            } catch (Exception e) {
+                event.contexts[i] = null;
+                log.error("log record enricher {} capture exception", enricher.getClass().getName(), e);
+            }
+        }
+    }
+
+    /**
+     * 处理阶段：补充、校验、序列化，只有这个线程修改槽位；enrich 在锁内调用，和调用线程上的同步处理互斥
+     */
+    private void process(LogRecordEvent event, long sequence, boolean endOfBatch) {
+        LogRecord logRecord = event.logRecord;
+        synchronized (enrichers) {
+            for (int i = 0; i < enrichers.size(); i++) {
+                ILogRecordEnricher enricher = enrichers.get(i);
+                try {
+                    enricher.enrich(logRecord, event.contexts[i]);
+                } catch (Exception e) {
+                    log.error("log record enricher {} exception", enricher.getClass().getName(), e);
+                } finally {
+                    event.contexts[i] = null;
+                }
+            }
+        }
+        event.valid = validate(logRecord);
+        if (!event.valid) {
+            long invalid = invalidCount.incrementAndGet();
+            log.warn("invalid log record, drop log, bizType={}, bizNo={}, invalid={}",
+                    logRecord.getBizType(), logRecord.getBizNo(), invalid);
+            return;
+        }
+        if (serializeRequired) {
+            event.serialize();
+        }
+    }
+
+    /**
+     * 与 LogRecord 上的 @NotBlank 一致，operator 由存储端决定是否必填
+     */
+    private boolean validate(LogRecord logRecord) {
+        return StringUtils.hasText(logRecord.getBizType()) && StringUtils.hasText(logRecord.getBizNo())
+                && StringUtils.hasText(logRecord.getAction());
+    }
+
+    /**
+     * 被包装的 ILogRecordService：按 batchSize 或者一批可处理事件的末尾调用 batchRecord
+     */
+    private final class StoreHandler implements EventHandler<LogRecordEvent> {
+
+        private final List<LogRecord> batch = new ArrayList<>(batchSize);
+
+        @Override
+        public void onEvent(LogRecordEvent event, long sequence, boolean endOfBatch) {
+            if (event.valid) {
+                batch.add(event.logRecord);
+            }
+            if (batch.size() >= batchSize || endOfBatch) {
+                flush();
+            }
+        }
+
+        private void flush() {
+            if (batch.isEmpty()) {
+                return;
+            }
+            try {
+                delegate.batchRecord(batch);
+            } catch (Exception e) {
+                log.error("log record batch save exception, size={}", batch.size(), e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * 一个输出：onEvent 加锁，和调用线程上的同步处理互斥
+     */
+    private static final class SinkHandler implements EventHandler<LogRecordEvent> {
+
+        private final ILogRecordSink sink;
+        private final boolean serialized;
+
+        private SinkHandler(ILogRecordSink sink) {
+            this.sink = sink;
+            this.serialized = sink.requiresSerialized();
+        }
+
+        @Override
+        public synchronized void onEvent(LogRecordEvent event, long sequence, boolean endOfBatch) {
+            if (event.valid) {
+                try {
+                    sink.write(event.logRecord, serialized && event.serialized ? event.buffer.asReadOnlyBuffer() : null);
+                } catch (Exception e) {
+                    log.error("log record sink {} write exception, bizType={}, bizNo={}",
+                            sink.getName(), event.logRecord.getBizType(), event.logRecord.getBizNo(), e);
+                }
+            }
+            if (endOfBatch) {
+                try {
+                    sink.flush();
+                } catch (Exception e) {
+                    log.error("log record sink {} flush exception", sink.getName(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 环形队列的槽位，生产者写入 logRecord 和 contexts，处理阶段写入 valid 和序列化结果，之后的消费者只读
+     */
+    private static final class LogRecordEvent {
+        private final Object[] contexts;
+        private LogRecord logRecord;
+        private boolean valid;
+        private boolean serialized;
+        private ByteBuffer buffer;
+
+        private LogRecordEvent(int enricherCount) {
+            this.contexts = new Object[enricherCount];
+        }
+
+        private void serialize() {
+            if (buffer == null) {
+                buffer = ByteBuffer.allocate(INITIAL_SERIALIZED_CAPACITY);
+            }
+            try {
+                buffer = LogRecordCodec.encodeGrowing(logRecord, buffer);
+                serialized = true;
+            } catch (Exception e) {
+                serialized = false;
+                log.error("log record serialize exception, bizType={}, bizNo={}",
+                        logRecord.getBizType(), logRecord.getBizNo(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,343 @@
+package logapi.service.impl;
+
+import de.danielbechler.diff.node.DiffNode;
+import logapi.annotation.LogAllFields;
+import logapi.annotation.LogField;
+import logapi.annotation.LogIgnore;
+import logapi.service.IDiffItemsToLogContentService;
+import logapi.service.IFunctionService;
+import logapi.starter.LogRecordProperties;
+import logapi.util.diff.CollectionDiffUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.lang.NonNull;
+import org.springframework.util.ConcurrentReferenceHashMap;
+import org.springframework.util.ReflectionUtils;
+import org.springframework.util.StringUtils;
+
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.*;
+
+/**
+ * 不依赖 java-object-diff 的 diff 实现：每个类型预先算好属性访问表（MethodHandle getter），
+ * 直接比较属性值，把变更内容写进同一个 StringBuilder，不生成 DiffNode 树
+ * 通过 mzt.log.record.diff-engine=REFLECTIVE 开启，默认仍然使用 {@link DefaultDiffItemsToLogContentService}
+ *
+ * @author wulang
+ **/
+@Slf4j
+public class ReflectiveDiffItemsToLogContentService implements IDiffItemsToLogContentService, BeanFactoryAware, SmartInitializingSingleton {
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    private final LogRecordProperties logRecordProperties;
+    /**
+     * 所有属性，@LogAllFields 和嵌套对象的 equals 比较使用
+     */
+    private final Map<Class<?>, PropertyMeta[]> propertyCache = new ConcurrentReferenceHashMap<>(256);
+    /**
+     * 只有 @LogField 属性和可能包含 @LogField 的嵌套对象
+     */
+    private final Map<Class<?>, PropertyMeta[]> loggedPropertyCache = new ConcurrentReferenceHashMap<>(256);
+    private IFunctionService functionService;
+    /**
+     * mzt.log.record.use-equals-method 等配置的类型，与 java-object-diff 的 toUseEqualsMethod 一致，整体用 equals 比较
+     */
+    private Set<Class<?>> useEqualsClasses = Collections.emptySet();
+    private BeanFactory beanFactory;
+
+    public ReflectiveDiffItemsToLogContentService(LogRecordProperties logRecordProperties) {
+        this.logRecordProperties = logRecordProperties;
+    }
+
+    @Override
+    public boolean requiresDiffNode() {
+        return false;
+    }
+
+    @Override
+    public String toLogContent(DiffNode diffNode, final Object sourceObject, final Object targetObject) {
+        Class<?> clazz = sourceObject.getClass();
+        boolean allFields = clazz.getAnnotation(LogAllFields.class) != null;
+        StringBuilder stringBuilder = new StringBuilder();
+        compareProperties(clazz, sourceObject, targetObject, "", allFields, stringBuilder, Collections.newSetFromMap(new IdentityHashMap<>()));
+        return stringBuilder.toString();
+    }
+
+    private void compareProperties(Class<?> clazz, Object sourceObject, Object targetObject, String prefix,
+                                   boolean allFields, StringBuilder stringBuilder, Set<Object> visiting) {
+        if (sourceObject != null && !visiting.add(sourceObject)) {
+            // 循环引用
+            return;
+        }
+        for (PropertyMeta property : getProperties(clazz, allFields)) {
+            if (property.ignored) {
+                continue;
+            }
+            Object sourceValue = property.get(sourceObject);
+            Object targetValue = property.get(targetObject);
+            boolean named = property.logField != null || allFields;
+            boolean useEquals = isUseEqualsType(property.type, sourceValue, targetValue);
+            if (!useEquals && property.bean && !isContainer(sourceValue) && !isContainer(targetValue)) {
+                // 嵌套对象继续比较它的属性，有名称时拼接定语，比如：创建人的用户ID（与 java-object-diff 的实现一致）
+                String nestedPrefix = named ? prefix + property.logName + logRecordProperties.getOfWord() : prefix;
+                compareNested(sourceValue, targetValue, nestedPrefix, allFields, stringBuilder, visiting);
+                continue;
+            }
+            if (!named) {
+                continue;
+            }
+            String fieldLogName = prefix + property.logName;
+            String logContent;
+            if (!useEquals && (property.container || isContainer(sourceValue) || isContainer(targetValue))) {
+                logContent = getCollectionDiffLogContent(fieldLogName, sourceValue, targetValue, property.functionName);
+            } else {
+                logContent = getDiffLogContent(fieldLogName, sourceValue, targetValue, property.functionName, visiting);
+            }
+            if (!StringUtils.isEmpty(logContent)) {
+                if (stringBuilder.length() > 0) {
+                    stringBuilder.append(logRecordProperties.getFieldSeparator());
+                }
+                stringBuilder.append(logContent);
+            }
+        }
+        if (sourceObject != null) {
+            visiting.remove(sourceObject);
+        }
+    }
+
+    private void compareNested(Object sourceValue, Object targetValue, String prefix, boolean allFields,
+                               StringBuilder stringBuilder, Set<Object> visiting) {
+        Object value = sourceValue != null ? sourceValue : targetValue;
+        if (value == null) {
+            return;
+        }
+        compareProperties(value.getClass(), sourceValue, targetValue, prefix, allFields, stringBuilder, visiting);
+    }
+
+    private String getDiffLogContent(String fieldLogName, Object sourceValue, Object targetValue, String functionName,
+                                     Set<Object> visiting) {
+        if (sourceValue == null && targetValue == null) {
+            return "";
+        }
+        if (sourceValue == null) {
+            return logRecordProperties.formatAdd(fieldLogName, getFunctionValue(targetValue, functionName));
+        }
+        if (targetValue == null) {
+            return logRecordProperties.formatDeleted(fieldLogName, getFunctionValue(sourceValue, functionName));
+        }
+        if (valueEquals(sourceValue, targetValue, visiting)) {
+            return "";
+        }
+        return logRecordProperties.formatUpdate(fieldLogName, getFunctionValue(sourceValue, functionName),
+                getFunctionValue(targetValue, functionName));
+    }
+
+    private String getCollectionDiffLogContent(String fieldLogName, Object sourceValue, Object targetValue, String functionName) {
+        Collection<Object> sourceList = toCollection(sourceValue);
+        Collection<Object> targetList = toCollection(targetValue);
+        List<Object> addItemList = listSubtract(targetList, sourceList);
+        List<Object> delItemList = listSubtract(sourceList, targetList);
+        Map<Object, String> functionValues = CollectionDiffUtils.applyFunction(functionService, functionName, addItemList, delItemList);
+        String listAddContent = listToContent(functionName, addItemList, functionValues);
+        String listDelContent = listToContent(functionName, delItemList, functionValues);
+        return logRecordProperties.formatList(fieldLogName, listAddContent, listDelContent);
+    }
+
+    private List<Object> listSubtract(Collection<Object> minuend, Collection<Object> subTractor) {
+        return CollectionDiffUtils.subtract(minuend, subTractor);
+    }
+
+    private String listToContent(String functionName, List<Object> items, Map<Object, String> functionValues) {
+        StringBuilder content = new StringBuilder();
+        for (Object item : items) {
+            if (content.length() > 0) {
+                content.append(logRecordProperties.getListItemSeparator());
+            }
+            String functionValue = functionValues.get(item.toString());
+            content.append(functionValue != null ? functionValue : getFunctionValue(item, functionName));
+        }
+        return content.toString();
+    }
+
+    /**
+     * 配置了用 equals 比较的类型（按值的实际类型匹配，值都为 null 时用属性声明的类型）
+     */
+    private boolean isUseEqualsType(Class<?> declaredType, Object sourceValue, Object targetValue) {
+        if (useEqualsClasses.isEmpty()) {
+            return false;
+        }
+        Object value = sourceValue != null ? sourceValue : targetValue;
+        return useEqualsClasses.contains(value != null ? value.getClass() : declaredType);
+    }
+
+    /**
+     * 配置了 equals 比较的类型和简单类型用 equals，数组逐个元素比较，普通对象逐个属性比较（与 java-object-diff 的判定一致）
+     */
+    private boolean valueEquals(Object sourceValue, Object targetValue, Set<Object> visiting) {
+        if (sourceValue == targetValue) {
+            return true;
+        }
+        if (sourceValue == null || targetValue == null || sourceValue.getClass() != targetValue.getClass()) {
+            return false;
+        }
+        Class<?> clazz = sourceValue.getClass();
+        if (useEqualsClasses.contains(clazz) || BeanUtils.isSimpleValueType(clazz) || sourceValue instanceof Map || sourceValue instanceof Collection) {
+            return sourceValue.equals(targetValue);
+        }
+        if (clazz.isArray()) {
+            return Arrays.deepEquals(new Object[]{sourceValue}, new Object[]{targetValue});
+        }
+        if (!visiting.add(sourceValue)) {
+            return true;
+        }
+        try {
+            for (PropertyMeta property : getProperties(clazz, true)) {
+                if (!valueEquals(property.get(sourceValue), property.get(targetValue), visiting)) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            visiting.remove(sourceValue);
+        }
+    }
+
+    private boolean isContainer(Object value) {
+        return value instanceof Collection || (value != null && value.getClass().isArray());
+    }
+
+    @SuppressWarnings("unchecked")
+    private Collection<Object> toCollection(Object value) {
+        if (value == null) {
+            return Collections.emptyList();
+        }
+        if (value.getClass().isArray()) {
+            if (value instanceof Object[]) {
+                return Arrays.asList((Object[]) value);
+            }
+            int length = java.lang.reflect.Array.getLength(value);
+            List<Object> list = new ArrayList<>(length);
+            for (int i = 0; i < length; i++) {
+                list.add(java.lang.reflect.Array.get(value, i));
+            }
+            return list;
+        }
+        return (Collection<Object>) value;
+    }
+
+    private String getFunctionValue(Object value, String functionName) {
+        if (StringUtils.isEmpty(functionName)) {
+            return value.toString();
+        }
+        return functionService.apply(functionName, value.toString());
+    }
+
+    /**
+     * @param allFields false 时只返回 @LogField 属性和嵌套对象，其他属性不会出现在日志里，也不生成 getter
+     */
+    private PropertyMeta[] getProperties(Class<?> clazz, boolean allFields) {
+        Map<Class<?>, PropertyMeta[]> cache = allFields ? propertyCache : loggedPropertyCache;
+        PropertyMeta[] properties = cache.get(clazz);
+        if (properties == null) {
+            properties = introspect(clazz, !allFields);
+            cache.put(clazz, properties);
+        }
+        return properties;
+    }
+
+    private PropertyMeta[] introspect(Class<?> clazz, boolean loggedOnly) {
+        List<PropertyMeta> properties = new ArrayList<>();
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        for (PropertyDescriptor descriptor : BeanUtils.getPropertyDescriptors(clazz)) {
+            Method readMethod = descriptor.getReadMethod();
+            if (readMethod == null || readMethod.getDeclaringClass() == Object.class) {
+                continue;
+            }
+            Field field = ReflectionUtils.findField(clazz, descriptor.getName());
+            if (loggedOnly && !isLogged(descriptor.getPropertyType(), field)) {
+                continue;
+            }
+            try {
+                ReflectionUtils.makeAccessible(readMethod);
+                MethodHandle getter = lookup.unreflect(readMethod).asType(GETTER_TYPE);
+                properties.add(new PropertyMeta(descriptor.getName(), descriptor.getPropertyType(), getter, field));
+            } catch (IllegalAccessException e) {
+                log.warn("diff property not accessible, class={}, property={}", clazz.getName(), descriptor.getName());
+            }
+        }
+        return properties.toArray(new PropertyMeta[0]);
+    }
+
+    private static boolean isLogged(Class<?> type, Field field) {
+        if (field != null && field.getAnnotation(LogIgnore.class) != null) {
+            return false;
+        }
+        return (field != null && field.getAnnotation(LogField.class) != null) || PropertyMeta.isBeanType(type);
+    }
+
+    @Override
+    public void setBeanFactory(@NonNull BeanFactory beanFactory) throws BeansException {
+        this.beanFactory = beanFactory;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        this.functionService = beanFactory.getBean(IFunctionService.class);
+        DiffParseFunction diffParseFunction = beanFactory.getBeanProvider(DiffParseFunction.class).getIfAvailable();
+        if (diffParseFunction != null) {
+            this.useEqualsClasses = diffParseFunction.getUseEqualsClasses();
+        }
+    }
+
+    private static final class PropertyMeta {
+        private final Class<?> type;
+        private final MethodHandle getter;
+        private final LogField logField;
+        private final boolean ignored;
+        private final String logName;
+        private final String functionName;
+        private final boolean container;
+        private final boolean bean;
+
+        private PropertyMeta(String name, Class<?> type, MethodHandle getter, Field field) {
+            this.type = type;
+            this.getter = getter;
+            this.logField = field != null ? field.getAnnotation(LogField.class) : null;
+            this.ignored = field != null && field.getAnnotation(LogIgnore.class) != null;
+            this.logName = logField != null ? logField.name() : name;
+            this.functionName = logField != null ? logField.function() : "";
+            this.container = isContainerType(type);
+            this.bean = isBeanType(type);
+        }
+
+        private static boolean isContainerType(Class<?> type) {
+            return Collection.class.isAssignableFrom(type) || type.isArray();
+        }
+
+        private static boolean isBeanType(Class<?> type) {
+            return !isContainerType(type) && !BeanUtils.isSimpleProperty(type) && !Map.class.isAssignableFrom(type);
+        }
+
+        private Object get(Object target) {
+            if (target == null) {
+                return null;
+            }
+            try {
+                return (Object) getter.invokeExact(target);
+            } catch (Throwable e) {
+                ReflectionUtils.rethrowRuntimeException(e);
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package logapi.service.impl;
+
+import logapi.beans.LogRecord;
+import logapi.service.ILogRecordService;
+import logapi.starter.LogRecordProperties;
+import logapi.util.spool.LogRecordSpool;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 本地 spool 落库：record 只追加到 {@link LogRecordSpool}，后台线程按批读取后调用 {@link ILogRecordService#batchRecord(List)}，
+ * 成功后记录 checkpoint；存储不可用时保留在 spool 里按 retryInterval 重试，不阻塞业务线程也不丢日志
+ * 同一批重试 maxReplayAttempts 次仍然失败时逐条转发，存储仍然拒绝的日志写进 dead-letter，不再阻塞后面的日志
+ * spool 达到 maxSize 时按 overflowPolicy 处理
+ * 应用重启后从 checkpoint 继续转发上次没有转发完的日志
+ * 查询直接委托给被包装的 ILogRecordService
+ *
+ * @author wulang
+ **/
+@Slf4j
+public class SpoolingLogRecordServiceImpl implements ILogRecordService {
+
+    private static final String REPLAYER_THREAD_NAME = "log-record-replayer";
+
+    private final ILogRecordService delegate;
+    private final LogRecordSpool spool;
+    private final int batchSize;
+    private final long replayIntervalNanos;
+    private final long retryIntervalNanos;
+    private final long shutdownTimeoutMillis;
+    private final int maxReplayAttempts;
+    private final LogRecordProperties.RejectPolicy overflowPolicy;
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final Thread replayer;
+
+    private volatile boolean running = true;
+
+    public SpoolingLogRecordServiceImpl(ILogRecordService delegate, LogRecordProperties.Spool config) throws IOException {
+        this.delegate = delegate;
+        this.spool = new LogRecordSpool(Paths.get(config.getDirectory()), config.getSegmentSize(), config.isSyncOnAppend(),
+                config.getMaxSize());
+        this.batchSize = Math.max(1, config.getBatchSize());
+        this.replayIntervalNanos = TimeUnit.MILLISECONDS.toNanos(config.getReplayInterval());
+        this.retryIntervalNanos = TimeUnit.MILLISECONDS.toNanos(config.getRetryInterval());
+        this.shutdownTimeoutMillis = config.getShutdownTimeout();
+        this.maxReplayAttempts = Math.max(1, config.getMaxReplayAttempts());
+        this.overflowPolicy = config.getOverflowPolicy();
+        this.replayer = new Thread(this::replayLoop, REPLAYER_THREAD_NAME);
+        this.replayer.setDaemon(true);
+        this.replayer.start();
+    }
+
+    @Override
+    public void record(LogRecord logRecord) {
+        if (running) {
+            try {
+                switch (spool.tryAppend(logRecord)) {
+                    case APPENDED:
+                        return;
+                    case FULL:
+                        if (overflow(logRecord)) {
+                            return;
+                        }
+                        break;
+                    case TOO_LARGE:
+                    default:
+                        log.warn("log record too large for spool segment, save directly, bizType={}, bizNo={}",
+                                logRecord.getBizType(), logRecord.getBizNo());
+                        break;
+                }
+            } catch (Exception e) {
+                log.error("log record spool append exception, save directly", e);
+            }
+        }
+        delegate.record(logRecord);
+    }
+
+    /**
+     * spool 写满时按 overflowPolicy 处理
+     *
+     * @return true 表示已经处理（等到空位后写入或者丢弃），false 表示需要同步落库
+     */
+    private boolean overflow(LogRecord logRecord) {
+        switch (overflowPolicy) {
+            case BLOCK:
+                while (running && !Thread.currentThread().isInterrupted()) {
+                    LockSupport.parkNanos(replayIntervalNanos);
+                    LogRecordSpool.AppendResult result = spool.tryAppend(logRecord);
+                    if (result != LogRecordSpool.AppendResult.FULL) {
+                        return result == LogRecordSpool.AppendResult.APPENDED;
+                    }
+                }
+                // 已经关闭或者等待被中断，同步落库
+                return false;
+            case DROP:
+                long dropped = droppedCount.incrementAndGet();
+                log.warn("log record spool is full, drop log, bizType={}, bizNo={}, dropped={}",
+                        logRecord.getBizType(), logRecord.getBizNo(), dropped);
+                return true;
+            case CALLER_RUNS:
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    public List<LogRecord> queryLog(String bizNo, String type) {
+        return delegate.queryLog(bizNo, type);
+    }
+
+    @Override
+    public List<LogRecord> queryLogByBizNo(String bizNo, String type, String subType) {
+        return delegate.queryLogByBizNo(bizNo, type, subType);
+    }
+
+    public LogRecordSpool getSpool() {
+        return spool;
+    }
+
+    /**
+     * @return spool 写满、按 DROP 策略丢弃的日志条数
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * 停止接收新日志，并在 shutdownTimeout 内把 spool 里剩余的日志转发完，没转发完的下次启动继续
+     */
+    public void shutdown() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(replayer);
+        try {
+            replayer.join(shutdownTimeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (replayer.isAlive()) {
+            log.warn("log record replayer shutdown timeout, remaining logs will be replayed on next start");
+        }
+        spool.close();
+    }
+
+    private void replayLoop() {
+        int attempts = 0;
+        while (true) {
+            LogRecordSpool.Batch batch;
+            try {
+                batch = spool.read(batchSize);
+            } catch (Exception e) {
+                log.error("log record spool read exception", e);
+                LockSupport.parkNanos(retryIntervalNanos);
+                continue;
+            }
+            if (batch.isEmpty()) {
+                // 跳过了无法解码的段时读取位置也会前进
+                spool.commit(batch);
+                if (!running) {
+                    return;
+                }
+                LockSupport.parkNanos(replayIntervalNanos);
+                continue;
+            }
+            try {
+                delegate.batchRecord(batch.getRecords());
+            } catch (Exception e) {
+                if (!running) {
+                    log.error("log record replay exception, size={}, replay on next start", batch.size(), e);
+                    return;
+                }
+                if (++attempts < maxReplayAttempts) {
+                    log.error("log record replay exception, size={}, attempts={}, will retry", batch.size(), attempts, e);
+                    LockSupport.parkNanos(retryIntervalNanos);
+                    continue;
+                }
+                log.error("log record replay failed {} times, replay one by one, size={}", attempts, batch.size(), e);
+                replayOneByOne(batch.getRecords());
+            }
+            attempts = 0;
+            spool.commit(batch);
+        }
+    }
+
+    /**
+     * 整批一直失败时逐条转发，仍然失败的日志写进 dead-letter，保证后面的日志可以继续转发
+     */
+    private void replayOneByOne(List<LogRecord> logRecords) {
+        for (LogRecord logRecord : logRecords) {
+            try {
+                delegate.record(logRecord);
+            } catch (Exception e) {
+                log.error("log record rejected, move to dead letter, bizType={}, bizNo={}, idempotencyKey={}",
+                        logRecord.getBizType(), logRecord.getBizNo(), logRecord.getIdempotencyKey(), e);
+                spool.deadLetter(logRecord);
+            }
+        }
+    }
+}
@@ -2,8 +2,12 @@ package logapi.starter;
 
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.expression.spel.SpelCompilerMode;
 import org.springframework.util.StringUtils;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * @author muzhantong
  * create on 2022/1/6 3:26 下午
@@ -82,6 +86,66 @@ public class LogRecordProperties {
 
     private String useEqualsMethod;
 
+    /**
+     * 日志模版中 SpEL 表达式的编译模式：OFF 解释执行；IMMEDIATE 首次执行后编译；MIXED 执行多次后编译，失败时退回解释执行
+     */
+    private SpelCompilerMode spelCompilerMode = SpelCompilerMode.OFF;
+
+    /**
+     * diff 实现：OBJECT_DIFF 基于 java-object-diff；REFLECTIVE 只比较 @LogField/@LogAllFields 的属性，不生成 DiffNode 树
+     */
+    private DiffEngine diffEngine = DiffEngine.OBJECT_DIFF;
+
+    /**
+     * 是否按阶段统计切面耗时分布，存在 Micrometer 时导出为 log.record.stage 指标
+     */
+    private boolean metricsEnabled = false;
+
+    /**
+     * 启动时预编译 @LogRecord 模版，模版有语法错误或者引用了不存在的函数时：true 启动失败；false 只打印错误日志
+     */
+    private boolean failOnInvalidTemplate = true;
+
+    /**
+     * 异步批量落库配置
+     */
+    private Async async = new Async();
+
+    /**
+     * 本地 spool 落库配置，开启后优先于 async
+     */
+    private Spool spool = new Spool();
+
+    /**
+     * 最近日志的内存索引配置
+     */
+    private MemoryStore memoryStore = new MemoryStore();
+
+    /**
+     * queryLog/queryLogByBizNo 结果缓存配置
+     */
+    private QueryCache queryCache = new QueryCache();
+
+    /**
+     * 分阶段落库，与 spool 同时开启时只使用 spool，与 async 同时开启时只使用 pipeline
+     */
+    private Pipeline pipeline = new Pipeline();
+
+    /**
+     * 多输出落库，每个输出独立的队列、线程和熔断器
+     */
+    private FanOut fanOut = new FanOut();
+
+    /**
+     * 方法执行后的日志处理（模版解析、diff、落库）放到工作线程异步执行的配置
+     */
+    private AsyncAfterExecute asyncAfterExecute = new AsyncAfterExecute();
+
+    /**
+     * 自定义函数结果缓存配置
+     */
+    private FunctionCache functionCache = new FunctionCache();
+
     public void setAddTemplate(String template) {
         validatePlaceHolder(template);
         this.addTemplate = template;
@@ -134,4 +198,279 @@ public class LogRecordProperties {
         return "";
     }
 
+    @Data
+    public static class Async {
+        /**
+         * 是否开启异步批量落库，开启后 record 只入队，由后台线程批量写入
+         */
+        private boolean enabled = false;
+        /**
+         * 队列容量
+         */
+        private int queueCapacity = 10000;
+        /**
+         * 单批最多写入的条数
+         */
+        private int batchSize = 200;
+        /**
+         * 攒批的最长等待时间，单位毫秒
+         */
+        private long flushInterval = 1000;
+        /**
+         * 队列满时的处理策略
+         */
+        private RejectPolicy rejectPolicy = RejectPolicy.BLOCK;
+        /**
+         * 应用关闭时等待队列刷完的最长时间，单位毫秒
+         */
+        private long shutdownTimeout = 10000;
+    }
+
+    @Data
+    public static class Spool {
+        /**
+         * 是否开启，开启后 record 只追加到本地段文件，由后台线程转发给 ILogRecordService
+         */
+        private boolean enabled = false;
+        /**
+         * spool 目录，多个应用实例不能共用同一个目录
+         */
+        private String directory = System.getProperty("java.io.tmpdir") + "/log-record-spool";
+        /**
+         * 单个段文件的大小，单位字节
+         */
+        private int segmentSize = 64 * 1024 * 1024;
+        /**
+         * 段文件总大小的上限，单位字节，至少保留两个段，小于等于 0 表示不限制
+         */
+        private long maxSize = 1024L * 1024 * 1024;
+        /**
+         * 段文件总大小达到 maxSize 时的处理策略：BLOCK 等待重放线程腾出空间，CALLER_RUNS 在调用线程上同步落库，DROP 丢弃
+         */
+        private RejectPolicy overflowPolicy = RejectPolicy.CALLER_RUNS;
+        /**
+         * 每次转发的最大条数
+         */
+        private int batchSize = 200;
+        /**
+         * spool 为空时检查新日志的间隔，单位毫秒
+         */
+        private long replayInterval = 200;
+        /**
+         * 转发失败后的重试间隔，单位毫秒
+         */
+        private long retryInterval = 1000;
+        /**
+         * 同一批最多转发多少次，都失败后逐条转发，仍然失败的日志写进 spool 目录下的 dead-letter 目录（同样是 spool 格式）
+         */
+        private int maxReplayAttempts = 30;
+        /**
+         * 每次写入后是否 force 到磁盘，开启后掉电也不丢，但写入耗时明显增加
+         */
+        private boolean syncOnAppend = false;
+        /**
+         * 应用关闭时等待转发的最长时间，单位毫秒
+         */
+        private long shutdownTimeout = 10000;
+    }
+
+    @Data
+    public static class MemoryStore {
+        /**
+         * 是否开启，开启后在 ILogRecordService 外面包一层内存索引，查询最近 100 条时优先使用
+         */
+        private boolean enabled = false;
+        /**
+         * 估算的最大占用，单位字节，超过后淘汰最老的段
+         */
+        private long maxBytes = 64L * 1024 * 1024;
+        /**
+         * 每段的日志条数，淘汰的粒度
+         */
+        private int segmentCapacity = 4096;
+    }
+
+    @Data
+    public static class QueryCache {
+        /**
+         * 是否开启，开启后同一个 bizNo 的查询在过期前不再访问存储，本实例写入时立即失效
+         */
+        private boolean enabled = false;
+        /**
+         * 最多缓存的查询条数
+         */
+        private int maximumSize = 10000;
+        /**
+         * 写入后多久过期，单位毫秒，也是其他实例写入后最长多久能查到
+         */
+        private long expireAfterWrite = 30000;
+    }
+
+    @Data
+    public static class Pipeline {
+        /**
+         * 是否开启，开启后 record 只放入环形队列，由处理线程补充、校验、序列化，再由落库和各个 ILogRecordSink 线程并行消费
+         */
+        private boolean enabled = false;
+        /**
+         * 环形队列的槽位数，不是 2 的幂时向上取整
+         */
+        private int bufferSize = 8192;
+        /**
+         * 调用 record 的线程数，SINGLE 只适用于只有一个线程调用 record 的场景
+         */
+        private ProducerType producerType = ProducerType.MULTI;
+        /**
+         * 消费线程等待新日志的方式
+         */
+        private WaitStrategyType waitStrategy = WaitStrategyType.SLEEPING;
+        /**
+         * 单批最多写入的条数
+         */
+        private int batchSize = 200;
+        /**
+         * 队列满时的处理策略
+         */
+        private RejectPolicy rejectPolicy = RejectPolicy.BLOCK;
+        /**
+         * 应用关闭时等待队列处理完的最长时间，单位毫秒
+         */
+        private long shutdownTimeout = 10000;
+    }
+
+    @Data
+    public static class FanOut {
+        /**
+         * 是否开启，开启后被包装的 ILogRecordService 和所有 ILogRecordSink 各自在自己的线程上写入同一条日志
+         */
+        private boolean enabled = false;
+        /**
+         * 是否注册本地替身输出 {@link logapi.service.impl.LocalLogRecordSink}，用于测试
+         */
+        private boolean localSink = false;
+        /**
+         * 每个输出的队列容量，队列满时丢弃这个输出的日志，被包装的 ILogRecordService（store）按 storeRejectPolicy 处理
+         */
+        private int queueCapacity = 10000;
+        /**
+         * store 队列满时的处理策略，CALLER_RUNS 在调用线程上同步落库；开启 spool 时 store 总是同步写入，不使用队列
+         */
+        private RejectPolicy storeRejectPolicy = RejectPolicy.BLOCK;
+        /**
+         * 每个输出单批最多写入的条数
+         */
+        private int batchSize = 200;
+        /**
+         * 连续失败多少批后熔断
+         */
+        private int failureThreshold = 5;
+        /**
+         * 熔断多久后放行一批探测，单位毫秒
+         */
+        private long openDuration = 30000;
+        /**
+         * 应用关闭时等待每个输出写完队列的最长时间，单位毫秒
+         */
+        private long shutdownTimeout = 10000;
+    }
+
+    @Data
+    public static class AsyncAfterExecute {
+        /**
+         * 是否开启，开启后业务线程只保存调用快照，joinTransaction=true 时不生效，仍然同步处理
+         */
+        private boolean enabled = false;
+        /**
+         * 工作线程数
+         */
+        private int threads = 2;
+        /**
+         * 等待处理的队列容量
+         */
+        private int queueCapacity = 10000;
+        /**
+         * 队列满时的处理策略，默认在业务线程上同步处理
+         */
+        private RejectPolicy rejectPolicy = RejectPolicy.CALLER_RUNS;
+        /**
+         * 应用关闭时等待队列处理完的最长时间，单位毫秒
+         */
+        private long shutdownTimeout = 10000;
+    }
+
+    @Data
+    public static class FunctionCache {
+        /**
+         * 每个函数最多缓存的条数，{@link logapi.service.IParseFunction#cacheable()} 返回 true 的函数使用
+         */
+        private int maximumSize = 1000;
+        /**
+         * 写入后多久过期，单位毫秒，小于等于 0 表示不过期
+         */
+        private long expireAfterWrite = 60000;
+        /**
+         * 按函数名开启缓存，并可以单独配置容量和过期时间，未配置的项使用上面的默认值
+         */
+        private Map<String, FunctionCacheSpec> functions = new HashMap<>();
+
+        public int getMaximumSize(String functionName) {
+            FunctionCacheSpec spec = functions.get(functionName);
+            return spec != null && spec.getMaximumSize() != null ? spec.getMaximumSize() : maximumSize;
+        }
+
+        public long getExpireAfterWrite(String functionName) {
+            FunctionCacheSpec spec = functions.get(functionName);
+            return spec != null && spec.getExpireAfterWrite() != null ? spec.getExpireAfterWrite() : expireAfterWrite;
+        }
+    }
+
+    @Data
+    public static class FunctionCacheSpec {
+        private Integer maximumSize;
+        private Long expireAfterWrite;
+    }
+
+    public enum RejectPolicy {
+        /**
+         * 阻塞业务线程直到队列有空位
+         */
+        BLOCK,
+        /**
+         * 丢弃当前日志
+         */
+        DROP,
+        /**
+         * 由业务线程同步落库
+         */
+        CALLER_RUNS,
+    }
+
+    public enum ProducerType {
+        SINGLE,
+        MULTI,
+    }
+
+    public enum WaitStrategyType {
+        /**
+         * 锁+条件变量，空闲时不占 CPU
+         */
+        BLOCKING,
+        /**
+         * 自旋后 yield 再 park，延迟和 CPU 占用比较均衡
+         */
+        SLEEPING,
+        /**
+         * 自旋后 yield，空闲时占满一个核
+         */
+        YIELDING,
+        /**
+         * 一直自旋，只适合消费线程绑核的机器
+         */
+        BUSY_SPIN,
+    }
+
+    public enum DiffEngine {
+        OBJECT_DIFF,
+        REFLECTIVE,
+    }
 }
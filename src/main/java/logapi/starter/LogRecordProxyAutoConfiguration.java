@@ -1,6 +1,7 @@
 package logapi.starter;
 
 import logapi.parse.LogFunctionParser;
+import logapi.parse.LogRecordExpressionEvaluator;
 import logapi.parse.LogRecordValueParser;
 import logapi.service.IFunctionService;
 import logapi.service.ILogRecordPerformanceMonitor;
@@ -11,16 +12,26 @@ import logapi.service.impl.DefaultDiffItemsToLogContentService;
 import logapi.service.IDiffItemsToLogContentService;
 import logapi.aop.LogRecordInterceptor;
 import logapi.aop.LogRecordOperationAssist;
+import logapi.aop.LogRecordTemplateValidator;
 import logapi.service.impl.DefaultFunctionServiceImpl;
 import logapi.service.impl.DefaultLogRecordPerformanceMonitor;
 import logapi.service.impl.DefaultLogRecordServiceImpl;
 import logapi.service.impl.DefaultOperatorGetServiceImpl;
 import logapi.service.impl.DefaultParseFunction;
 import logapi.service.impl.DiffParseFunction;
+import logapi.service.impl.HistogramLogRecordPerformanceMonitor;
+import logapi.service.impl.LocalLogRecordSink;
 import logapi.service.impl.ParseFunctionFactory;
+import logapi.service.impl.ReflectiveDiffItemsToLogContentService;
+import logapi.util.metrics.FunctionCacheMeterBinder;
+import logapi.util.metrics.LogRecordMeterBinder;
+import logapi.util.metrics.QueryCacheMeterBinder;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
@@ -55,6 +66,18 @@ public class LogRecordProxyAutoConfiguration implements ImportAware {
         return new LogRecordOperationAssist();
     }
 
+    @Bean
+    public LogRecordTemplateValidator logRecordTemplateValidator(LogRecordOperationAssist logRecordOperationSource,
+                                                                 LogRecordValueParser logRecordValueParser,
+                                                                 ParseFunctionFactory parseFunctionFactory,
+                                                                 IFunctionService functionService,
+                                                                 LogRecordProperties logRecordProperties) {
+        // 业务方自定义的 IFunctionService 不一定通过 ParseFunctionFactory 查找函数，此时不检查函数名
+        return new LogRecordTemplateValidator(logRecordOperationSource, logRecordValueParser,
+                functionService instanceof DefaultFunctionServiceImpl ? parseFunctionFactory : null,
+                logRecordProperties.isFailOnInvalidTemplate());
+    }
+
     @Bean
     @ConditionalOnMissingBean(IFunctionService.class)
     public IFunctionService functionService(ParseFunctionFactory parseFunctionFactory) {
@@ -62,8 +85,9 @@ public class LogRecordProxyAutoConfiguration implements ImportAware {
     }
 
     @Bean
-    public ParseFunctionFactory parseFunctionFactory(@Autowired List<IParseFunction> parseFunctions) {
-        return new ParseFunctionFactory(parseFunctions);
+    public ParseFunctionFactory parseFunctionFactory(@Autowired List<IParseFunction> parseFunctions,
+                                                     LogRecordProperties logRecordProperties) {
+        return new ParseFunctionFactory(parseFunctions, logRecordProperties.getFunctionCache());
     }
 
     @Bean
@@ -75,7 +99,10 @@ public class LogRecordProxyAutoConfiguration implements ImportAware {
 
     @Bean
     @ConditionalOnMissingBean(ILogRecordPerformanceMonitor.class)
-    public ILogRecordPerformanceMonitor logRecordPerformanceMonitor() {
+    public ILogRecordPerformanceMonitor logRecordPerformanceMonitor(LogRecordProperties logRecordProperties) {
+        if (logRecordProperties.isMetricsEnabled()) {
+            return new HistogramLogRecordPerformanceMonitor();
+        }
         return new DefaultLogRecordPerformanceMonitor();
     }
 
@@ -84,6 +111,12 @@ public class LogRecordProxyAutoConfiguration implements ImportAware {
         return new LogRecordValueParser();
     }
 
+    @Bean
+    public LogRecordExpressionEvaluator logRecordExpressionEvaluator(LogRecordProperties logRecordProperties,
+                                                                     ConfigurableBeanFactory beanFactory) {
+        return new LogRecordExpressionEvaluator(logRecordProperties.getSpelCompilerMode(), beanFactory.getBeanClassLoader());
+    }
+
     @Bean
     public LogFunctionParser logFunctionParser(IFunctionService functionService) {
         return new LogFunctionParser(functionService);
@@ -105,6 +138,9 @@ public class LogRecordProxyAutoConfiguration implements ImportAware {
     @Bean
     @ConditionalOnMissingBean(IDiffItemsToLogContentService.class)
     public IDiffItemsToLogContentService diffItemsToLogContentService(LogRecordProperties logRecordProperties) {
+        if (logRecordProperties.getDiffEngine() == LogRecordProperties.DiffEngine.REFLECTIVE) {
+            return new ReflectiveDiffItemsToLogContentService(logRecordProperties);
+        }
         return new DefaultDiffItemsToLogContentService(logRecordProperties);
     }
 
@@ -120,6 +156,42 @@ public class LogRecordProxyAutoConfiguration implements ImportAware {
         return new DefaultLogRecordServiceImpl();
     }
 
+    @Bean
+    @ConditionalOnProperty(prefix = "mzt.log.record.fan-out", value = "local-sink", havingValue = "true")
+    public LocalLogRecordSink localLogRecordSink() {
+        return new LocalLogRecordSink();
+    }
+
+    @Bean
+    public static LogRecordServicePostProcessor logRecordServicePostProcessor() {
+        return new LogRecordServicePostProcessor();
+    }
+
+    @Configuration
+    @ConditionalOnClass(name = "io.micrometer.core.instrument.MeterRegistry")
+    static class LogRecordMetricsConfiguration {
+
+        /**
+         * 监控 bean 的声明类型是 ILogRecordPerformanceMonitor，这里按配置注册，再判断实际类型
+         * 业务方自定义的监控不是 HistogramLogRecordPerformanceMonitor 时不导出
+         */
+        @Bean
+        @ConditionalOnProperty(prefix = "mzt.log.record", name = "metrics-enabled", havingValue = "true")
+        public LogRecordMeterBinder logRecordMeterBinder(ObjectProvider<ILogRecordPerformanceMonitor> monitorProvider) {
+            return new LogRecordMeterBinder(monitorProvider);
+        }
+
+        @Bean
+        public FunctionCacheMeterBinder functionCacheMeterBinder(ParseFunctionFactory parseFunctionFactory) {
+            return new FunctionCacheMeterBinder(parseFunctionFactory);
+        }
+
+        @Bean
+        public QueryCacheMeterBinder queryCacheMeterBinder(LogRecordServicePostProcessor logRecordServicePostProcessor) {
+            return new QueryCacheMeterBinder(logRecordServicePostProcessor);
+        }
+    }
+
     @Override
     public void setImportMetadata(AnnotationMetadata importMetadata) {
         this.enableLogRecord = AnnotationAttributes.fromMap(
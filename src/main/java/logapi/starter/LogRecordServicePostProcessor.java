@@ -0,0 +1,168 @@
+package logapi.starter;
+
+import logapi.service.ILogRecordEnricher;
+import logapi.service.ILogRecordPerformanceMonitor;
+import logapi.service.ILogRecordService;
+import logapi.service.ILogRecordSink;
+import logapi.service.impl.AsyncLogRecordServiceImpl;
+import logapi.service.impl.CachingLogRecordServiceImpl;
+import logapi.service.impl.DefaultLogRecordPerformanceMonitor;
+import logapi.service.impl.FanOutLogRecordServiceImpl;
+import logapi.service.impl.InMemoryLogRecordServiceImpl;
+import logapi.service.impl.PipelineLogRecordServiceImpl;
+import logapi.service.impl.SpoolingLogRecordServiceImpl;
+import logapi.util.cache.ExpiringLruCache;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanCreationException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.config.DestructionAwareBeanPostProcessor;
+import org.springframework.lang.NonNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+
+/**
+ * 按配置包装容器里的 ILogRecordService，业务方自定义的实现同样生效
+ * 被包装的 bean 销毁前先刷完异步队列/环形队列/spool，此时它依赖的数据源等还没有销毁
+ *
+ * @author wulang
+ **/
+public class LogRecordServicePostProcessor implements DestructionAwareBeanPostProcessor, BeanFactoryAware {
+
+    private final Map<String, AsyncLogRecordServiceImpl> asyncServices = new ConcurrentHashMap<>();
+    private final Map<String, SpoolingLogRecordServiceImpl> spoolingServices = new ConcurrentHashMap<>();
+    private final Map<String, PipelineLogRecordServiceImpl> pipelineServices = new ConcurrentHashMap<>();
+    private final Map<String, CachingLogRecordServiceImpl> cachingServices = new ConcurrentHashMap<>();
+    private final Map<String, FanOutLogRecordServiceImpl> fanOutServices = new ConcurrentHashMap<>();
+    private final List<BiConsumer<String, ExpiringLruCache<?, ?>>> queryCacheListeners = new CopyOnWriteArrayList<>();
+    private BeanFactory beanFactory;
+
+    @Override
+    public Object postProcessAfterInitialization(@NonNull Object bean, @NonNull String beanName) throws BeansException {
+        if (!(bean instanceof ILogRecordService) || bean instanceof AsyncLogRecordServiceImpl
+                || bean instanceof SpoolingLogRecordServiceImpl || bean instanceof InMemoryLogRecordServiceImpl
+                || bean instanceof CachingLogRecordServiceImpl || bean instanceof PipelineLogRecordServiceImpl
+                || bean instanceof FanOutLogRecordServiceImpl) {
+            return bean;
+        }
+        // 延迟到这里获取，保证配置已经完成绑定
+        LogRecordProperties logRecordProperties = beanFactory.getBean(LogRecordProperties.class);
+        checkQueueConfig(beanName, logRecordProperties);
+        ILogRecordService service = (ILogRecordService) bean;
+        // 查询缓存包装在最内层，异步落库时在真正写入存储之后才失效
+        if (logRecordProperties.getQueryCache().isEnabled()) {
+            CachingLogRecordServiceImpl cachingService = new CachingLogRecordServiceImpl(service, logRecordProperties.getQueryCache());
+            cachingServices.put(beanName, cachingService);
+            for (BiConsumer<String, ExpiringLruCache<?, ?>> listener : queryCacheListeners) {
+                listener.accept(beanName, cachingService.getCache());
+            }
+            service = cachingService;
+        }
+        List<ILogRecordSink> sinks = beanFactory.getBeanProvider(ILogRecordSink.class).orderedStream().collect(Collectors.toList());
+        // 多输出在异步/环形队列/spool 之内，它们的后台线程只负责把日志交给各个输出的队列
+        if (logRecordProperties.getFanOut().isEnabled()) {
+            ILogRecordPerformanceMonitor monitor = beanFactory.getBeanProvider(ILogRecordPerformanceMonitor.class)
+                    .getIfAvailable(DefaultLogRecordPerformanceMonitor::new);
+            FanOutLogRecordServiceImpl fanOutService = new FanOutLogRecordServiceImpl(service, logRecordProperties.getFanOut(),
+                    sinks, monitor, logRecordProperties.getSpool().isEnabled());
+            fanOutServices.put(beanName, fanOutService);
+            service = fanOutService;
+            sinks = Collections.emptyList();
+        }
+        if (logRecordProperties.getSpool().isEnabled()) {
+            try {
+                SpoolingLogRecordServiceImpl spoolingService = new SpoolingLogRecordServiceImpl(service, logRecordProperties.getSpool());
+                spoolingServices.put(beanName, spoolingService);
+                service = spoolingService;
+            } catch (IOException e) {
+                throw new BeanCreationException(beanName, "open log record spool failed", e);
+            }
+        }
+        if (logRecordProperties.getPipeline().isEnabled()) {
+            List<ILogRecordEnricher> enrichers = beanFactory.getBeanProvider(ILogRecordEnricher.class).orderedStream().collect(Collectors.toList());
+            PipelineLogRecordServiceImpl pipelineService = new PipelineLogRecordServiceImpl(service, logRecordProperties.getPipeline(), enrichers, sinks);
+            pipelineServices.put(beanName, pipelineService);
+            service = pipelineService;
+        }
+        if (logRecordProperties.getAsync().isEnabled()) {
+            AsyncLogRecordServiceImpl asyncService = new AsyncLogRecordServiceImpl(service, logRecordProperties.getAsync());
+            asyncServices.put(beanName, asyncService);
+            service = asyncService;
+        }
+        // 内存索引放在最外层，record 之后立即可以查到
+        if (logRecordProperties.getMemoryStore().isEnabled()) {
+            service = new InMemoryLogRecordServiceImpl(service, logRecordProperties.getMemoryStore());
+        }
+        return service;
+    }
+
+    /**
+     * spool、环形队列和异步队列只能选一个，同时开启时启动失败，避免静默地只生效其中一个
+     */
+    private static void checkQueueConfig(String beanName, LogRecordProperties logRecordProperties) {
+        List<String> enabled = new ArrayList<>();
+        if (logRecordProperties.getSpool().isEnabled()) {
+            enabled.add("mzt.log.record.spool.enabled");
+        }
+        if (logRecordProperties.getPipeline().isEnabled()) {
+            enabled.add("mzt.log.record.pipeline.enabled");
+        }
+        if (logRecordProperties.getAsync().isEnabled()) {
+            enabled.add("mzt.log.record.async.enabled");
+        }
+        if (enabled.size() > 1) {
+            throw new BeanCreationException(beanName, "only one of spool, pipeline and async can be enabled, but found "
+                    + String.join(", ", enabled) + " all set to true");
+        }
+    }
+
+    @Override
+    public void postProcessBeforeDestruction(@NonNull Object bean, @NonNull String beanName) throws BeansException {
+        AsyncLogRecordServiceImpl asyncService = asyncServices.remove(beanName);
+        if (asyncService != null) {
+            asyncService.shutdown();
+        }
+        PipelineLogRecordServiceImpl pipelineService = pipelineServices.remove(beanName);
+        if (pipelineService != null) {
+            pipelineService.shutdown();
+        }
+        SpoolingLogRecordServiceImpl spoolingService = spoolingServices.remove(beanName);
+        if (spoolingService != null) {
+            spoolingService.shutdown();
+        }
+        // 外层的队列刷完之后再关闭多输出
+        FanOutLogRecordServiceImpl fanOutService = fanOutServices.remove(beanName);
+        if (fanOutService != null) {
+            fanOutService.shutdown();
+        }
+        cachingServices.remove(beanName);
+    }
+
+    /**
+     * 注册查询缓存的监听，已经创建的缓存立即回调一次，用于导出监控指标
+     */
+    public void addQueryCacheListener(BiConsumer<String, ExpiringLruCache<?, ?>> listener) {
+        queryCacheListeners.add(listener);
+        for (Map.Entry<String, CachingLogRecordServiceImpl> entry : cachingServices.entrySet()) {
+            listener.accept(entry.getKey(), entry.getValue().getCache());
+        }
+    }
+
+    @Override
+    public boolean requiresDestruction(@NonNull Object bean) {
+        return bean instanceof ILogRecordService;
+    }
+
+    @Override
+    public void setBeanFactory(@NonNull BeanFactory beanFactory) throws BeansException {
+        this.beanFactory = beanFactory;
+    }
+}
@@ -0,0 +1,68 @@
+package logapi.util.breaker;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 连续失败计数的熔断器：连续失败 failureThreshold 次后打开，openDuration 内 {@link #allowRequest()} 返回 false，
+ * 之后半开放行一次，成功则关闭，失败则重新打开
+ * 只给单个输出线程使用，不需要同步；state 为 volatile，供监控线程读取
+ *
+ * @author wulang
+ **/
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN,
+    }
+
+    private final int failureThreshold;
+    private final long openDurationNanos;
+    private volatile State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+
+    public CircuitBreaker(int failureThreshold, long openDurationMillis) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openDurationNanos = TimeUnit.MILLISECONDS.toNanos(openDurationMillis);
+    }
+
+    public boolean allowRequest() {
+        if (state != State.OPEN) {
+            return true;
+        }
+        if (System.nanoTime() - openedAt >= openDurationNanos) {
+            state = State.HALF_OPEN;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return 距离半开还需要等待的纳秒数，不处于打开状态时返回 0
+     */
+    public long getRemainingOpenNanos() {
+        if (state != State.OPEN) {
+            return 0;
+        }
+        return Math.max(0, openDurationNanos - (System.nanoTime() - openedAt));
+    }
+
+    public void onSuccess() {
+        consecutiveFailures = 0;
+        state = State.CLOSED;
+    }
+
+    public void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = System.nanoTime();
+        }
+    }
+
+    public State getState() {
+        return state;
+    }
+}
@@ -0,0 +1,262 @@
+package logapi.util.cache;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+/**
+ * 有容量上限和写入过期时间的 LRU 缓存，不引入额外依赖
+ * 按 key 的 hash 分段，每段一个 access-order 的 LinkedHashMap 加锁访问，容量按段平分，所以淘汰是段内近似 LRU
+ * 同一个 key 并发未命中时可能加载多次，加载结果为 null 时不缓存
+ *
+ * @author wulang
+ **/
+public class ExpiringLruCache<K, V> {
+
+    private static final int MAX_SEGMENT_COUNT = 16;
+
+    private final Segment<K, V>[] segments;
+    private final int segmentMask;
+    private final long expireAfterWriteNanos;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder loadCount = new LongAdder();
+    private final LongAdder totalLoadNanos = new LongAdder();
+
+    /**
+     * @param maximumSize       最多缓存的条数
+     * @param expireAfterWrite  写入后多久过期，小于等于 0 表示不过期
+     * @param unit              expireAfterWrite 的单位
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public ExpiringLruCache(int maximumSize, long expireAfterWrite, TimeUnit unit) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("maximumSize must be positive");
+        }
+        int segmentCount = 1;
+        while (segmentCount < MAX_SEGMENT_COUNT && segmentCount * 64 <= maximumSize) {
+            segmentCount <<= 1;
+        }
+        this.segments = (Segment<K, V>[]) new Segment[segmentCount];
+        int segmentCapacity = (maximumSize + segmentCount - 1) / segmentCount;
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment<>(segmentCapacity, evictionCount);
+        }
+        this.segmentMask = segmentCount - 1;
+        this.expireAfterWriteNanos = expireAfterWrite > 0 ? unit.toNanos(expireAfterWrite) : 0;
+    }
+
+    public V getIfPresent(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        Entry<V> entry;
+        synchronized (segment) {
+            entry = segment.get(key);
+            if (entry != null && isExpired(entry)) {
+                segment.remove(key);
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            missCount.increment();
+            return null;
+        }
+        hitCount.increment();
+        return entry.value;
+    }
+
+    /**
+     * 命中直接返回，未命中时在锁外调用 loader 加载后放入缓存
+     */
+    public V get(K key, Function<? super K, ? extends V> loader) {
+        return get(key, loader, () -> true);
+    }
+
+    /**
+     * 与 {@link #get(Object, Function)} 相同，加载完成后 cacheable 返回 false 时只返回结果不放入缓存，
+     * 用于加载期间数据源被修改、加载结果可能已经过时的情况
+     * <p>cacheable 和放入缓存在同一个段锁内执行，与 {@link #invalidate(Object)} 互斥：
+     * 修改数据源的一方先更新 cacheable 依赖的状态再 invalidate，旧结果就不会在 invalidate 之后被放入缓存
+     */
+    public V get(K key, Function<? super K, ? extends V> loader, BooleanSupplier cacheable) {
+        V value = getIfPresent(key);
+        if (value != null) {
+            return value;
+        }
+        long start = System.nanoTime();
+        value = loader.apply(key);
+        loadCount.increment();
+        totalLoadNanos.add(System.nanoTime() - start);
+        if (value != null) {
+            putIf(key, value, cacheable);
+        }
+        return value;
+    }
+
+    /**
+     * 批量读取，未命中的 key 一次交给 loader 加载
+     *
+     * @return key -> value，加载结果里没有的 key 不出现在返回值中
+     */
+    public Map<K, V> getAll(Collection<? extends K> keys, Function<? super List<K>, ? extends Map<K, V>> loader) {
+        Map<K, V> result = new LinkedHashMap<>(keys.size() * 2);
+        List<K> missingKeys = null;
+        for (K key : keys) {
+            V value = getIfPresent(key);
+            if (value != null) {
+                result.put(key, value);
+            } else {
+                if (missingKeys == null) {
+                    missingKeys = new ArrayList<>();
+                }
+                missingKeys.add(key);
+            }
+        }
+        if (missingKeys == null) {
+            return result;
+        }
+        long start = System.nanoTime();
+        Map<K, V> loaded = loader.apply(missingKeys);
+        loadCount.increment();
+        totalLoadNanos.add(System.nanoTime() - start);
+        if (loaded != null) {
+            for (Map.Entry<K, V> entry : loaded.entrySet()) {
+                if (entry.getValue() != null) {
+                    put(entry.getKey(), entry.getValue());
+                    result.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        return result;
+    }
+
+    public void put(K key, V value) {
+        Segment<K, V> segment = segmentFor(key);
+        Entry<V> entry = newEntry(value);
+        synchronized (segment) {
+            segment.put(key, entry);
+        }
+    }
+
+    private void putIf(K key, V value, BooleanSupplier condition) {
+        Segment<K, V> segment = segmentFor(key);
+        Entry<V> entry = newEntry(value);
+        synchronized (segment) {
+            if (condition.getAsBoolean()) {
+                segment.put(key, entry);
+            }
+        }
+    }
+
+    private Entry<V> newEntry(V value) {
+        return new Entry<>(value, expireAfterWriteNanos > 0 ? System.nanoTime() + expireAfterWriteNanos : 0);
+    }
+
+    public void invalidate(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            segment.remove(key);
+        }
+    }
+
+    public void invalidateAll() {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    public long size() {
+        long size = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public Stats getStats() {
+        return new Stats(hitCount.sum(), missCount.sum(), evictionCount.sum(), loadCount.sum(), totalLoadNanos.sum());
+    }
+
+    private boolean isExpired(Entry<V> entry) {
+        return entry.expireAt != 0 && System.nanoTime() - entry.expireAt >= 0;
+    }
+
+    private Segment<K, V> segmentFor(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & segmentMask];
+    }
+
+    private static final class Entry<V> {
+        private final V value;
+        private final long expireAt;
+
+        private Entry(V value, long expireAt) {
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+    }
+
+    private static final class Segment<K, V> extends LinkedHashMap<K, ExpiringLruCache.Entry<V>> {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+        private final LongAdder evictionCount;
+
+        private Segment(int capacity, LongAdder evictionCount) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+            this.evictionCount = evictionCount;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, ExpiringLruCache.Entry<V>> eldest) {
+            if (size() > capacity) {
+                evictionCount.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    @Getter
+    public static final class Stats {
+        private final long hitCount;
+        private final long missCount;
+        private final long evictionCount;
+        private final long loadCount;
+        private final long totalLoadNanos;
+
+        private Stats(long hitCount, long missCount, long evictionCount, long loadCount, long totalLoadNanos) {
+            this.hitCount = hitCount;
+            this.missCount = missCount;
+            this.evictionCount = evictionCount;
+            this.loadCount = loadCount;
+            this.totalLoadNanos = totalLoadNanos;
+        }
+
+        public double getHitRate() {
+            long requestCount = hitCount + missCount;
+            return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+        }
+
+        @Override
+        public String toString() {
+            return "hit=" + hitCount + ", miss=" + missCount + ", hitRate=" + getHitRate()
+                    + ", eviction=" + evictionCount + ", load=" + loadCount + ", loadNanos=" + totalLoadNanos;
+        }
+    }
+}
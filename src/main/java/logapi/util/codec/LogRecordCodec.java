@@ -0,0 +1,467 @@
+package logapi.util.codec;
+
+import logapi.beans.CodeVariableType;
+import logapi.beans.LogRecord;
+import org.springframework.util.ClassUtils;
+
+import java.io.Serializable;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * LogRecord 的紧凑二进制编码，直接读写 ByteBuffer，不走 Java 序列化，给 spool、消息队列等传输使用
+ * <p>格式：[版本号 byte][flags varint][各字段]，长度和整数都是 varint，字符串为 varint(长度+1) + UTF-8，0 表示 null
+ * <p>applicationName、bizType、subBizType、operator 以及 codeVariable 里的类名、方法名走字典：
+ * 第一次出现时写入 定义(id + 字符串)，之后只写 id；同一个字典只能用于按顺序编码/解码的同一个流（比如 spool 的一个段），
+ * 不传字典时全部写字符串，每条记录可以独立解码
+ * <p>id 为 Long、Integer 时解码后类型不变，其他类型按 toString 写入，解码后为 String
+ * <p>codeVariable 里的 Class 只写类名，解码时按类名加载，加载不到时保留类名字符串
+ * <p>空间不够时抛出 {@link java.nio.BufferOverflowException}，buffer 的 position 处于写了一半的位置，由调用方丢弃，
+ * 这次编码登记的字典条目会回滚
+ *
+ * @author wulang
+ **/
+public final class LogRecordCodec {
+
+    public static final byte SCHEMA_VERSION = 1;
+
+    private static final int FLAG_FAIL = 1;
+    private static final int FLAG_CREATE_TIME = 1 << 1;
+
+    private static final int ID_NULL = 0;
+    private static final int ID_LONG = 1;
+    private static final int ID_STRING = 2;
+    private static final int ID_INT = 3;
+
+    private static final int DICT_NULL = 0;
+    private static final int DICT_LITERAL = 1;
+    private static final int DICT_DEFINE = 2;
+    private static final int DICT_REFERENCE_BASE = 3;
+
+    private static final int VALUE_CLASS = 0;
+    private static final int VALUE_STRING = 1;
+
+    private static final CodeVariableType[] CODE_VARIABLE_TYPES = CodeVariableType.values();
+
+    private LogRecordCodec() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    public static void encode(LogRecord logRecord, ByteBuffer buffer) {
+        encode(logRecord, buffer, null);
+    }
+
+    public static LogRecord decode(ByteBuffer buffer) {
+        return decode(buffer, null);
+    }
+
+    /**
+     * 不使用字典编码到可复用的 buffer，空间不够时换成两倍大小的新 buffer 重新编码
+     *
+     * @return 写入了这条日志的 buffer（已经 flip），调用方保存下来供下次复用
+     */
+    public static ByteBuffer encodeGrowing(LogRecord logRecord, ByteBuffer buffer) {
+        ByteBuffer target = buffer;
+        while (true) {
+            target.clear();
+            try {
+                encode(logRecord, target, null);
+                target.flip();
+                return target;
+            } catch (BufferOverflowException e) {
+                target = ByteBuffer.allocate(target.capacity() << 1);
+            }
+        }
+    }
+
+    /**
+     * @param dictionary 编码端字典，为 null 时不使用字典
+     */
+    public static void encode(LogRecord logRecord, ByteBuffer buffer, Dictionary dictionary) {
+        int dictionarySize = dictionary == null ? 0 : dictionary.size();
+        try {
+            doEncode(logRecord, buffer, dictionary);
+        } catch (RuntimeException e) {
+            if (dictionary != null) {
+                dictionary.truncate(dictionarySize);
+            }
+            throw e;
+        }
+    }
+
+    private static void doEncode(LogRecord logRecord, ByteBuffer buffer, Dictionary dictionary) {
+        buffer.put(SCHEMA_VERSION);
+        int flags = (logRecord.isFail() ? FLAG_FAIL : 0) | (logRecord.getCreateTime() != null ? FLAG_CREATE_TIME : 0);
+        writeVarInt(buffer, flags);
+        writeId(buffer, logRecord.getId());
+        writeDictionaryString(buffer, logRecord.getApplicationName(), dictionary);
+        writeDictionaryString(buffer, logRecord.getBizType(), dictionary);
+        writeDictionaryString(buffer, logRecord.getSubBizType(), dictionary);
+        writeString(buffer, logRecord.getBizNo());
+        writeDictionaryString(buffer, logRecord.getOperator(), dictionary);
+        writeString(buffer, logRecord.getAction());
+        if (logRecord.getCreateTime() != null) {
+            writeVarLong(buffer, zigZag(logRecord.getCreateTime().getTime()));
+        }
+        writeString(buffer, logRecord.getExtra());
+        writeString(buffer, logRecord.getIp());
+        writeString(buffer, logRecord.getIdempotencyKey());
+        writeCodeVariable(buffer, logRecord.getCodeVariable(), dictionary);
+    }
+
+    /**
+     * @param dictionary 解码端字典，必须与编码时是否使用字典一致
+     */
+    public static LogRecord decode(ByteBuffer buffer, Dictionary dictionary) {
+        byte version = buffer.get();
+        if (version != SCHEMA_VERSION) {
+            throw new IllegalArgumentException("unsupported log record schema version: " + version);
+        }
+        int flags = readVarInt(buffer);
+        LogRecord logRecord = new LogRecord();
+        logRecord.setFail((flags & FLAG_FAIL) != 0);
+        logRecord.setId(readId(buffer));
+        logRecord.setApplicationName(readDictionaryString(buffer, dictionary));
+        logRecord.setBizType(readDictionaryString(buffer, dictionary));
+        logRecord.setSubBizType(readDictionaryString(buffer, dictionary));
+        logRecord.setBizNo(readString(buffer));
+        logRecord.setOperator(readDictionaryString(buffer, dictionary));
+        logRecord.setAction(readString(buffer));
+        if ((flags & FLAG_CREATE_TIME) != 0) {
+            logRecord.setCreateTime(new Date(unZigZag(readVarLong(buffer))));
+        }
+        logRecord.setExtra(readString(buffer));
+        logRecord.setIp(readString(buffer));
+        logRecord.setIdempotencyKey(readString(buffer));
+        logRecord.setCodeVariable(readCodeVariable(buffer, dictionary));
+        return logRecord;
+    }
+
+    private static void writeId(ByteBuffer buffer, Serializable id) {
+        if (id == null) {
+            writeVarInt(buffer, ID_NULL);
+        } else if (id instanceof Long) {
+            writeVarInt(buffer, ID_LONG);
+            writeVarLong(buffer, zigZag((Long) id));
+        } else if (id instanceof Integer) {
+            writeVarInt(buffer, ID_INT);
+            writeVarLong(buffer, zigZag((Integer) id));
+        } else {
+            writeVarInt(buffer, ID_STRING);
+            writeString(buffer, id.toString());
+        }
+    }
+
+    private static Serializable readId(ByteBuffer buffer) {
+        int type = readVarInt(buffer);
+        switch (type) {
+            case ID_LONG:
+                return unZigZag(readVarLong(buffer));
+            case ID_INT:
+                return (int) unZigZag(readVarLong(buffer));
+            case ID_STRING:
+                return readString(buffer);
+            case ID_NULL:
+            default:
+                return null;
+        }
+    }
+
+    private static void writeCodeVariable(ByteBuffer buffer, Map<CodeVariableType, Object> codeVariable, Dictionary dictionary) {
+        if (codeVariable == null) {
+            writeVarInt(buffer, 0);
+            return;
+        }
+        writeVarInt(buffer, codeVariable.size() + 1);
+        for (Map.Entry<CodeVariableType, Object> entry : codeVariable.entrySet()) {
+            writeVarInt(buffer, entry.getKey().ordinal());
+            Object value = entry.getValue();
+            if (value instanceof Class) {
+                writeVarInt(buffer, VALUE_CLASS);
+                writeDictionaryString(buffer, ((Class<?>) value).getName(), dictionary);
+            } else {
+                writeVarInt(buffer, VALUE_STRING);
+                writeDictionaryString(buffer, value == null ? null : value.toString(), dictionary);
+            }
+        }
+    }
+
+    private static Map<CodeVariableType, Object> readCodeVariable(ByteBuffer buffer, Dictionary dictionary) {
+        int size = readVarInt(buffer) - 1;
+        if (size < 0) {
+            return null;
+        }
+        Map<CodeVariableType, Object> codeVariable = new EnumMap<>(CodeVariableType.class);
+        for (int i = 0; i < size; i++) {
+            CodeVariableType type = CODE_VARIABLE_TYPES[readVarInt(buffer)];
+            int valueType = readVarInt(buffer);
+            String value = readDictionaryString(buffer, dictionary);
+            codeVariable.put(type, valueType == VALUE_CLASS && value != null ? resolveClass(value, dictionary) : value);
+        }
+        return codeVariable;
+    }
+
+    private static Object resolveClass(String className, Dictionary dictionary) {
+        if (dictionary != null) {
+            Object resolved = dictionary.resolvedClasses.get(className);
+            if (resolved != null) {
+                return resolved;
+            }
+        }
+        Object resolved;
+        try {
+            resolved = ClassUtils.forName(className, null);
+        } catch (ClassNotFoundException | LinkageError e) {
+            resolved = className;
+        }
+        if (dictionary != null) {
+            dictionary.resolvedClasses.put(className, resolved);
+        }
+        return resolved;
+    }
+
+    private static void writeDictionaryString(ByteBuffer buffer, String value, Dictionary dictionary) {
+        if (value == null) {
+            writeVarInt(buffer, DICT_NULL);
+            return;
+        }
+        if (dictionary == null) {
+            writeVarInt(buffer, DICT_LITERAL);
+            writeString(buffer, value);
+            return;
+        }
+        Integer id = dictionary.ids.get(value);
+        if (id != null) {
+            writeVarInt(buffer, DICT_REFERENCE_BASE + id);
+            return;
+        }
+        if (!dictionary.canDefine(value)) {
+            writeVarInt(buffer, DICT_LITERAL);
+            writeString(buffer, value);
+            return;
+        }
+        int newId = dictionary.values.size();
+        writeVarInt(buffer, DICT_DEFINE);
+        writeVarInt(buffer, newId);
+        writeString(buffer, value);
+        dictionary.ids.put(value, newId);
+        dictionary.values.add(value);
+    }
+
+    private static String readDictionaryString(ByteBuffer buffer, Dictionary dictionary) {
+        int tag = readVarInt(buffer);
+        switch (tag) {
+            case DICT_NULL:
+                return null;
+            case DICT_LITERAL:
+                return readString(buffer);
+            case DICT_DEFINE:
+                int id = readVarInt(buffer);
+                String value = readString(buffer);
+                if (dictionary == null) {
+                    throw new IllegalStateException("log record encoded with dictionary, decode without dictionary");
+                }
+                dictionary.define(id, value);
+                return value;
+            default:
+                if (dictionary == null) {
+                    throw new IllegalStateException("log record encoded with dictionary, decode without dictionary");
+                }
+                return dictionary.lookup(tag - DICT_REFERENCE_BASE);
+        }
+    }
+
+    /**
+     * 先算出 UTF-8 长度再直接写进 buffer，不创建中间的 byte[]
+     */
+    private static void writeString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            writeVarInt(buffer, 0);
+            return;
+        }
+        int length = value.length();
+        int utf8Length = utf8Length(value);
+        writeVarInt(buffer, utf8Length + 1);
+        if (utf8Length == length) {
+            // 每个字符一个字节：ASCII，或者按 '?' 写入的不成对代理字符
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                buffer.put(c < 0x80 ? (byte) c : (byte) '?');
+            }
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                // 不成对的代理字符与 String#getBytes 一样替换为 '?'
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    private static int utf8Length(String value) {
+        int length = value.length();
+        int utf8Length = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                utf8Length++;
+            } else if (c < 0x800) {
+                utf8Length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                utf8Length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                utf8Length++;
+            } else {
+                utf8Length += 3;
+            }
+        }
+        return utf8Length;
+    }
+
+    /**
+     * heap buffer 直接从底层数组解码，direct/mapped buffer 复制一次
+     */
+    private static String readString(ByteBuffer buffer) {
+        int length = readVarInt(buffer) - 1;
+        if (length < 0) {
+            return null;
+        }
+        if (buffer.hasArray()) {
+            int offset = buffer.arrayOffset() + buffer.position();
+            buffer.position(buffer.position() + length);
+            return new String(buffer.array(), offset, length, StandardCharsets.UTF_8);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeVarInt(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static int readVarInt(ByteBuffer buffer) {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = buffer.get();
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IllegalArgumentException("malformed varint");
+    }
+
+    static void writeVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static long readVarLong(ByteBuffer buffer) {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IllegalArgumentException("malformed varlong");
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * 字符串字典，编码端和解码端各自持有一个，不是线程安全的
+     * 条目数达到上限或者字符串过长时不再登记，直接写字符串，避免 bizNo 之类高基数的值把字典撑大
+     */
+    public static final class Dictionary {
+        private static final int DEFAULT_MAX_ENTRIES = 4096;
+        private static final int MAX_VALUE_LENGTH = 256;
+
+        private final int maxEntries;
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+        private final Map<String, Object> resolvedClasses = new HashMap<>();
+
+        public Dictionary() {
+            this(DEFAULT_MAX_ENTRIES);
+        }
+
+        public Dictionary(int maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+
+        public int size() {
+            return values.size();
+        }
+
+        /**
+         * 编码失败时回滚到编码前的条目数
+         */
+        private void truncate(int size) {
+            while (values.size() > size) {
+                ids.remove(values.remove(values.size() - 1));
+            }
+        }
+
+        private boolean canDefine(String value) {
+            return values.size() < maxEntries && value.length() <= MAX_VALUE_LENGTH;
+        }
+
+        /**
+         * 同一个 id 重复定义时覆盖为相同的值，重复解码同一段数据不会出错
+         */
+        private void define(int id, String value) {
+            while (values.size() <= id) {
+                values.add(null);
+            }
+            values.set(id, value);
+        }
+
+        private String lookup(int id) {
+            String value = id < values.size() ? values.get(id) : null;
+            if (value == null) {
+                throw new IllegalStateException("log record dictionary id not defined: " + id);
+            }
+            return value;
+        }
+    }
+}
@@ -6,10 +6,12 @@ import de.danielbechler.diff.comparison.ComparisonStrategy;
 import de.danielbechler.diff.comparison.ComparisonStrategyResolver;
 import de.danielbechler.diff.differ.Differ;
 import de.danielbechler.diff.differ.DifferDispatcher;
+import de.danielbechler.diff.identity.EqualsIdentityStrategy;
 import de.danielbechler.diff.identity.IdentityStrategy;
 import de.danielbechler.diff.identity.IdentityStrategyResolver;
 import de.danielbechler.diff.node.DiffNode;
 import de.danielbechler.util.Assert;
+import logapi.util.diff.CollectionDiffUtils;
 
 import java.util.*;
 
@@ -64,7 +66,7 @@ public class ArrayDiffer implements Differ {
     }
 
     private Collection<?> findCollection(Object source) {
-        return source == null ? new ArrayList<>() : new LinkedList<>(Arrays.asList((Object[]) source));
+        return source == null ? Collections.emptyList() : Arrays.asList((Object[]) source);
     }
 
     private static DiffNode newNode(final DiffNode parentNode,
@@ -84,26 +86,48 @@ public class ArrayDiffer implements Differ {
         }
     }
 
+    /**
+     * 数组按集合语义比较，与 CollectionDiffer 一致：
+     * added = working 中不在 base 里的元素，removed = base 中不在 working 里的元素，known = base 中同时在 working 里的元素
+     * 相等的元素全部去掉（不是多重集相减），各部分保持数组原顺序
+     * 默认的 equals 判等且元素 hashCode 可靠时用 HashSet 索引，O(n)；自定义 IdentityStrategy 只能逐个比较
+     */
     private void compareInternally(final DiffNode collectionNode,
                                    final Instances collectionInstances,
                                    final IdentityStrategy identityStrategy) {
-        final Collection<?> working = Arrays.asList((Object[]) collectionInstances.getWorking());
-        final Collection<?> base = Arrays.asList((Object[]) collectionInstances.getBase());
-
-        final Iterable<?> added = new LinkedList<Object>(working);
-        final Iterable<?> removed = new LinkedList<Object>(base);
-        final Iterable<?> known = new LinkedList<Object>(base);
-
-        remove(added, base, identityStrategy);
-        remove(removed, working, identityStrategy);
-        remove(known, added, identityStrategy);
-        remove(known, removed, identityStrategy);
+        final List<?> working = Arrays.asList((Object[]) collectionInstances.getWorking());
+        final List<?> base = Arrays.asList((Object[]) collectionInstances.getBase());
+
+        final Collection<?> added;
+        final Collection<?> removed;
+        final Collection<?> known;
+        if (supportsHashing(identityStrategy, working, base)) {
+            final Set<Object> workingIndex = new HashSet<>(working);
+            added = CollectionDiffUtils.subtract(working, new HashSet<>(base));
+            removed = CollectionDiffUtils.subtract(base, workingIndex);
+            known = CollectionDiffUtils.retain(base, workingIndex);
+        } else {
+            added = new LinkedList<Object>(working);
+            removed = new LinkedList<Object>(base);
+            known = new LinkedList<Object>(base);
+            remove(added, base, identityStrategy);
+            remove(removed, working, identityStrategy);
+            remove(known, added, identityStrategy);
+            remove(known, removed, identityStrategy);
+        }
 
         compareItems(collectionNode, collectionInstances, added, identityStrategy);
         compareItems(collectionNode, collectionInstances, removed, identityStrategy);
         compareItems(collectionNode, collectionInstances, known, identityStrategy);
     }
 
+    private static boolean supportsHashing(final IdentityStrategy identityStrategy, final Collection<?> working,
+                                           final Collection<?> base) {
+        return (identityStrategy == null || identityStrategy instanceof EqualsIdentityStrategy)
+                && CollectionDiffUtils.hasReliableHashCode(working)
+                && CollectionDiffUtils.hasReliableHashCode(base);
+    }
+
     private static void compareUsingComparisonStrategy(final DiffNode collectionNode,
                                                        final Instances collectionInstances,
                                                        final ComparisonStrategy comparisonStrategy) {
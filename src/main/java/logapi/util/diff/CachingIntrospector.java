@@ -0,0 +1,38 @@
+package logapi.util.diff;
+
+import de.danielbechler.diff.instantiation.TypeInfo;
+import de.danielbechler.diff.introspection.Introspector;
+import de.danielbechler.diff.introspection.StandardIntrospector;
+import org.springframework.util.ConcurrentReferenceHashMap;
+
+import java.util.Map;
+
+/**
+ * 缓存每个类型的属性元数据，避免每次 diff 都重新反射同一个 DTO
+ * TypeInfo 里只有属性名、读写方法等不可变信息，可以在多个 ObjectDiffer 之间共享
+ *
+ * @author wulang
+ **/
+public class CachingIntrospector implements Introspector {
+
+    private final Introspector delegate;
+    private final Map<Class<?>, TypeInfo> typeInfoCache = new ConcurrentReferenceHashMap<>(256);
+
+    public CachingIntrospector() {
+        this(new StandardIntrospector());
+    }
+
+    public CachingIntrospector(Introspector delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public TypeInfo introspect(Class<?> type) {
+        TypeInfo typeInfo = typeInfoCache.get(type);
+        if (typeInfo == null) {
+            typeInfo = delegate.introspect(type);
+            typeInfoCache.put(type, typeInfo);
+        }
+        return typeInfo;
+    }
+}
@@ -0,0 +1,120 @@
+package logapi.util.diff;
+
+import logapi.service.IFunctionService;
+import org.springframework.util.ConcurrentReferenceHashMap;
+import org.springframework.util.ReflectionUtils;
+import org.springframework.util.StringUtils;
+
+import java.lang.reflect.Method;
+import java.util.*;
+
+/**
+ * 集合/数组 diff 的公共方法
+ * <p>语义与 {@link Collection#removeAll(Collection)} 一致：被减集合中只要有相等的元素，所有相等的元素都会被去掉（不是多重集相减），
+ * 结果保持原集合的迭代顺序，重复元素原样保留
+ * <p>元素的 hashCode 可靠时用 HashSet 做索引，整体 O(n)；重写了 equals 却没有重写 hashCode 的类型退回逐个比较
+ *
+ * @author wulang
+ **/
+public final class CollectionDiffUtils {
+
+    private static final Map<Class<?>, Boolean> RELIABLE_HASH_CODE_CACHE = new ConcurrentReferenceHashMap<>(256);
+
+    private CollectionDiffUtils() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * @param minuend    原集合
+     * @param subtractor 需要去掉的元素
+     * @return minuend 中不在 subtractor 里的元素
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> List<T> subtract(Collection<? extends T> minuend, Collection<?> subtractor) {
+        List<T> result = new ArrayList<>(minuend.size());
+        if (subtractor.isEmpty()) {
+            result.addAll(minuend);
+            return result;
+        }
+        if (!hasReliableHashCode(minuend) || !hasReliableHashCode(subtractor)) {
+            for (T item : minuend) {
+                if (!subtractor.contains(item)) {
+                    result.add(item);
+                }
+            }
+            return result;
+        }
+        Set<Object> index = subtractor instanceof Set ? (Set<Object>) subtractor : new HashSet<>(subtractor);
+        for (T item : minuend) {
+            if (!index.contains(item)) {
+                result.add(item);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param minuend 原集合
+     * @param filter  对比的集合
+     * @return minuend 中同时在 filter 里的元素
+     */
+    public static <T> List<T> retain(Collection<? extends T> minuend, Collection<?> filter) {
+        List<T> result = new ArrayList<>(Math.min(minuend.size(), filter.size()));
+        if (filter.isEmpty()) {
+            return result;
+        }
+        Collection<?> index = hasReliableHashCode(minuend) && hasReliableHashCode(filter) && !(filter instanceof Set)
+                ? new HashSet<>(filter) : filter;
+        for (T item : minuend) {
+            if (index.contains(item)) {
+                result.add(item);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 添加项和删除项里需要函数转换的值一次交给 applyAll，key 与逐个转换时的入参一致，为 item.toString()
+     *
+     * @return 没有函数或者不到两个值时返回空 Map，由调用方逐个转换
+     */
+    public static Map<Object, String> applyFunction(IFunctionService functionService, String functionName,
+                                                    Collection<?> addItemList, Collection<?> delItemList) {
+        if (StringUtils.isEmpty(functionName) || addItemList.size() + delItemList.size() < 2) {
+            return Collections.emptyMap();
+        }
+        Set<Object> values = new LinkedHashSet<>();
+        for (Object item : addItemList) {
+            values.add(item.toString());
+        }
+        for (Object item : delItemList) {
+            values.add(item.toString());
+        }
+        return functionService.applyAll(functionName, values);
+    }
+
+    /**
+     * @return 集合里的所有元素类型都满足 equals 与 hashCode 一起重写（或者都没有重写）
+     */
+    public static boolean hasReliableHashCode(Collection<?> items) {
+        Class<?> lastClass = null;
+        for (Object item : items) {
+            if (item == null || item.getClass() == lastClass) {
+                continue;
+            }
+            lastClass = item.getClass();
+            if (!RELIABLE_HASH_CODE_CACHE.computeIfAbsent(lastClass, CollectionDiffUtils::computeReliableHashCode)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean computeReliableHashCode(Class<?> clazz) {
+        Method equals = ReflectionUtils.findMethod(clazz, "equals", Object.class);
+        Method hashCode = ReflectionUtils.findMethod(clazz, "hashCode");
+        boolean overrideEquals = equals != null && equals.getDeclaringClass() != Object.class;
+        boolean overrideHashCode = hashCode != null && hashCode.getDeclaringClass() != Object.class;
+        return !overrideEquals || overrideHashCode;
+    }
+}
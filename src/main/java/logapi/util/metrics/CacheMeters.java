@@ -0,0 +1,43 @@
+package logapi.util.metrics;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import logapi.util.cache.ExpiringLruCache;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 把一个 {@link ExpiringLruCache} 的统计注册到 Micrometer：
+ * name（result=hit/miss）、name.evictions、name.size 和 name.load（未命中时的加载耗时）
+ *
+ * @author wulang
+ **/
+final class CacheMeters {
+
+    private CacheMeters() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    static void bind(MeterRegistry registry, String name, Tags tags, ExpiringLruCache<?, ?> cache, String loadDescription) {
+        FunctionCounter.builder(name, cache, c -> c.getStats().getHitCount())
+                .tags(tags.and("result", "hit"))
+                .register(registry);
+        FunctionCounter.builder(name, cache, c -> c.getStats().getMissCount())
+                .tags(tags.and("result", "miss"))
+                .register(registry);
+        FunctionCounter.builder(name + ".evictions", cache, c -> c.getStats().getEvictionCount())
+                .tags(tags)
+                .register(registry);
+        Gauge.builder(name + ".size", cache, ExpiringLruCache::size)
+                .tags(tags)
+                .register(registry);
+        FunctionTimer.builder(name + ".load", cache, c -> c.getStats().getLoadCount(),
+                        c -> c.getStats().getTotalLoadNanos(), TimeUnit.NANOSECONDS)
+                .tags(tags)
+                .description(loadDescription)
+                .register(registry);
+    }
+}
@@ -0,0 +1,39 @@
+package logapi.util.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import logapi.service.impl.ParseFunctionFactory;
+import logapi.util.cache.ExpiringLruCache;
+import org.springframework.lang.NonNull;
+
+import java.util.Map;
+
+/**
+ * 把自定义函数结果缓存的命中情况导出到 Micrometer：
+ * log.record.function.cache（result=hit/miss）、log.record.function.cache.evictions、
+ * log.record.function.cache.size 和 log.record.function.cache.load（未命中时调用原函数的耗时）
+ *
+ * @author wulang
+ **/
+public class FunctionCacheMeterBinder implements MeterBinder {
+
+    private static final String METER_NAME = "log.record.function.cache";
+
+    private final ParseFunctionFactory parseFunctionFactory;
+
+    public FunctionCacheMeterBinder(ParseFunctionFactory parseFunctionFactory) {
+        this.parseFunctionFactory = parseFunctionFactory;
+    }
+
+    @Override
+    public void bindTo(@NonNull MeterRegistry registry) {
+        for (Map.Entry<String, ExpiringLruCache<Object, String>> entry : parseFunctionFactory.getFunctionCaches().entrySet()) {
+            register(registry, entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void register(MeterRegistry registry, String functionName, ExpiringLruCache<Object, String> cache) {
+        CacheMeters.bind(registry, METER_NAME, Tags.of("function", functionName), cache, "parse function invocations on cache miss");
+    }
+}
@@ -0,0 +1,92 @@
+package logapi.util.metrics;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import logapi.service.ILogRecordPerformanceMonitor;
+import logapi.service.impl.HistogramLogRecordPerformanceMonitor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.lang.NonNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 把 {@link HistogramLogRecordPerformanceMonitor} 的统计导出到 Micrometer：
+ * log.record.stage（次数、总耗时）和 log.record.stage.percentile（p50/p90/p99/max，单位秒）；
+ * 开启 fan-out 时按输出导出 log.record.sink（写入次数、总耗时）、log.record.sink.percentile、log.record.sink.lag.percentile、
+ * log.record.sink.written 和 log.record.sink.dropped
+ *
+ * @author wulang
+ **/
+public class LogRecordMeterBinder implements MeterBinder {
+
+    private static final String METER_NAME = "log.record.stage";
+    private static final String SINK_METER_NAME = "log.record.sink";
+    private static final double[] PERCENTILES = {50, 90, 99};
+
+    private final ObjectProvider<ILogRecordPerformanceMonitor> monitorProvider;
+
+    public LogRecordMeterBinder(ObjectProvider<ILogRecordPerformanceMonitor> monitorProvider) {
+        this.monitorProvider = monitorProvider;
+    }
+
+    @Override
+    public void bindTo(@NonNull MeterRegistry registry) {
+        ILogRecordPerformanceMonitor performanceMonitor = monitorProvider.getIfAvailable();
+        if (!(performanceMonitor instanceof HistogramLogRecordPerformanceMonitor)) {
+            return;
+        }
+        HistogramLogRecordPerformanceMonitor monitor = (HistogramLogRecordPerformanceMonitor) performanceMonitor;
+        monitor.addMetricListener(metric -> register(registry, metric));
+        monitor.addSinkMetricListener(metric -> register(registry, metric));
+    }
+
+    private void register(MeterRegistry registry, HistogramLogRecordPerformanceMonitor.SinkMetric metric) {
+        Tags tags = Tags.of("sink", metric.getSink());
+        FunctionTimer.builder(SINK_METER_NAME, metric.getLatency(), LatencyHistogram::getCount,
+                        LatencyHistogram::getTotalNanos, TimeUnit.NANOSECONDS)
+                .tags(tags)
+                .description("log record sink batch write")
+                .register(registry);
+        registerPercentiles(registry, SINK_METER_NAME + ".percentile", tags, metric.getLatency());
+        registerPercentiles(registry, SINK_METER_NAME + ".lag.percentile", tags, metric.getLag());
+        FunctionCounter.builder(SINK_METER_NAME + ".written", metric.getWritten(), LongAdder::sum)
+                .tags(tags)
+                .register(registry);
+        FunctionCounter.builder(SINK_METER_NAME + ".dropped", metric.getDropped(), LongAdder::sum)
+                .tags(tags)
+                .register(registry);
+    }
+
+    private void register(MeterRegistry registry, HistogramLogRecordPerformanceMonitor.Metric metric) {
+        Tags tags = Tags.of("stage", metric.getStage(), "bizType", metric.getBizType(), "method", metric.getMethod());
+        LatencyHistogram histogram = metric.getHistogram();
+        FunctionTimer.builder(METER_NAME, histogram, LatencyHistogram::getCount,
+                        LatencyHistogram::getTotalNanos, TimeUnit.NANOSECONDS)
+                .tags(tags)
+                .description("log record aspect overhead per stage")
+                .register(registry);
+        registerPercentiles(registry, METER_NAME + ".percentile", tags, histogram);
+    }
+
+    private void registerPercentiles(MeterRegistry registry, String name, Tags tags, LatencyHistogram histogram) {
+        for (double percentile : PERCENTILES) {
+            Gauge.builder(name, histogram, h -> toSeconds(h.getPercentile(percentile)))
+                    .tags(tags.and("percentile", "p" + (int) percentile))
+                    .baseUnit("seconds")
+                    .register(registry);
+        }
+        Gauge.builder(name, histogram, h -> toSeconds(h.getMaxNanos()))
+                .tags(tags.and("percentile", "max"))
+                .baseUnit("seconds")
+                .register(registry);
+    }
+
+    private static double toSeconds(long nanos) {
+        return nanos / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,36 @@
+package logapi.util.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import logapi.starter.LogRecordServicePostProcessor;
+import logapi.util.cache.ExpiringLruCache;
+import org.springframework.lang.NonNull;
+
+
+/**
+ * 把日志查询缓存的命中情况导出到 Micrometer：
+ * log.record.query.cache（result=hit/miss）、log.record.query.cache.evictions、
+ * log.record.query.cache.size 和 log.record.query.cache.load（未命中时查询存储的耗时）
+ *
+ * @author wulang
+ **/
+public class QueryCacheMeterBinder implements MeterBinder {
+
+    private static final String METER_NAME = "log.record.query.cache";
+
+    private final LogRecordServicePostProcessor logRecordServicePostProcessor;
+
+    public QueryCacheMeterBinder(LogRecordServicePostProcessor logRecordServicePostProcessor) {
+        this.logRecordServicePostProcessor = logRecordServicePostProcessor;
+    }
+
+    @Override
+    public void bindTo(@NonNull MeterRegistry registry) {
+        logRecordServicePostProcessor.addQueryCacheListener((beanName, cache) -> register(registry, beanName, cache));
+    }
+
+    private void register(MeterRegistry registry, String beanName, ExpiringLruCache<?, ?> cache) {
+        CacheMeters.bind(registry, METER_NAME, Tags.of("service", beanName), cache, "log record queries on cache miss");
+    }
+}
@@ -0,0 +1,73 @@
+package logapi.util.ring;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 一个消费者：在自己的线程上按序号顺序处理事件，处理完一批后推进自己的 {@link Sequence}
+ * 依赖的序号为 ringBuffer 的 cursor（第一个阶段）或上游消费者的序号，处理异常只记录日志，不阻塞后续事件
+ *
+ * @author wulang
+ **/
+@Slf4j
+public final class BatchEventProcessor<E> implements Runnable {
+
+    private final String name;
+    private final RingBuffer<E> ringBuffer;
+    private final Sequence[] dependents;
+    private final EventHandler<? super E> eventHandler;
+    private final Sequence sequence = new Sequence(-1);
+    private volatile boolean running = true;
+
+    /**
+     * @param dependents 依赖的上游消费者序号，为空时依赖 ringBuffer 的 cursor
+     */
+    public BatchEventProcessor(String name, RingBuffer<E> ringBuffer, EventHandler<? super E> eventHandler, Sequence... dependents) {
+        this.name = name;
+        this.ringBuffer = ringBuffer;
+        this.eventHandler = eventHandler;
+        this.dependents = dependents.length == 0 ? new Sequence[]{ringBuffer.getCursor()} : dependents.clone();
+    }
+
+    public Sequence getSequence() {
+        return sequence;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 停止处理，尚未处理的事件不再处理，调用方需要先等待 sequence 追上 cursor
+     */
+    public void halt() {
+        running = false;
+        ringBuffer.getWaitStrategy().signalAllWhenBlocking();
+    }
+
+    @Override
+    public void run() {
+        long nextSequence = sequence.get() + 1;
+        while (running) {
+            long availableSequence;
+            try {
+                availableSequence = ringBuffer.getWaitStrategy().waitFor(nextSequence, ringBuffer.getCursor(), dependents, () -> !running);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            availableSequence = ringBuffer.getHighestPublishedSequence(nextSequence, availableSequence);
+            if (availableSequence < nextSequence) {
+                continue;
+            }
+            while (nextSequence <= availableSequence) {
+                try {
+                    eventHandler.onEvent(ringBuffer.get(nextSequence), nextSequence, nextSequence == availableSequence);
+                } catch (Exception e) {
+                    log.error("log record event processor {} exception, sequence={}", name, nextSequence, e);
+                }
+                nextSequence++;
+            }
+            sequence.set(availableSequence);
+        }
+    }
+}
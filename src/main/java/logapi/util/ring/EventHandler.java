@@ -0,0 +1,17 @@
+package logapi.util.ring;
+
+/**
+ * 环形队列的消费逻辑，由 {@link BatchEventProcessor} 在单独的线程上按序号顺序调用
+ *
+ * @author wulang
+ **/
+@FunctionalInterface
+public interface EventHandler<E> {
+
+    /**
+     * @param event      槽位里的事件，方法返回后槽位可能被生产者复用，不能保存事件的引用
+     * @param sequence   事件的序号
+     * @param endOfBatch 是否是这一批可处理事件的最后一个，可以在这里刷新攒批的数据
+     */
+    void onEvent(E event, long sequence, boolean endOfBatch) throws Exception;
+}
@@ -0,0 +1,176 @@
+package logapi.util.ring;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * 预分配槽位的环形队列（LMAX Disruptor 的简化实现），槽位里的事件对象创建一次后一直复用
+ * 生产者 {@link #next()} 申请序号，写入 {@link #get(long)} 返回的事件后 {@link #publish(long)}；
+ * 消费者只通过 {@link Sequence} 前进，不需要出队操作，生产者只在追上最慢的消费者（gatingSequences）时等待
+ * <p>多生产者时用 CAS 申请序号，每个槽位记录发布时的圈数，消费者通过 {@link #getHighestPublishedSequence} 找到连续发布的最大序号；
+ * 单生产者时 publish 直接推进 cursor
+ *
+ * @author wulang
+ **/
+public final class RingBuffer<E> {
+
+    private final Object[] entries;
+    private final int bufferSize;
+    private final int indexMask;
+    private final int indexShift;
+    private final boolean multiProducer;
+    private final WaitStrategy waitStrategy;
+    /**
+     * 多生产者：已经申请到的最大序号；单生产者：已经发布的最大序号
+     */
+    private final Sequence cursor = new Sequence(-1);
+    /**
+     * 最慢的消费者序号的缓存，减少读取 gatingSequences 的次数
+     */
+    private final Sequence gatingSequenceCache = new Sequence(-1);
+    /**
+     * 多生产者时每个槽位发布时的圈数
+     */
+    private final AtomicIntegerArray availableBuffer;
+    private volatile Sequence[] gatingSequences = new Sequence[0];
+    /**
+     * 单生产者时已经申请到的序号，只有生产者线程访问
+     */
+    private long nextValue = -1;
+
+    /**
+     * @param bufferSize 槽位数，必须是 2 的幂
+     */
+    public RingBuffer(Supplier<E> eventFactory, int bufferSize, boolean multiProducer, WaitStrategy waitStrategy) {
+        if (bufferSize < 1 || Integer.bitCount(bufferSize) != 1) {
+            throw new IllegalArgumentException("bufferSize must be a power of 2");
+        }
+        this.entries = new Object[bufferSize];
+        for (int i = 0; i < bufferSize; i++) {
+            entries[i] = eventFactory.get();
+        }
+        this.bufferSize = bufferSize;
+        this.indexMask = bufferSize - 1;
+        this.indexShift = Integer.numberOfTrailingZeros(bufferSize);
+        this.multiProducer = multiProducer;
+        this.waitStrategy = waitStrategy;
+        if (multiProducer) {
+            this.availableBuffer = new AtomicIntegerArray(bufferSize);
+            for (int i = 0; i < bufferSize; i++) {
+                availableBuffer.set(i, -1);
+            }
+        } else {
+            this.availableBuffer = null;
+        }
+    }
+
+    /**
+     * 设置生产者需要等待的消费者序号，一般是处理链路最末端的消费者，在启动消费者之前调用
+     */
+    public void setGatingSequences(Sequence... sequences) {
+        this.gatingSequences = sequences.clone();
+    }
+
+    @SuppressWarnings("unchecked")
+    public E get(long sequence) {
+        return (E) entries[(int) sequence & indexMask];
+    }
+
+    /**
+     * 申请下一个序号，队列满时等待消费者
+     */
+    public long next() {
+        long sequence;
+        while ((sequence = tryNext()) < 0) {
+            LockSupport.parkNanos(1);
+        }
+        return sequence;
+    }
+
+    /**
+     * 申请下一个序号，队列满时立即返回 -1
+     */
+    public long tryNext() {
+        if (!multiProducer) {
+            long next = nextValue + 1;
+            if (!hasCapacity(next, nextValue)) {
+                return -1;
+            }
+            nextValue = next;
+            return next;
+        }
+        while (true) {
+            long current = cursor.get();
+            long next = current + 1;
+            if (!hasCapacity(next, current)) {
+                return -1;
+            }
+            if (cursor.compareAndSet(current, next)) {
+                return next;
+            }
+        }
+    }
+
+    private boolean hasCapacity(long next, long current) {
+        long wrapPoint = next - bufferSize;
+        long cachedGatingSequence = gatingSequenceCache.get();
+        if (wrapPoint > cachedGatingSequence || cachedGatingSequence > current) {
+            long minSequence = Sequence.minimum(gatingSequences, current);
+            gatingSequenceCache.set(minSequence);
+            return wrapPoint <= minSequence;
+        }
+        return true;
+    }
+
+    public void publish(long sequence) {
+        if (multiProducer) {
+            availableBuffer.lazySet((int) sequence & indexMask, (int) (sequence >>> indexShift));
+        } else {
+            cursor.set(sequence);
+        }
+        waitStrategy.signalAllWhenBlocking();
+    }
+
+    public boolean isAvailable(long sequence) {
+        if (!multiProducer) {
+            return sequence <= cursor.get();
+        }
+        return availableBuffer.get((int) sequence & indexMask) == (int) (sequence >>> indexShift);
+    }
+
+    /**
+     * @return [lowerBound, availableSequence] 里从 lowerBound 开始连续发布的最大序号
+     */
+    public long getHighestPublishedSequence(long lowerBound, long availableSequence) {
+        if (!multiProducer) {
+            return availableSequence;
+        }
+        for (long sequence = lowerBound; sequence <= availableSequence; sequence++) {
+            if (!isAvailable(sequence)) {
+                return sequence - 1;
+            }
+        }
+        return availableSequence;
+    }
+
+    public Sequence getCursor() {
+        return cursor;
+    }
+
+    public WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return 已经申请但还没有被所有 gatingSequences 处理完的事件数
+     */
+    public long getBacklog() {
+        long produced = cursor.get();
+        return produced - Sequence.minimum(gatingSequences, produced);
+    }
+}
@@ -0,0 +1,64 @@
+package logapi.util.ring;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * 环形队列的序号，前后各填充 7 个 long，避免不同线程频繁写的序号落在同一个缓存行里（伪共享）
+ *
+ * @author wulang
+ **/
+public class Sequence extends RhsPadding {
+
+    private static final AtomicLongFieldUpdater<Value> UPDATER = AtomicLongFieldUpdater.newUpdater(Value.class, "value");
+
+    public Sequence(long initialValue) {
+        UPDATER.set(this, initialValue);
+    }
+
+    public long get() {
+        return value;
+    }
+
+    /**
+     * 有序写（lazySet），只保证之前的写对其他线程可见，不需要立即可见的场景比 volatile 写更便宜
+     */
+    public void set(long newValue) {
+        UPDATER.lazySet(this, newValue);
+    }
+
+    public void setVolatile(long newValue) {
+        UPDATER.set(this, newValue);
+    }
+
+    public boolean compareAndSet(long expectedValue, long newValue) {
+        return UPDATER.compareAndSet(this, expectedValue, newValue);
+    }
+
+    /**
+     * @return 序号中的最小值，sequences 为空时返回 defaultValue
+     */
+    public static long minimum(Sequence[] sequences, long defaultValue) {
+        long minimum = defaultValue;
+        for (Sequence sequence : sequences) {
+            minimum = Math.min(minimum, sequence.get());
+        }
+        return minimum;
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(get());
+    }
+}
+
+class LhsPadding {
+    protected long p1, p2, p3, p4, p5, p6, p7;
+}
+
+class Value extends LhsPadding {
+    protected volatile long value;
+}
+
+class RhsPadding extends Value {
+    protected long p9, p10, p11, p12, p13, p14, p15;
+}
@@ -0,0 +1,175 @@
+package logapi.util.ring;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 内置的等待策略：
+ * BLOCKING 锁+条件变量，空闲时不占 CPU，延迟最高，只在有消费者等待时才加锁唤醒；SLEEPING 先自旋再 yield 最后 park，适合日志这类对延迟不敏感的场景；
+ * YIELDING 自旋后 yield，低延迟但空闲时占满一个核；BUSY_SPIN 一直自旋，延迟最低，只适合消费线程绑核的机器
+ *
+ * @author wulang
+ **/
+public final class WaitStrategies {
+
+    private static final int SPIN_TRIES = 100;
+
+    private WaitStrategies() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    public static WaitStrategy blocking() {
+        return new BlockingWaitStrategy();
+    }
+
+    public static WaitStrategy sleeping() {
+        return new SleepingWaitStrategy();
+    }
+
+    public static WaitStrategy yielding() {
+        return new YieldingWaitStrategy();
+    }
+
+    public static WaitStrategy busySpin() {
+        return new BusySpinWaitStrategy();
+    }
+
+    /**
+     * 上游消费者的处理通常很快，cursor 到达之后自旋等待依赖的序号
+     */
+    private static long spinForDependents(long sequence, Sequence[] dependents, BooleanSupplier halted) {
+        long available;
+        while ((available = Sequence.minimum(dependents, Long.MAX_VALUE)) < sequence) {
+            if (halted.getAsBoolean()) {
+                return sequence - 1;
+            }
+            Thread.yield();
+        }
+        return available;
+    }
+
+    private static final class BlockingWaitStrategy implements WaitStrategy {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition processorNotifyCondition = lock.newCondition();
+        /**
+         * 有消费者在等待时才需要加锁唤醒，生产者发布时大多数情况不用加锁
+         */
+        private final AtomicBoolean signalNeeded = new AtomicBoolean();
+
+        @Override
+        public long waitFor(long sequence, Sequence cursor, Sequence[] dependents, BooleanSupplier halted) throws InterruptedException {
+            if (cursor.get() < sequence) {
+                lock.lock();
+                try {
+                    while (cursor.get() < sequence) {
+                        if (halted.getAsBoolean()) {
+                            return sequence - 1;
+                        }
+                        signalNeeded.set(true);
+                        if (cursor.get() >= sequence) {
+                            break;
+                        }
+                        // 带超时，防止错过唤醒时一直等待
+                        processorNotifyCondition.await(10, TimeUnit.MILLISECONDS);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+            return spinForDependents(sequence, dependents, halted);
+        }
+
+        @Override
+        public void signalAllWhenBlocking() {
+            if (!signalNeeded.getAndSet(false)) {
+                return;
+            }
+            lock.lock();
+            try {
+                processorNotifyCondition.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static final class SleepingWaitStrategy implements WaitStrategy {
+
+        private static final int RETRIES = 200;
+        private static final long SLEEP_NANOS = 100_000;
+
+        @Override
+        public long waitFor(long sequence, Sequence cursor, Sequence[] dependents, BooleanSupplier halted) {
+            long available;
+            int counter = RETRIES;
+            while ((available = Sequence.minimum(dependents, Long.MAX_VALUE)) < sequence) {
+                if (halted.getAsBoolean()) {
+                    return sequence - 1;
+                }
+                if (counter > SPIN_TRIES) {
+                    counter--;
+                } else if (counter > 0) {
+                    counter--;
+                    Thread.yield();
+                } else {
+                    LockSupport.parkNanos(SLEEP_NANOS);
+                }
+            }
+            return available;
+        }
+
+        @Override
+        public void signalAllWhenBlocking() {
+            // 不阻塞，不需要唤醒
+        }
+    }
+
+    private static final class YieldingWaitStrategy implements WaitStrategy {
+
+        @Override
+        public long waitFor(long sequence, Sequence cursor, Sequence[] dependents, BooleanSupplier halted) {
+            long available;
+            int counter = SPIN_TRIES;
+            while ((available = Sequence.minimum(dependents, Long.MAX_VALUE)) < sequence) {
+                if (halted.getAsBoolean()) {
+                    return sequence - 1;
+                }
+                if (counter > 0) {
+                    counter--;
+                } else {
+                    Thread.yield();
+                }
+            }
+            return available;
+        }
+
+        @Override
+        public void signalAllWhenBlocking() {
+            // 不阻塞，不需要唤醒
+        }
+    }
+
+    private static final class BusySpinWaitStrategy implements WaitStrategy {
+
+        @Override
+        public long waitFor(long sequence, Sequence cursor, Sequence[] dependents, BooleanSupplier halted) {
+            long available;
+            while ((available = Sequence.minimum(dependents, Long.MAX_VALUE)) < sequence) {
+                if (halted.getAsBoolean()) {
+                    return sequence - 1;
+                }
+            }
+            return available;
+        }
+
+        @Override
+        public void signalAllWhenBlocking() {
+            // 不阻塞，不需要唤醒
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package logapi.util.ring;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * 消费者等待新事件的方式，在延迟和 CPU 占用之间取舍，见 {@link WaitStrategies}
+ *
+ * @author wulang
+ **/
+public interface WaitStrategy {
+
+    /**
+     * 等待 dependents 都到达 sequence
+     *
+     * @param sequence   要处理的序号
+     * @param cursor     生产者已经申请到的序号
+     * @param dependents 依赖的序号，第一个阶段就是 cursor，之后的阶段为上游消费者的序号
+     * @param halted     消费者是否已经停止
+     * @return 可以处理到的最大序号；消费者停止时返回小于 sequence 的值
+     */
+    long waitFor(long sequence, Sequence cursor, Sequence[] dependents, BooleanSupplier halted) throws InterruptedException;
+
+    /**
+     * 生产者发布事件、消费者停止时调用，唤醒阻塞等待的消费者
+     */
+    void signalAllWhenBlocking();
+}
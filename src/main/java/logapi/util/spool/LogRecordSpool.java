@@ -0,0 +1,513 @@
+package logapi.util.spool;
+
+import logapi.beans.LogRecord;
+import logapi.util.codec.LogRecordCodec;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.zip.CRC32;
+
+/**
+ * 本地追加写的日志 spool：日志先写进内存映射的段文件，再由后台线程转发给真正的存储
+ * <p>段文件格式：连续的帧，每帧为 [int 长度][int CRC32][日志内容]，长度为 0 或者 CRC 不匹配的位置视为段的结尾（进程崩溃时写了一半的帧）
+ * <p>日志内容用 {@link LogRecordCodec} 编码，每个段一个字典，从 checkpoint 中间开始读取时先从段头扫描一遍重建字典
+ * <p>读取进度保存在 checkpoint 文件里（段号 + 段内位置），通过临时文件 + 原子 rename 更新，已经读完的段在 checkpoint 之后删除
+ * <p>幂等键由 节点 id + 段号 + 段内位置 组成，同一条日志重放多次键不变，转发成功但 checkpoint 前崩溃时会重复投递，需要存储端按幂等键去重
+ * <p>写入只落到 page cache，进程崩溃不丢，机器掉电可能丢失最后一部分，syncOnAppend=true 时每次写入都 force 到磁盘
+ * <p>段文件总大小不超过 maxSize，写满后 {@link #tryAppend(LogRecord)} 返回 FULL，等重放线程转发完删除旧段后才能继续写入
+ * <p>无法解码的帧（比如其他版本写入的段）所在的段复制到 dead-letter 目录后整段跳过，段内后面的帧依赖同一个字典，不能只跳过一帧；
+ * 存储一直拒绝的日志通过 {@link #deadLetter(LogRecord)} 写进 dead-letter 目录，这个目录也是一个 spool，可以用它重放
+ *
+ * @author wulang
+ **/
+@Slf4j
+public class LogRecordSpool implements Closeable {
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final String NODE_ID_FILE = "node.id";
+    private static final int FRAME_HEADER_SIZE = 8;
+    private static final String DEAD_LETTER_DIRECTORY = "dead-letter";
+    private static final String CORRUPT_SUFFIX = ".corrupt";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final boolean syncOnAppend;
+    private final long maxSize;
+    private final int maxSegments;
+    private final String nodeId;
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private final Object appendLock = new Object();
+    private final Object deadLetterLock = new Object();
+
+    private volatile Segment active;
+    /**
+     * 已经转发成功的位置，只有重放线程修改
+     */
+    private volatile long checkpointSegmentId;
+    private volatile int checkpointPosition;
+    /**
+     * 第一次写入 dead-letter 时创建
+     */
+    private LogRecordSpool deadLetterSpool;
+
+    /**
+     * @param directory    spool 目录，不存在时创建
+     * @param segmentSize  单个段文件的大小，单位字节
+     * @param syncOnAppend 每次写入后是否 force 到磁盘
+     */
+    public LogRecordSpool(Path directory, int segmentSize, boolean syncOnAppend) throws IOException {
+        this(directory, segmentSize, syncOnAppend, 0);
+    }
+
+    /**
+     * @param maxSize 段文件总大小的上限，单位字节，至少保留两个段（写入中的和重放中的），小于等于 0 表示不限制
+     */
+    public LogRecordSpool(Path directory, int segmentSize, boolean syncOnAppend, long maxSize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.syncOnAppend = syncOnAppend;
+        this.maxSize = maxSize;
+        this.maxSegments = maxSize <= 0 ? Integer.MAX_VALUE : (int) Math.min(Integer.MAX_VALUE, Math.max(2, maxSize / segmentSize));
+        Files.createDirectories(directory);
+        this.nodeId = loadNodeId();
+        loadSegments();
+        loadCheckpoint();
+        long nextSegmentId = segments.isEmpty() ? checkpointSegmentId + 1 : segments.lastKey() + 1;
+        this.active = createSegment(nextSegmentId);
+        deleteReplayedSegments();
+    }
+
+    /**
+     * 追加一条日志，当前段写满时切换到新的段
+     *
+     * @return false 表示日志比一个段还大或者 spool 已经写满，无法写入，需要区分时使用 {@link #tryAppend(LogRecord)}
+     */
+    public boolean append(LogRecord logRecord) {
+        return tryAppend(logRecord) == AppendResult.APPENDED;
+    }
+
+    /**
+     * 追加一条日志，当前段写满时切换到新的段，段数已经达到上限时不切换
+     */
+    public AppendResult tryAppend(LogRecord logRecord) {
+        synchronized (appendLock) {
+            if (active.append(logRecord)) {
+                return AppendResult.APPENDED;
+            }
+            if (segments.size() >= maxSegments) {
+                return AppendResult.FULL;
+            }
+            rollover();
+            return active.append(logRecord) ? AppendResult.APPENDED : AppendResult.TOO_LARGE;
+        }
+    }
+
+    /**
+     * 把一条无法转发的日志写进 dead-letter 目录，dead-letter 也写满或者写入失败时只打印日志
+     *
+     * @return 是否已经写入
+     */
+    public boolean deadLetter(LogRecord logRecord) {
+        synchronized (deadLetterLock) {
+            try {
+                if (deadLetterSpool == null) {
+                    deadLetterSpool = new LogRecordSpool(directory.resolve(DEAD_LETTER_DIRECTORY), segmentSize, true, maxSize);
+                }
+                if (deadLetterSpool.append(logRecord)) {
+                    return true;
+                }
+            } catch (IOException | RuntimeException e) {
+                log.error("log record dead letter append exception", e);
+            }
+        }
+        log.error("log record dropped, dead letter unavailable, bizType={}, bizNo={}, idempotencyKey={}, action={}",
+                logRecord.getBizType(), logRecord.getBizNo(), logRecord.getIdempotencyKey(), logRecord.getAction());
+        return false;
+    }
+
+    /**
+     * 从 checkpoint 开始读取最多 maxRecords 条日志，不改变 checkpoint，转发成功后调用 {@link #commit(Batch)}
+     * 转发失败时再次调用会读到同样的日志
+     */
+    public synchronized Batch read(int maxRecords) {
+        List<LogRecord> records = new ArrayList<>(Math.min(maxRecords, 64));
+        long segmentId = checkpointSegmentId;
+        int position = checkpointPosition;
+        while (records.size() < maxRecords) {
+            Segment segment = segments.get(segmentId);
+            if (segment == null) {
+                Long next = segments.higherKey(segmentId);
+                if (next == null) {
+                    break;
+                }
+                segmentId = next;
+                position = 0;
+                continue;
+            }
+            // 先判断是否已封存再读 limit，保证封存后能读到段尾
+            boolean sealed = segment.sealed;
+            int limit = sealed ? segment.capacity : segment.writePosition;
+            // 跳过的段已经封存，直接读下一个段
+            if (!segment.skipped) {
+                try {
+                    segment.rebuildDictionary(position, limit);
+                    ByteBuffer frame = segment.readFrame(position, limit);
+                    if (frame != null) {
+                        int frameEnd = position + FRAME_HEADER_SIZE + frame.remaining();
+                        records.add(segment.decode(frame, frameEnd));
+                        position = frameEnd;
+                        continue;
+                    }
+                } catch (RuntimeException e) {
+                    if (!records.isEmpty()) {
+                        // 先转发前面能解码的日志，下次从这一帧开始读时再跳过
+                        break;
+                    }
+                    skipSegment(segment, position, e);
+                    sealed = true;
+                }
+            }
+            if (!sealed) {
+                break;
+            }
+            Long next = segments.higherKey(segmentId);
+            if (next == null) {
+                break;
+            }
+            segmentId = next;
+            position = 0;
+        }
+        return new Batch(records, segmentId, position);
+    }
+
+    /**
+     * 记录转发进度，并删除已经读完的段，跳过了无法解码的段时空的 Batch 也需要提交
+     */
+    public void commit(Batch batch) {
+        if (batch.segmentId == checkpointSegmentId && batch.position == checkpointPosition) {
+            return;
+        }
+        writeCheckpoint(batch.segmentId, batch.position);
+        checkpointSegmentId = batch.segmentId;
+        checkpointPosition = batch.position;
+        deleteReplayedSegments();
+    }
+
+    /**
+     * @return 是否还有没有转发的日志
+     */
+    public boolean hasPending() {
+        return !read(1).isEmpty();
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * @return 磁盘上还没有删除的段数，包括当前写入的段
+     */
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * @return 段数是否已经达到上限，当前段写满后不能再写入
+     */
+    public boolean isFull() {
+        return segments.size() >= maxSegments;
+    }
+
+    @Override
+    public void close() {
+        synchronized (appendLock) {
+            active.sealed = true;
+            active.buffer.force();
+        }
+        synchronized (deadLetterLock) {
+            if (deadLetterSpool != null) {
+                deadLetterSpool.close();
+            }
+        }
+    }
+
+    /**
+     * 段里有无法解码的帧：把段文件复制到 dead-letter 目录，然后封存这个段，读取时整段跳过
+     * 正在写入的段先切换到新段，之后的日志写进新段
+     */
+    private void skipSegment(Segment segment, int position, RuntimeException cause) {
+        log.error("log record spool frame decode failed, skip the rest of segment, segment={}, position={}",
+                segment.path, position, cause);
+        try {
+            Path deadLetterDirectory = Files.createDirectories(directory.resolve(DEAD_LETTER_DIRECTORY));
+            Files.copy(segment.path, deadLetterDirectory.resolve(segment.path.getFileName() + CORRUPT_SUFFIX),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            log.error("copy log record spool segment to dead letter failed, segment={}", segment.path, e);
+        }
+        synchronized (appendLock) {
+            if (segment == active) {
+                rollover();
+            }
+        }
+        segment.skipped = true;
+    }
+
+    private void rollover() {
+        Segment previous = active;
+        previous.sealed = true;
+        if (!syncOnAppend) {
+            previous.buffer.force();
+        }
+        try {
+            active = createSegment(previous.id + 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException("create log record spool segment failed", e);
+        }
+    }
+
+    private Segment createSegment(long id) throws IOException {
+        Path path = segmentPath(id);
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.setLength(segmentSize);
+            MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            Segment segment = new Segment(id, path, buffer, false);
+            segments.put(id, segment);
+            return segment;
+        }
+    }
+
+    private void loadSegments() throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                String fileName = path.getFileName().toString();
+                long id;
+                try {
+                    id = Long.parseLong(fileName.substring(0, fileName.length() - SEGMENT_SUFFIX.length()));
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                try (FileChannel channel = FileChannel.open(path)) {
+                    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                    // 上次运行留下的段不再写入
+                    segments.put(id, new Segment(id, path, buffer, true));
+                }
+            }
+        }
+    }
+
+    private void loadCheckpoint() throws IOException {
+        Path path = directory.resolve(CHECKPOINT_FILE);
+        if (Files.exists(path)) {
+            String[] parts = new String(Files.readAllBytes(path), StandardCharsets.UTF_8).trim().split(" ");
+            checkpointSegmentId = Long.parseLong(parts[0]);
+            checkpointPosition = Integer.parseInt(parts[1]);
+        } else {
+            checkpointSegmentId = segments.isEmpty() ? 0 : segments.firstKey();
+            checkpointPosition = 0;
+        }
+    }
+
+    private void writeCheckpoint(long segmentId, int position) {
+        Path path = directory.resolve(CHECKPOINT_FILE);
+        Path tmp = directory.resolve(CHECKPOINT_FILE + ".tmp");
+        try {
+            Files.write(tmp, (segmentId + " " + position).getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("write log record spool checkpoint failed", e);
+        }
+    }
+
+    private String loadNodeId() throws IOException {
+        Path path = directory.resolve(NODE_ID_FILE);
+        if (Files.exists(path)) {
+            return new String(Files.readAllBytes(path), StandardCharsets.UTF_8).trim();
+        }
+        String id = UUID.randomUUID().toString().replace("-", "");
+        Files.write(path, id.getBytes(StandardCharsets.UTF_8));
+        return id;
+    }
+
+    private void deleteReplayedSegments() {
+        for (Map.Entry<Long, Segment> entry : segments.headMap(checkpointSegmentId).entrySet()) {
+            Segment segment = entry.getValue();
+            if (segment == active) {
+                continue;
+            }
+            segments.remove(entry.getKey());
+            try {
+                Files.deleteIfExists(segment.path);
+            } catch (IOException e) {
+                log.warn("delete log record spool segment failed, path={}", segment.path, e);
+            }
+        }
+    }
+
+    private Path segmentPath(long id) {
+        return directory.resolve(String.format("%020d", id) + SEGMENT_SUFFIX);
+    }
+
+    private final class Segment {
+        private final long id;
+        private final Path path;
+        private final MappedByteBuffer buffer;
+        private final int capacity;
+        private final CRC32 writeCrc = new CRC32();
+        /**
+         * 写入端字典，只在 appendLock 内使用；上次运行留下的段不再写入，为 null
+         */
+        private final LogRecordCodec.Dictionary encodeDictionary;
+        /**
+         * 读取端字典以及已经解码到的位置，只在 read 内使用
+         */
+        private final LogRecordCodec.Dictionary decodeDictionary = new LogRecordCodec.Dictionary();
+        private int decodedPosition;
+        /**
+         * 有无法解码的帧，读取时整段跳过，只在 read 内使用
+         */
+        private boolean skipped;
+        /**
+         * 已经完整写入的位置，读取线程只读到这里
+         */
+        private volatile int writePosition;
+        private volatile boolean sealed;
+
+        private Segment(long id, Path path, MappedByteBuffer buffer, boolean sealed) {
+            this.id = id;
+            this.path = path;
+            this.buffer = buffer;
+            this.capacity = buffer.capacity();
+            this.sealed = sealed;
+            this.encodeDictionary = sealed ? null : new LogRecordCodec.Dictionary();
+        }
+
+        /**
+         * 先写内容再写 CRC 和长度，长度最后写入，崩溃时写了一半的帧长度为 0 或者 CRC 不匹配
+         */
+        private boolean append(LogRecord logRecord) {
+            int start = writePosition;
+            if (capacity - start <= FRAME_HEADER_SIZE) {
+                return false;
+            }
+            if (logRecord.getIdempotencyKey() == null) {
+                logRecord.setIdempotencyKey(nodeId + "-" + Long.toString(id, 36) + "-" + Integer.toString(start, 36));
+            }
+            ByteBuffer payload = buffer.duplicate();
+            payload.position(start + FRAME_HEADER_SIZE);
+            try {
+                LogRecordCodec.encode(logRecord, payload, encodeDictionary);
+            } catch (BufferOverflowException e) {
+                return false;
+            }
+            int length = payload.position() - start - FRAME_HEADER_SIZE;
+            payload.flip();
+            payload.position(start + FRAME_HEADER_SIZE);
+            writeCrc.reset();
+            writeCrc.update(payload);
+            buffer.putInt(start + 4, (int) writeCrc.getValue());
+            buffer.putInt(start, length);
+            if (syncOnAppend) {
+                buffer.force();
+            }
+            writePosition = start + FRAME_HEADER_SIZE + length;
+            return true;
+        }
+
+        private LogRecord decode(ByteBuffer frame, int frameEnd) {
+            LogRecord logRecord = LogRecordCodec.decode(frame, decodeDictionary);
+            decodedPosition = Math.max(decodedPosition, frameEnd);
+            return logRecord;
+        }
+
+        /**
+         * 字典条目只在第一次出现的帧里定义，从段中间开始读取前先把前面的帧解码一遍
+         */
+        private void rebuildDictionary(int position, int limit) {
+            while (decodedPosition < position) {
+                ByteBuffer frame = readFrame(decodedPosition, limit);
+                if (frame == null) {
+                    return;
+                }
+                decode(frame, decodedPosition + FRAME_HEADER_SIZE + frame.remaining());
+            }
+        }
+
+        /**
+         * @return 帧内容，没有完整的帧时返回 null
+         */
+        private ByteBuffer readFrame(int position, int limit) {
+            if (limit - position <= FRAME_HEADER_SIZE) {
+                return null;
+            }
+            int length = buffer.getInt(position);
+            if (length <= 0 || length > limit - position - FRAME_HEADER_SIZE) {
+                return null;
+            }
+            int crc = buffer.getInt(position + 4);
+            ByteBuffer frame = buffer.duplicate();
+            frame.limit(position + FRAME_HEADER_SIZE + length);
+            frame.position(position + FRAME_HEADER_SIZE);
+            CRC32 readCrc = new CRC32();
+            readCrc.update(frame.duplicate());
+            if ((int) readCrc.getValue() != crc) {
+                log.warn("log record spool frame crc mismatch, segment={}, position={}", path, position);
+                return null;
+            }
+            return frame.slice();
+        }
+    }
+
+    public enum AppendResult {
+        APPENDED,
+        /**
+         * 日志比一个段还大
+         */
+        TOO_LARGE,
+        /**
+         * 段数已经达到上限，需要等重放线程删除已经转发的段
+         */
+        FULL,
+    }
+
+    @Getter
+    public static final class Batch {
+        private final List<LogRecord> records;
+        private final long segmentId;
+        private final int position;
+
+        private Batch(List<LogRecord> records, long segmentId, int position) {
+            this.records = Collections.unmodifiableList(records);
+            this.segmentId = segmentId;
+            this.position = position;
+        }
+
+        public boolean isEmpty() {
+            return records.isEmpty();
+        }
+
+        public int size() {
+            return records.size();
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package logapi.util.store;
+
+import logapi.beans.LogRecord;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 最近日志的内存索引：日志按写入顺序编号，存放在固定大小的环形段里，总大小超过上限时整段淘汰最老的段
+ * <p>(bizType, bizNo) 和 (bizType, subBizType, bizNo) 各一份倒排表，倒排表是递增的 long 编号数组，
+ * 查询时二分找到第一条未淘汰的编号，从尾部往前取最多 limit 条，不扫描日志
+ * <p>每个倒排表挂在一个包含它编号的段上（新建时为当前段），淘汰一段时只检查挂在这段上的倒排表：全部淘汰的删除，
+ * 其余的挂到最后一个编号所在的段；每次都挂到更新的段，移动次数不超过倒排表跨越的段数，淘汰的开销与 bizNo 的总数无关
+ * <p>占用按字符串长度估算，不是精确值
+ *
+ * @author wulang
+ **/
+public class InMemoryLogRecordStore {
+
+    private static final char KEY_SEPARATOR = '\u0001';
+    private static final int RECORD_OVERHEAD_BYTES = 160;
+    private static final int KEY_OVERHEAD_BYTES = 96;
+
+    private final int segmentCapacity;
+    private final long maxBytes;
+    private final List<Segment> segments = new ArrayList<>();
+    private final Map<String, Postings> bizNoIndex = new HashMap<>();
+    private final Map<String, Postings> subBizNoIndex = new HashMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * 下一条日志的编号
+     */
+    private long nextSequence;
+    /**
+     * 最老的未淘汰日志编号，小于它的编号都已经淘汰
+     */
+    private long minSequence;
+    private long usedBytes;
+    private long evictedCount;
+
+    /**
+     * @param segmentCapacity 每段的日志条数，淘汰的粒度
+     * @param maxBytes        估算的最大占用，单位字节
+     */
+    public InMemoryLogRecordStore(int segmentCapacity, long maxBytes) {
+        if (segmentCapacity <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("segmentCapacity and maxBytes must be positive");
+        }
+        this.segmentCapacity = segmentCapacity;
+        this.maxBytes = maxBytes;
+    }
+
+    public void add(LogRecord logRecord) {
+        long bytes = estimateBytes(logRecord);
+        lock.writeLock().lock();
+        try {
+            Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+            if (segment == null || segment.size == segmentCapacity) {
+                segment = new Segment(nextSequence, segmentCapacity);
+                segments.add(segment);
+            }
+            long sequence = nextSequence++;
+            segment.records[segment.size++] = logRecord;
+            segment.bytes += bytes;
+            usedBytes += bytes;
+            addPosting(bizNoIndex, segment.bizNoKeys, bizNoKey(logRecord.getBizType(), logRecord.getBizNo()), sequence);
+            addPosting(subBizNoIndex, segment.subBizNoKeys,
+                    subBizNoKey(logRecord.getBizType(), logRecord.getSubBizType(), logRecord.getBizNo()), sequence);
+            while (usedBytes > maxBytes && segments.size() > 1) {
+                evictOldestSegment();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return 最新的在前，最多 limit 条
+     */
+    public List<LogRecord> query(String bizType, String bizNo, int limit) {
+        return query(bizNoIndex, bizNoKey(bizType, bizNo), limit);
+    }
+
+    /**
+     * @return 最新的在前，最多 limit 条
+     */
+    public List<LogRecord> query(String bizType, String subBizType, String bizNo, int limit) {
+        return query(subBizNoIndex, subBizNoKey(bizType, subBizType, bizNo), limit);
+    }
+
+    public long getUsedBytes() {
+        lock.readLock().lock();
+        try {
+            return usedBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return 内存里还没有淘汰的日志条数
+     */
+    public long size() {
+        lock.readLock().lock();
+        try {
+            return nextSequence - minSequence;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getEvictedCount() {
+        lock.readLock().lock();
+        try {
+            return evictedCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private List<LogRecord> query(Map<String, Postings> index, String key, int limit) {
+        lock.readLock().lock();
+        try {
+            Postings postings = index.get(key);
+            if (postings == null || limit <= 0) {
+                return Collections.emptyList();
+            }
+            int first = postings.firstAtLeast(minSequence);
+            int count = Math.min(limit, postings.size - first);
+            List<LogRecord> result = new ArrayList<>(count);
+            for (int i = postings.size - 1; i >= postings.size - count; i--) {
+                result.add(get(postings.sequences[i]));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 除最后一段外每段都是满的，按编号直接算出段的下标
+     */
+    private LogRecord get(long sequence) {
+        Segment segment = segmentOf(sequence);
+        return segment.records[(int) (sequence - segment.baseSequence)];
+    }
+
+    private Segment segmentOf(long sequence) {
+        return segments.get((int) ((sequence - segments.get(0).baseSequence) / segmentCapacity));
+    }
+
+    /**
+     * @param segmentKeys 当前段的倒排表归属列表，新建的倒排表归属于当前段
+     */
+    private void addPosting(Map<String, Postings> index, List<String> segmentKeys, String key, long sequence) {
+        Postings postings = index.get(key);
+        if (postings == null) {
+            postings = new Postings();
+            index.put(key, postings);
+            segmentKeys.add(key);
+            usedBytes += key.length() * 2L + KEY_OVERHEAD_BYTES + postings.sequences.length * 8L;
+        }
+        usedBytes += postings.add(sequence, minSequence);
+    }
+
+    private void evictOldestSegment() {
+        Segment segment = segments.remove(0);
+        usedBytes -= segment.bytes;
+        evictedCount += segment.size;
+        minSequence = segment.baseSequence + segment.size;
+        for (String key : segment.bizNoKeys) {
+            removeEvictedPostings(bizNoIndex, key, true);
+        }
+        for (String key : segment.subBizNoKeys) {
+            removeEvictedPostings(subBizNoIndex, key, false);
+        }
+    }
+
+    /**
+     * 全部被淘汰的倒排表直接删除，其余的移交给最后编号所在的段，已淘汰的编号在下次追加时再压缩
+     */
+    private void removeEvictedPostings(Map<String, Postings> index, String key, boolean bizNoKey) {
+        Postings postings = index.get(key);
+        long lastSequence = postings.sequences[postings.size - 1];
+        if (lastSequence < minSequence) {
+            index.remove(key);
+            usedBytes -= key.length() * 2L + KEY_OVERHEAD_BYTES + postings.sequences.length * 8L;
+            return;
+        }
+        Segment owner = segmentOf(lastSequence);
+        (bizNoKey ? owner.bizNoKeys : owner.subBizNoKeys).add(key);
+    }
+
+    private long estimateBytes(LogRecord logRecord) {
+        return RECORD_OVERHEAD_BYTES
+                + 2L * (length(logRecord.getApplicationName()) + length(logRecord.getBizType())
+                + length(logRecord.getSubBizType()) + length(logRecord.getBizNo()) + length(logRecord.getOperator())
+                + length(logRecord.getAction()) + length(logRecord.getExtra()) + length(logRecord.getIp())
+                + length(logRecord.getIdempotencyKey()));
+    }
+
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+
+    private static String bizNoKey(String bizType, String bizNo) {
+        return bizType + KEY_SEPARATOR + bizNo;
+    }
+
+    private static String subBizNoKey(String bizType, String subBizType, String bizNo) {
+        return bizType + KEY_SEPARATOR + subBizType + KEY_SEPARATOR + bizNo;
+    }
+
+    private static final class Segment {
+        private final long baseSequence;
+        private final LogRecord[] records;
+        /**
+         * 挂在这段上的倒排表 key，淘汰这段时检查
+         */
+        private final List<String> bizNoKeys = new ArrayList<>();
+        private final List<String> subBizNoKeys = new ArrayList<>();
+        private int size;
+        private long bytes;
+
+        private Segment(long baseSequence, int capacity) {
+            this.baseSequence = baseSequence;
+            this.records = new LogRecord[capacity];
+        }
+    }
+
+    /**
+     * 递增的日志编号数组
+     */
+    private static final class Postings {
+        private long[] sequences = new long[4];
+        private int size;
+
+        /**
+         * @return 数组扩容增加的字节数
+         */
+        private long add(long sequence, long minSequence) {
+            long grownBytes = 0;
+            if (size == sequences.length) {
+                int first = firstAtLeast(minSequence);
+                if (first > size / 2) {
+                    // 超过一半已经淘汰，压缩而不是扩容
+                    System.arraycopy(sequences, first, sequences, 0, size - first);
+                    size -= first;
+                } else {
+                    sequences = Arrays.copyOf(sequences, size * 2);
+                    grownBytes = size * 8L;
+                }
+            }
+            sequences[size++] = sequence;
+            return grownBytes;
+        }
+
+        /**
+         * @return 第一个不小于 sequence 的下标，都小于时返回 size
+         */
+        private int firstAtLeast(long sequence) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (sequences[mid] < sequence) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+}
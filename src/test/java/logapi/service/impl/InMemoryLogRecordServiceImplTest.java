@@ -0,0 +1,154 @@
+package logapi.service.impl;
+
+import logapi.beans.LogRecord;
+import logapi.service.ILogRecordService;
+import logapi.starter.LogRecordProperties;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InMemoryLogRecordServiceImplTest {
+
+    @Test
+    void evictedRecordsAreQueriedFromDelegate() {
+        StoredService delegate = new StoredService();
+        InMemoryLogRecordServiceImpl service = new InMemoryLogRecordServiceImpl(delegate, config(8, 4000));
+
+        for (int i = 0; i < 60; i++) {
+            service.record(newLogRecord(i, "order-1"));
+        }
+        assertTrue(service.getStore().getEvictedCount() > 0);
+        assertTrue(service.getStore().size() < 60);
+
+        // 内存里只剩最近的日志，不足 100 条时和存储合并，两边都有的只保留一条
+        List<LogRecord> logRecords = service.queryLog("order-1", "ORDER");
+        assertEquals(60, logRecords.size());
+        for (int i = 0; i < 60; i++) {
+            assertEquals(59L - i, logRecords.get(i).getId());
+        }
+        assertEquals(60, service.queryLogByBizNo("order-1", "ORDER", "B").size());
+    }
+
+    @Test
+    void memoryOnlyServiceKeepsLatestRecords() {
+        InMemoryLogRecordServiceImpl service = new InMemoryLogRecordServiceImpl(config(8, 4000));
+
+        for (int i = 0; i < 60; i++) {
+            service.record(newLogRecord(i, "order-1"));
+        }
+        List<LogRecord> logRecords = service.queryLog("order-1", "ORDER");
+        assertEquals(service.getStore().size(), logRecords.size());
+        assertEquals(59L, logRecords.get(0).getId());
+    }
+
+    @Test
+    void queriesRunWhileBatchRecording() throws Exception {
+        StoredService delegate = new StoredService();
+        InMemoryLogRecordServiceImpl service = new InMemoryLogRecordServiceImpl(delegate, config(16, 20000));
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread writer = new Thread(() -> {
+            try {
+                for (int batch = 0; batch < 300; batch++) {
+                    List<LogRecord> logRecords = new ArrayList<>();
+                    for (int i = 0; i < 10; i++) {
+                        logRecords.add(newLogRecord(batch * 10 + i, "order-" + i % 2));
+                    }
+                    service.batchRecord(logRecords);
+                }
+            } finally {
+                writing.set(false);
+            }
+        });
+        Thread reader = new Thread(() -> {
+            try {
+                while (writing.get()) {
+                    assertNewestFirstWithoutDuplicates(service.queryLog("order-0", "ORDER"));
+                    assertNewestFirstWithoutDuplicates(service.queryLogByBizNo("order-1", "ORDER", "B"));
+                }
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            }
+        });
+        reader.start();
+        writer.start();
+        writer.join(30000);
+        reader.join(30000);
+
+        assertNull(failure.get());
+        assertFalse(writer.isAlive());
+        List<LogRecord> logRecords = service.queryLog("order-0", "ORDER");
+        assertEquals(InMemoryLogRecordServiceImpl.QUERY_LIMIT, logRecords.size());
+        assertEquals(2998L, logRecords.get(0).getId());
+        assertNewestFirstWithoutDuplicates(logRecords);
+    }
+
+    private static void assertNewestFirstWithoutDuplicates(List<LogRecord> logRecords) {
+        assertTrue(logRecords.size() <= InMemoryLogRecordServiceImpl.QUERY_LIMIT);
+        Set<Object> ids = new HashSet<>();
+        for (int i = 0; i < logRecords.size(); i++) {
+            assertTrue(ids.add(logRecords.get(i).getId()));
+            if (i > 0) {
+                assertTrue((long) logRecords.get(i - 1).getId() > (long) logRecords.get(i).getId());
+            }
+        }
+    }
+
+    private static LogRecordProperties.MemoryStore config(int segmentCapacity, long maxBytes) {
+        LogRecordProperties.MemoryStore config = new LogRecordProperties.MemoryStore();
+        config.setSegmentCapacity(segmentCapacity);
+        config.setMaxBytes(maxBytes);
+        return config;
+    }
+
+    private static LogRecord newLogRecord(long id, String bizNo) {
+        LogRecord logRecord = new LogRecord();
+        logRecord.setId(id);
+        logRecord.setIdempotencyKey("key-" + id);
+        logRecord.setBizType("ORDER");
+        logRecord.setSubBizType("B");
+        logRecord.setBizNo(bizNo);
+        logRecord.setAction("修改了订单 " + id);
+        logRecord.setCreateTime(new Date(1600000000000L + id));
+        return logRecord;
+    }
+
+    /**
+     * 模拟存储：按写入顺序保存，查询时最新的在前，最多 100 条
+     */
+    private static final class StoredService implements ILogRecordService {
+
+        private final List<LogRecord> records = new ArrayList<>();
+
+        @Override
+        public synchronized void record(LogRecord logRecord) {
+            records.add(logRecord);
+        }
+
+        @Override
+        public List<LogRecord> queryLog(String bizNo, String type) {
+            return queryLogByBizNo(bizNo, type, null);
+        }
+
+        @Override
+        public synchronized List<LogRecord> queryLogByBizNo(String bizNo, String type, String subType) {
+            List<LogRecord> result = new ArrayList<>();
+            for (int i = records.size() - 1; i >= 0 && result.size() < InMemoryLogRecordServiceImpl.QUERY_LIMIT; i--) {
+                LogRecord logRecord = records.get(i);
+                if (logRecord.getBizNo().equals(bizNo) && logRecord.getBizType().equals(type)
+                        && (subType == null || subType.equals(logRecord.getSubBizType()))) {
+                    result.add(logRecord);
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package logapi.service.impl;
+
+import logapi.beans.LogRecord;
+import logapi.service.ILogRecordEnricher;
+import logapi.service.ILogRecordService;
+import logapi.service.ILogRecordSink;
+import logapi.starter.LogRecordProperties;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PipelineLogRecordServiceImplTest {
+
+    private static final long TIMEOUT_MILLIS = 10000;
+    private static final String STORE_THREAD = "log-record-pipeline-store";
+
+    @Test
+    void shutdownDrainsBufferedRecords() {
+        for (LogRecordProperties.WaitStrategyType waitStrategy : LogRecordProperties.WaitStrategyType.values()) {
+            RecordingService store = new RecordingService();
+            RecordingSink sink = new RecordingSink();
+            LogRecordProperties.Pipeline config = config(64, LogRecordProperties.RejectPolicy.BLOCK);
+            config.setWaitStrategy(waitStrategy);
+            config.setBatchSize(16);
+            store.delayMillis = 1;
+            PipelineLogRecordServiceImpl service = new PipelineLogRecordServiceImpl(store, config,
+                    Collections.emptyList(), Collections.singletonList(sink));
+
+            for (int i = 0; i < 300; i++) {
+                service.record(newLogRecord(i));
+            }
+            service.shutdown();
+
+            assertEquals(expectedBizNos(0, 300), store.bizNos());
+            assertEquals(expectedBizNos(0, 300), sink.bizNos());
+            assertTrue(sink.flushCount.get() > 0);
+            assertEquals(0, service.getPendingCount());
+            // 关闭之后的 record 在调用线程上同步写入
+            service.record(newLogRecord(300));
+            assertEquals(expectedBizNos(0, 301), store.bizNos());
+            assertEquals(expectedBizNos(0, 301), sink.bizNos());
+        }
+    }
+
+    @Test
+    void blockPolicyWaitsForFreeSlot() throws Exception {
+        RecordingService store = new RecordingService();
+        store.blockStoreThread = new CountDownLatch(1);
+        PipelineLogRecordServiceImpl service = new PipelineLogRecordServiceImpl(store,
+                config(4, LogRecordProperties.RejectPolicy.BLOCK), Collections.emptyList(), Collections.emptyList());
+
+        Thread producer = start(() -> {
+            for (int i = 0; i < 20; i++) {
+                service.record(newLogRecord(i));
+            }
+        });
+        // store 线程卡住，写满 4 个槽位后生产者等待空位
+        awaitTrue(() -> service.getPendingCount() == 4);
+        Thread.sleep(50);
+        assertTrue(producer.isAlive());
+        assertEquals(4, service.getPendingCount());
+
+        store.blockStoreThread.countDown();
+        producer.join(TIMEOUT_MILLIS);
+        assertFalse(producer.isAlive());
+        service.shutdown();
+
+        assertEquals(expectedBizNos(0, 20), store.bizNos());
+        assertEquals(0, service.getDroppedCount());
+    }
+
+    @Test
+    void dropPolicyCountsDroppedRecords() throws Exception {
+        RecordingService store = new RecordingService();
+        store.blockStoreThread = new CountDownLatch(1);
+        PipelineLogRecordServiceImpl service = new PipelineLogRecordServiceImpl(store,
+                config(4, LogRecordProperties.RejectPolicy.DROP), Collections.emptyList(), Collections.emptyList());
+
+        service.record(newLogRecord(0));
+        // 等 store 线程拿到第一条并卡住，之后的槽位只能被写满
+        awaitTrue(() -> store.blockedCount.get() == 1);
+        for (int i = 1; i < 20; i++) {
+            service.record(newLogRecord(i));
+        }
+        assertEquals(16, service.getDroppedCount());
+
+        store.blockStoreThread.countDown();
+        service.shutdown();
+        assertEquals(expectedBizNos(0, 4), store.bizNos());
+    }
+
+    @Test
+    void callerRunsPolicyWritesOnCallerThreadWhenFull() throws Exception {
+        RecordingService store = new RecordingService();
+        store.blockStoreThread = new CountDownLatch(1);
+        RecordingSink sink = new RecordingSink();
+        PipelineLogRecordServiceImpl service = new PipelineLogRecordServiceImpl(store,
+                config(4, LogRecordProperties.RejectPolicy.CALLER_RUNS), Collections.emptyList(), Collections.singletonList(sink));
+
+        service.record(newLogRecord(0));
+        awaitTrue(() -> store.blockedCount.get() == 1);
+        for (int i = 1; i < 10; i++) {
+            service.record(newLogRecord(i));
+        }
+        // 槽位 0-3 在队列里，之后的 6 条在调用线程上同步写入
+        assertEquals(expectedBizNos(4, 10), store.bizNos());
+
+        store.blockStoreThread.countDown();
+        service.shutdown();
+        List<String> stored = store.bizNos();
+        Collections.sort(stored);
+        List<String> expected = expectedBizNos(0, 10);
+        Collections.sort(expected);
+        assertEquals(expected, stored);
+        assertEquals(10, sink.bizNos().size());
+        assertEquals(0, service.getDroppedCount());
+    }
+
+    @Test
+    void handlerExceptionsDoNotStopPipeline() {
+        RecordingService store = new RecordingService();
+        store.failFirstBatches = 1;
+        RecordingSink failingSink = new RecordingSink();
+        failingSink.failBizNo = "order-3";
+        ILogRecordEnricher failingEnricher = (logRecord, context) -> {
+            if ("order-5".equals(logRecord.getBizNo())) {
+                throw new IllegalStateException("enrich failed");
+            }
+        };
+        LogRecordProperties.Pipeline config = config(16, LogRecordProperties.RejectPolicy.BLOCK);
+        config.setBatchSize(1);
+        PipelineLogRecordServiceImpl service = new PipelineLogRecordServiceImpl(store, config,
+                Collections.singletonList(failingEnricher), Collections.singletonList(failingSink));
+
+        for (int i = 0; i < 10; i++) {
+            service.record(newLogRecord(i));
+        }
+        LogRecord invalid = newLogRecord(10);
+        invalid.setAction(null);
+        service.record(invalid);
+        service.shutdown();
+
+        // 第一批落库失败只丢这一批，输出和 enricher 的异常不影响这条日志落库
+        assertEquals(expectedBizNos(1, 10), store.bizNos());
+        List<String> sinkExpected = expectedBizNos(0, 10);
+        sinkExpected.remove("order-3");
+        assertEquals(sinkExpected, failingSink.bizNos());
+        assertEquals(1, service.getInvalidCount());
+    }
+
+    @Test
+    void enricherCapturesOnCallerThread() {
+        RecordingService store = new RecordingService();
+        ILogRecordEnricher enricher = new ILogRecordEnricher() {
+            @Override
+            public Object capture() {
+                return Thread.currentThread().getName();
+            }
+
+            @Override
+            public void enrich(LogRecord logRecord, Object context) {
+                logRecord.setExtra(context + "->" + Thread.currentThread().getName());
+            }
+        };
+        PipelineLogRecordServiceImpl service = new PipelineLogRecordServiceImpl(store,
+                config(8, LogRecordProperties.RejectPolicy.BLOCK), Collections.singletonList(enricher), Collections.emptyList());
+
+        LogRecord logRecord = newLogRecord(0);
+        service.record(logRecord);
+        service.shutdown();
+
+        assertEquals(Thread.currentThread().getName() + "->log-record-pipeline-process", logRecord.getExtra());
+    }
+
+    private static LogRecordProperties.Pipeline config(int bufferSize, LogRecordProperties.RejectPolicy rejectPolicy) {
+        LogRecordProperties.Pipeline config = new LogRecordProperties.Pipeline();
+        config.setBufferSize(bufferSize);
+        config.setRejectPolicy(rejectPolicy);
+        config.setWaitStrategy(LogRecordProperties.WaitStrategyType.BLOCKING);
+        config.setShutdownTimeout(TIMEOUT_MILLIS);
+        return config;
+    }
+
+    private static LogRecord newLogRecord(int index) {
+        LogRecord logRecord = new LogRecord();
+        logRecord.setBizType("ORDER");
+        logRecord.setBizNo("order-" + index);
+        logRecord.setAction("修改了订单 " + index);
+        return logRecord;
+    }
+
+    private static List<String> expectedBizNos(int from, int to) {
+        List<String> bizNos = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            bizNos.add("order-" + i);
+        }
+        return bizNos;
+    }
+
+    private static Thread start(Runnable runnable) {
+        Thread thread = new Thread(runnable);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() - deadline < 0);
+            Thread.sleep(1);
+        }
+    }
+
+    private static final class RecordingService implements ILogRecordService {
+
+        private final List<LogRecord> records = Collections.synchronizedList(new ArrayList<>());
+        private final AtomicInteger blockedCount = new AtomicInteger();
+        /**
+         * 不为 null 时 store 线程在写入前等待，调用线程上的同步写入不等待
+         */
+        private volatile CountDownLatch blockStoreThread;
+        private volatile int failFirstBatches;
+        private volatile long delayMillis;
+
+        @Override
+        public void record(LogRecord logRecord) {
+            batchRecord(Collections.singletonList(logRecord));
+        }
+
+        @Override
+        public void batchRecord(List<LogRecord> logRecords) {
+            CountDownLatch latch = blockStoreThread;
+            if (latch != null && STORE_THREAD.equals(Thread.currentThread().getName())) {
+                blockedCount.incrementAndGet();
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (failFirstBatches > 0) {
+                failFirstBatches--;
+                throw new IllegalStateException("store unavailable");
+            }
+            if (delayMillis > 0) {
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            records.addAll(logRecords);
+        }
+
+        @Override
+        public List<LogRecord> queryLog(String bizNo, String type) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public List<LogRecord> queryLogByBizNo(String bizNo, String type, String subType) {
+            return Collections.emptyList();
+        }
+
+        private List<String> bizNos() {
+            List<String> bizNos = new ArrayList<>();
+            synchronized (records) {
+                for (LogRecord logRecord : records) {
+                    bizNos.add(logRecord.getBizNo());
+                }
+            }
+            return bizNos;
+        }
+    }
+
+    private static final class RecordingSink implements ILogRecordSink {
+
+        private final List<String> bizNos = Collections.synchronizedList(new ArrayList<>());
+        private final AtomicInteger flushCount = new AtomicInteger();
+        private volatile String failBizNo;
+
+        @Override
+        public void write(LogRecord logRecord, ByteBuffer serialized) {
+            if (logRecord.getBizNo().equals(failBizNo)) {
+                throw new IllegalStateException("sink unavailable");
+            }
+            bizNos.add(logRecord.getBizNo());
+        }
+
+        @Override
+        public void flush() {
+            flushCount.incrementAndGet();
+        }
+
+        private List<String> bizNos() {
+            synchronized (bizNos) {
+                return new ArrayList<>(bizNos);
+            }
+        }
+    }
+}
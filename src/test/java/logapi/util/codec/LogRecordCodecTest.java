@@ -0,0 +1,175 @@
+package logapi.util.codec;
+
+import logapi.beans.CodeVariableType;
+import logapi.beans.LogRecord;
+import org.junit.jupiter.api.Test;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LogRecordCodecTest {
+
+    @Test
+    void roundTripNullFields() {
+        LogRecord decoded = roundTrip(new LogRecord());
+
+        assertNull(decoded.getId());
+        assertNull(decoded.getApplicationName());
+        assertNull(decoded.getBizType());
+        assertNull(decoded.getSubBizType());
+        assertNull(decoded.getBizNo());
+        assertNull(decoded.getOperator());
+        assertNull(decoded.getAction());
+        assertFalse(decoded.isFail());
+        assertNull(decoded.getCreateTime());
+        assertNull(decoded.getExtra());
+        assertNull(decoded.getIp());
+        assertNull(decoded.getIdempotencyKey());
+        assertNull(decoded.getCodeVariable());
+    }
+
+    @Test
+    void roundTripAllFields() {
+        LogRecord logRecord = newLogRecord("order-1");
+        logRecord.setId(-42L);
+        logRecord.setFail(true);
+        logRecord.setCreateTime(new Date(1640995200123L));
+        logRecord.setExtra("");
+        logRecord.setIp("127.0.0.1");
+        logRecord.setIdempotencyKey("node-1-0");
+        Map<CodeVariableType, Object> codeVariable = new EnumMap<>(CodeVariableType.class);
+        codeVariable.put(CodeVariableType.ClassName, LogRecordCodecTest.class);
+        codeVariable.put(CodeVariableType.MethodName, "roundTripAllFields");
+        logRecord.setCodeVariable(codeVariable);
+
+        LogRecord decoded = roundTrip(logRecord);
+
+        assertEquals(-42L, decoded.getId());
+        assertEquals("app", decoded.getApplicationName());
+        assertEquals("ORDER", decoded.getBizType());
+        assertEquals("CREATE", decoded.getSubBizType());
+        assertEquals("order-1", decoded.getBizNo());
+        assertEquals("张三", decoded.getOperator());
+        assertEquals("创建了订单", decoded.getAction());
+        assertTrue(decoded.isFail());
+        assertEquals(logRecord.getCreateTime(), decoded.getCreateTime());
+        assertEquals("", decoded.getExtra());
+        assertEquals("127.0.0.1", decoded.getIp());
+        assertEquals("node-1-0", decoded.getIdempotencyKey());
+        assertEquals(codeVariable, decoded.getCodeVariable());
+    }
+
+    @Test
+    void roundTripKeepsIdType() {
+        LogRecord logRecord = newLogRecord("order-1");
+        logRecord.setId(Integer.MIN_VALUE);
+        assertEquals(Integer.MIN_VALUE, roundTrip(logRecord).getId());
+
+        logRecord.setId(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, roundTrip(logRecord).getId());
+
+        logRecord.setId("a-b-c");
+        assertEquals("a-b-c", roundTrip(logRecord).getId());
+    }
+
+    @Test
+    void roundTripNonBmpStrings() {
+        LogRecord logRecord = newLogRecord("订单😀𝄞");
+        logRecord.setAction("emoji 😀 at the end 🎉");
+        // 不成对的代理字符与 String#getBytes 一样替换为 '?'
+        logRecord.setExtra("broken \uD83D tail \uDE00");
+
+        LogRecord decoded = roundTrip(logRecord);
+
+        assertEquals("订单😀𝄞", decoded.getBizNo());
+        assertEquals(logRecord.getAction(), decoded.getAction());
+        assertEquals(new String(logRecord.getExtra().getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8), decoded.getExtra());
+    }
+
+    @Test
+    void dictionaryDefinesOnceAndReferencesAfterwards() {
+        LogRecordCodec.Dictionary encodeDictionary = new LogRecordCodec.Dictionary();
+        ByteBuffer first = ByteBuffer.allocate(256);
+        LogRecordCodec.encode(newLogRecord("order-1"), first, encodeDictionary);
+        first.flip();
+        int dictionarySize = encodeDictionary.size();
+        ByteBuffer second = ByteBuffer.allocate(256);
+        LogRecordCodec.encode(newLogRecord("order-2"), second, encodeDictionary);
+        second.flip();
+
+        assertEquals(4, dictionarySize);
+        assertEquals(dictionarySize, encodeDictionary.size());
+        assertTrue(second.remaining() < first.remaining());
+
+        LogRecordCodec.Dictionary decodeDictionary = new LogRecordCodec.Dictionary();
+        assertEquals("order-1", LogRecordCodec.decode(first.duplicate(), decodeDictionary).getBizNo());
+        LogRecord decoded = LogRecordCodec.decode(second.duplicate(), decodeDictionary);
+        assertEquals("order-2", decoded.getBizNo());
+        assertEquals("ORDER", decoded.getBizType());
+        assertEquals("张三", decoded.getOperator());
+
+        // 只有引用、没有定义的记录不能单独解码
+        assertThrows(IllegalStateException.class, () -> LogRecordCodec.decode(second.duplicate(), new LogRecordCodec.Dictionary()));
+        assertThrows(IllegalStateException.class, () -> LogRecordCodec.decode(second.duplicate()));
+    }
+
+    @Test
+    void overflowRollsBackDictionary() {
+        LogRecordCodec.Dictionary encodeDictionary = new LogRecordCodec.Dictionary();
+        LogRecord logRecord = newLogRecord("order-1");
+
+        assertThrows(BufferOverflowException.class, () -> LogRecordCodec.encode(logRecord, ByteBuffer.allocate(16), encodeDictionary));
+        assertEquals(0, encodeDictionary.size());
+
+        // 回滚之后重新编码仍然写入定义，解码端能够独立解码
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        LogRecordCodec.encode(logRecord, buffer, encodeDictionary);
+        buffer.flip();
+        LogRecord decoded = LogRecordCodec.decode(buffer, new LogRecordCodec.Dictionary());
+        assertEquals("ORDER", decoded.getBizType());
+        assertEquals("order-1", decoded.getBizNo());
+    }
+
+    @Test
+    void encodeGrowingReplacesSmallBuffer() {
+        LogRecord logRecord = newLogRecord("order-1");
+        StringBuilder action = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            action.append("修改了订单");
+        }
+        logRecord.setAction(action.toString());
+        ByteBuffer small = ByteBuffer.allocate(16);
+
+        ByteBuffer encoded = LogRecordCodec.encodeGrowing(logRecord, small);
+
+        assertNotSame(small, encoded);
+        assertEquals(logRecord.getAction(), LogRecordCodec.decode(encoded).getAction());
+        assertSame(encoded, LogRecordCodec.encodeGrowing(newLogRecord("order-2"), encoded));
+    }
+
+    private static LogRecord roundTrip(LogRecord logRecord) {
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        LogRecordCodec.encode(logRecord, buffer);
+        buffer.flip();
+        LogRecord decoded = LogRecordCodec.decode(buffer);
+        assertFalse(buffer.hasRemaining());
+        return decoded;
+    }
+
+    private static LogRecord newLogRecord(String bizNo) {
+        LogRecord logRecord = new LogRecord();
+        logRecord.setApplicationName("app");
+        logRecord.setBizType("ORDER");
+        logRecord.setSubBizType("CREATE");
+        logRecord.setBizNo(bizNo);
+        logRecord.setOperator("张三");
+        logRecord.setAction("创建了订单");
+        return logRecord;
+    }
+}
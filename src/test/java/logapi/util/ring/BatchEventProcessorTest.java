@@ -0,0 +1,144 @@
+package logapi.util.ring;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static logapi.util.ring.RingBufferTest.allWaitStrategies;
+import static logapi.util.ring.RingBufferTest.awaitTrue;
+import static logapi.util.ring.RingBufferTest.start;
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchEventProcessorTest {
+
+    @Test
+    void publishedBacklogIsHandledAsOneBatch() throws Exception {
+        RingBuffer<long[]> ringBuffer = new RingBuffer<>(() -> new long[1], 16, false, WaitStrategies.blocking());
+        List<List<Long>> batches = Collections.synchronizedList(new ArrayList<>());
+        List<Long> current = new ArrayList<>();
+        BatchEventProcessor<long[]> processor = new BatchEventProcessor<>("batch", ringBuffer, (event, sequence, endOfBatch) -> {
+            current.add(event[0]);
+            if (endOfBatch) {
+                batches.add(new ArrayList<>(current));
+                current.clear();
+            }
+        });
+        ringBuffer.setGatingSequences(processor.getSequence());
+        // 消费者启动前已经发布的事件一次性处理，只在最后一个事件上 endOfBatch
+        publish(ringBuffer, 0, 10);
+        Thread thread = start(processor);
+        awaitTrue(() -> processor.getSequence().get() == 9);
+
+        publish(ringBuffer, 10, 11);
+        awaitTrue(() -> processor.getSequence().get() == 10);
+        processor.halt();
+        thread.join(1000);
+
+        assertFalse(thread.isAlive());
+        assertEquals(2, batches.size());
+        assertEquals(values(0, 10), batches.get(0));
+        assertEquals(values(10, 11), batches.get(1));
+    }
+
+    @Test
+    void handlerExceptionDoesNotStopLaterEvents() throws Exception {
+        RingBuffer<long[]> ringBuffer = new RingBuffer<>(() -> new long[1], 8, true, WaitStrategies.sleeping());
+        List<Long> handled = Collections.synchronizedList(new ArrayList<>());
+        BatchEventProcessor<long[]> processor = new BatchEventProcessor<>("failing", ringBuffer, (event, sequence, endOfBatch) -> {
+            if (event[0] % 3 == 0) {
+                throw new IllegalStateException("fail " + event[0]);
+            }
+            handled.add(event[0]);
+        });
+        ringBuffer.setGatingSequences(processor.getSequence());
+        Thread thread = start(processor);
+
+        // 超过一圈，异常的事件也要推进序号，否则生产者会一直等待
+        for (long value = 0; value < 20; value++) {
+            long sequence = ringBuffer.next();
+            ringBuffer.get(sequence)[0] = value;
+            ringBuffer.publish(sequence);
+        }
+        awaitTrue(() -> processor.getSequence().get() == 19);
+        processor.halt();
+        thread.join(1000);
+
+        List<Long> expected = new ArrayList<>();
+        for (long value = 0; value < 20; value++) {
+            if (value % 3 != 0) {
+                expected.add(value);
+            }
+        }
+        assertEquals(expected, handled);
+    }
+
+    @Test
+    void downstreamStageWaitsForUpstream() throws Exception {
+        for (WaitStrategy waitStrategy : allWaitStrategies()) {
+            RingBuffer<long[]> ringBuffer = new RingBuffer<>(() -> new long[2], 8, true, waitStrategy);
+            BatchEventProcessor<long[]> upstream = new BatchEventProcessor<>("upstream", ringBuffer,
+                    (event, sequence, endOfBatch) -> event[1] = event[0] * 2);
+            List<Long> seen = Collections.synchronizedList(new ArrayList<>());
+            BatchEventProcessor<long[]> downstream = new BatchEventProcessor<>("downstream", ringBuffer,
+                    (event, sequence, endOfBatch) -> seen.add(event[1]), upstream.getSequence());
+            ringBuffer.setGatingSequences(downstream.getSequence());
+            Thread upstreamThread = start(upstream);
+            Thread downstreamThread = start(downstream);
+
+            for (long value = 0; value < 100; value++) {
+                long sequence = ringBuffer.next();
+                ringBuffer.get(sequence)[0] = value;
+                ringBuffer.publish(sequence);
+            }
+            awaitTrue(() -> downstream.getSequence().get() == 99);
+            upstream.halt();
+            downstream.halt();
+            upstreamThread.join(1000);
+            downstreamThread.join(1000);
+
+            // 下游只看到上游处理过的槽位
+            List<Long> expected = new ArrayList<>();
+            for (long value = 0; value < 100; value++) {
+                expected.add(value * 2);
+            }
+            assertEquals(expected, seen);
+            assertTrue(upstream.getSequence().get() >= downstream.getSequence().get());
+        }
+    }
+
+    @Test
+    void haltStopsIdleProcessor() throws Exception {
+        for (WaitStrategy waitStrategy : allWaitStrategies()) {
+            RingBuffer<long[]> ringBuffer = new RingBuffer<>(() -> new long[1], 4, false, waitStrategy);
+            BatchEventProcessor<long[]> processor = new BatchEventProcessor<>("idle", ringBuffer, (event, sequence, endOfBatch) -> {
+            });
+            ringBuffer.setGatingSequences(processor.getSequence());
+            Thread thread = start(processor);
+            Thread.sleep(20);
+
+            processor.halt();
+            thread.join(1000);
+
+            assertFalse(thread.isAlive());
+            assertEquals(-1, processor.getSequence().get());
+        }
+    }
+
+    private static void publish(RingBuffer<long[]> ringBuffer, long from, long to) {
+        for (long value = from; value < to; value++) {
+            long sequence = ringBuffer.next();
+            ringBuffer.get(sequence)[0] = value;
+            ringBuffer.publish(sequence);
+        }
+    }
+
+    private static List<Long> values(long from, long to) {
+        List<Long> values = new ArrayList<>();
+        for (long value = from; value < to; value++) {
+            values.add(value);
+        }
+        return values;
+    }
+}
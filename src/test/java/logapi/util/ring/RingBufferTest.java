@@ -0,0 +1,170 @@
+package logapi.util.ring;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RingBufferTest {
+
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    @Test
+    void rejectsBufferSizeNotPowerOfTwo() {
+        assertThrows(IllegalArgumentException.class, () -> new RingBuffer<long[]>(() -> new long[1], 6, false, WaitStrategies.sleeping()));
+    }
+
+    @Test
+    void singleProducerWrapAroundReusesSlots() {
+        RingBuffer<long[]> ringBuffer = new RingBuffer<>(() -> new long[1], 4, false, WaitStrategies.sleeping());
+        Sequence consumer = new Sequence(-1);
+        ringBuffer.setGatingSequences(consumer);
+
+        for (long lap = 0; lap < 3; lap++) {
+            for (int i = 0; i < 4; i++) {
+                long sequence = ringBuffer.tryNext();
+                assertEquals(lap * 4 + i, sequence);
+                ringBuffer.get(sequence)[0] = sequence;
+                ringBuffer.publish(sequence);
+            }
+            // 消费者没有前进，写满一圈后不能覆盖还没有处理的槽位
+            assertEquals(-1, ringBuffer.tryNext());
+            assertEquals(4, ringBuffer.getBacklog());
+            for (long sequence = lap * 4; sequence < lap * 4 + 4; sequence++) {
+                assertEquals(sequence, ringBuffer.get(sequence)[0]);
+            }
+            consumer.set(lap * 4 + 3);
+            assertEquals(0, ringBuffer.getBacklog());
+        }
+        // 同一个槽位的事件对象一直复用
+        assertSame(ringBuffer.get(0), ringBuffer.get(8));
+    }
+
+    @Test
+    void multiProducerAvailabilityTracksLap() {
+        RingBuffer<long[]> ringBuffer = new RingBuffer<>(() -> new long[1], 4, true, WaitStrategies.sleeping());
+        Sequence consumer = new Sequence(-1);
+        ringBuffer.setGatingSequences(consumer);
+
+        long first = ringBuffer.tryNext();
+        long second = ringBuffer.tryNext();
+        // 后申请的先发布，消费者只能读到连续发布的部分
+        ringBuffer.publish(second);
+        assertFalse(ringBuffer.isAvailable(first));
+        assertEquals(first - 1, ringBuffer.getHighestPublishedSequence(first, second));
+        ringBuffer.publish(first);
+        assertEquals(second, ringBuffer.getHighestPublishedSequence(first, second));
+
+        ringBuffer.publish(ringBuffer.tryNext());
+        ringBuffer.publish(ringBuffer.tryNext());
+        assertEquals(-1, ringBuffer.tryNext());
+        consumer.set(3);
+
+        // 下一圈复用槽位 0，上一圈的序号不再可用
+        long wrapped = ringBuffer.tryNext();
+        assertEquals(4, wrapped);
+        assertFalse(ringBuffer.isAvailable(wrapped));
+        ringBuffer.publish(wrapped);
+        assertTrue(ringBuffer.isAvailable(wrapped));
+        assertFalse(ringBuffer.isAvailable(0));
+    }
+
+    @Test
+    void producersBlockOnFullBufferUntilConsumed() throws Exception {
+        for (WaitStrategy waitStrategy : allWaitStrategies()) {
+            assertProducersBlockUntilConsumed(waitStrategy);
+        }
+    }
+
+    /**
+     * 缓冲区只有 4 个槽位，消费者放行之前生产者在 next() 里等待，放行后所有事件按生产者内的顺序各处理一次
+     */
+    private void assertProducersBlockUntilConsumed(WaitStrategy waitStrategy) throws Exception {
+        int producerCount = 3;
+        int eventsPerProducer = 2000;
+        RingBuffer<long[]> ringBuffer = new RingBuffer<>(() -> new long[2], 4, true, waitStrategy);
+        CountDownLatch release = new CountDownLatch(1);
+        long[] lastValues = new long[producerCount];
+        Arrays.fill(lastValues, -1);
+        AtomicBoolean ordered = new AtomicBoolean(true);
+        long[] consumed = new long[1];
+        BatchEventProcessor<long[]> processor = new BatchEventProcessor<>("test", ringBuffer, (event, sequence, endOfBatch) -> {
+            release.await();
+            int producer = (int) event[0];
+            if (event[1] != lastValues[producer] + 1) {
+                ordered.set(false);
+            }
+            lastValues[producer] = event[1];
+            consumed[0]++;
+        });
+        ringBuffer.setGatingSequences(processor.getSequence());
+        Thread consumerThread = start(processor);
+
+        List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < producerCount; p++) {
+            int producer = p;
+            producers.add(start(() -> {
+                for (int i = 0; i < eventsPerProducer; i++) {
+                    long sequence = ringBuffer.next();
+                    long[] event = ringBuffer.get(sequence);
+                    event[0] = producer;
+                    event[1] = i;
+                    ringBuffer.publish(sequence);
+                }
+            }));
+        }
+        // 消费者卡在第一个事件上，生产者最多申请一圈
+        awaitTrue(() -> ringBuffer.getCursor().get() == 3);
+        Thread.sleep(50);
+        assertEquals(3, ringBuffer.getCursor().get());
+        for (Thread producer : producers) {
+            assertTrue(producer.isAlive());
+        }
+
+        release.countDown();
+        for (Thread producer : producers) {
+            producer.join(TIMEOUT_MILLIS);
+            assertFalse(producer.isAlive());
+        }
+        long last = (long) producerCount * eventsPerProducer - 1;
+        awaitTrue(() -> processor.getSequence().get() == last);
+        processor.halt();
+        consumerThread.join(TIMEOUT_MILLIS);
+        assertFalse(consumerThread.isAlive());
+
+        assertEquals((long) producerCount * eventsPerProducer, consumed[0]);
+        assertTrue(ordered.get());
+        assertEquals(0, ringBuffer.getBacklog());
+    }
+
+    static List<WaitStrategy> allWaitStrategies() {
+        List<WaitStrategy> waitStrategies = new ArrayList<>();
+        waitStrategies.add(WaitStrategies.blocking());
+        waitStrategies.add(WaitStrategies.sleeping());
+        waitStrategies.add(WaitStrategies.yielding());
+        waitStrategies.add(WaitStrategies.busySpin());
+        return waitStrategies;
+    }
+
+    static Thread start(Runnable runnable) {
+        Thread thread = new Thread(runnable);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() - deadline < 0);
+            Thread.sleep(1);
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package logapi.util.spool;
+
+import logapi.beans.LogRecord;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LogRecordSpoolTest {
+
+    private static final int SMALL_SEGMENT_SIZE = 512;
+    private static final int LARGE_SEGMENT_SIZE = 64 * 1024;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void appendReadCommitAcrossRollover() throws IOException {
+        LogRecordSpool spool = new LogRecordSpool(directory, SMALL_SEGMENT_SIZE, false);
+        for (int i = 0; i < 50; i++) {
+            assertTrue(spool.append(newLogRecord(i)));
+        }
+        assertTrue(spool.getSegmentCount() > 1);
+
+        List<String> bizNos = new ArrayList<>();
+        LogRecordSpool.Batch batch;
+        while (!(batch = spool.read(7)).isEmpty()) {
+            for (LogRecord logRecord : batch.getRecords()) {
+                bizNos.add(logRecord.getBizNo());
+                assertEquals("ORDER", logRecord.getBizType());
+                assertEquals("张三", logRecord.getOperator());
+            }
+            spool.commit(batch);
+        }
+
+        assertEquals(expectedBizNos(0, 50), bizNos);
+        assertFalse(spool.hasPending());
+        // 读完的段在 commit 之后删除，只剩当前写入的段
+        assertEquals(1, spool.getSegmentCount());
+        assertEquals(1, countSegmentFiles());
+        spool.close();
+    }
+
+    @Test
+    void readWithoutCommitReturnsSameRecords() throws IOException {
+        LogRecordSpool spool = new LogRecordSpool(directory, SMALL_SEGMENT_SIZE, false);
+        for (int i = 0; i < 20; i++) {
+            spool.append(newLogRecord(i));
+        }
+
+        LogRecordSpool.Batch first = spool.read(15);
+        LogRecordSpool.Batch retry = spool.read(15);
+
+        assertEquals(bizNos(first), bizNos(retry));
+        assertEquals(first.getSegmentId(), retry.getSegmentId());
+        assertEquals(first.getPosition(), retry.getPosition());
+        spool.close();
+    }
+
+    @Test
+    void reopenFromMidSegmentCheckpoint() throws IOException {
+        LogRecordSpool spool = new LogRecordSpool(directory, LARGE_SEGMENT_SIZE, false);
+        List<String> idempotencyKeys = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            LogRecord logRecord = newLogRecord(i);
+            spool.append(logRecord);
+            idempotencyKeys.add(logRecord.getIdempotencyKey());
+        }
+        LogRecordSpool.Batch batch = spool.read(4);
+        spool.commit(batch);
+        spool.close();
+
+        // 重新打开后从段中间继续读，字典条目定义在已经提交的帧里，需要从段头重建
+        LogRecordSpool reopened = new LogRecordSpool(directory, LARGE_SEGMENT_SIZE, false);
+        assertEquals(spool.getNodeId(), reopened.getNodeId());
+        LogRecordSpool.Batch rest = reopened.read(100);
+
+        assertEquals(expectedBizNos(4, 10), bizNos(rest));
+        for (int i = 0; i < rest.size(); i++) {
+            LogRecord logRecord = rest.getRecords().get(i);
+            assertEquals("ORDER", logRecord.getBizType());
+            assertEquals("张三", logRecord.getOperator());
+            assertEquals(idempotencyKeys.get(i + 4), logRecord.getIdempotencyKey());
+        }
+
+        // 新写入的日志排在上次运行留下的日志之后
+        reopened.append(newLogRecord(10));
+        reopened.commit(rest);
+        assertEquals(expectedBizNos(10, 11), bizNos(reopened.read(100)));
+        reopened.close();
+    }
+
+    @Test
+    void truncatedLastFrameEndsSegment() throws IOException {
+        LogRecordSpool spool = new LogRecordSpool(directory, LARGE_SEGMENT_SIZE, false);
+        for (int i = 0; i < 3; i++) {
+            spool.append(newLogRecord(i));
+        }
+        spool.close();
+
+        // 模拟崩溃时只写了一半的最后一帧：长度和 CRC 已经写入，内容的后半段还没有落盘
+        Path segment = singleSegmentFile();
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            int position = 0;
+            for (int i = 0; i < 2; i++) {
+                file.seek(position);
+                position += 8 + file.readInt();
+            }
+            file.seek(position);
+            int length = file.readInt();
+            file.seek(position + 8 + length / 2);
+            file.write(new byte[length - length / 2]);
+        }
+
+        LogRecordSpool reopened = new LogRecordSpool(directory, LARGE_SEGMENT_SIZE, false);
+        LogRecordSpool.Batch batch = reopened.read(100);
+        assertEquals(expectedBizNos(0, 2), bizNos(batch));
+
+        // 损坏的帧之后的新日志写在新的段里，仍然可以读到
+        reopened.commit(batch);
+        reopened.append(newLogRecord(3));
+        assertEquals(expectedBizNos(3, 4), bizNos(reopened.read(100)));
+        reopened.close();
+    }
+
+    @Test
+    void fullSpoolRejectsUntilReplayed() throws IOException {
+        LogRecordSpool spool = new LogRecordSpool(directory, SMALL_SEGMENT_SIZE, false, 2 * SMALL_SEGMENT_SIZE);
+        int appended = 0;
+        LogRecordSpool.AppendResult result;
+        while ((result = spool.tryAppend(newLogRecord(appended))) == LogRecordSpool.AppendResult.APPENDED) {
+            appended++;
+        }
+        assertEquals(LogRecordSpool.AppendResult.FULL, result);
+        assertTrue(spool.isFull());
+        assertEquals(2, spool.getSegmentCount());
+        assertFalse(spool.append(newLogRecord(appended)));
+
+        // 转发完删除旧段后可以继续写入
+        LogRecordSpool.Batch batch = spool.read(1000);
+        assertEquals(expectedBizNos(0, appended), bizNos(batch));
+        spool.commit(batch);
+        assertEquals(LogRecordSpool.AppendResult.APPENDED, spool.tryAppend(newLogRecord(appended)));
+        assertEquals(expectedBizNos(appended, appended + 1), bizNos(spool.read(1000)));
+        spool.close();
+    }
+
+    @Test
+    void undecodableSegmentIsCopiedToDeadLetterAndSkipped() throws IOException {
+        LogRecordSpool spool = new LogRecordSpool(directory, LARGE_SEGMENT_SIZE, false);
+        for (int i = 0; i < 3; i++) {
+            spool.append(newLogRecord(i));
+        }
+        spool.close();
+
+        // 模拟其他版本写入的段：第二帧的版本号不同，CRC 是对的
+        Path segment = singleSegmentFile();
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            file.seek(0);
+            int position = 8 + file.readInt();
+            file.seek(position);
+            int length = file.readInt();
+            byte[] payload = new byte[length];
+            file.seek(position + 8);
+            file.readFully(payload);
+            payload[0] = 99;
+            CRC32 crc = new CRC32();
+            crc.update(ByteBuffer.wrap(payload));
+            file.seek(position + 4);
+            file.writeInt((int) crc.getValue());
+            file.seek(position + 8);
+            file.write(payload);
+        }
+
+        LogRecordSpool reopened = new LogRecordSpool(directory, LARGE_SEGMENT_SIZE, false);
+        // 先转发前面能解码的帧
+        LogRecordSpool.Batch batch = reopened.read(100);
+        assertEquals(expectedBizNos(0, 1), bizNos(batch));
+        reopened.commit(batch);
+
+        // 无法解码的帧所在的段整段跳过，空的 Batch 也要提交，不会一直卡在这一帧
+        LogRecordSpool.Batch skipped = reopened.read(100);
+        assertTrue(skipped.isEmpty());
+        reopened.commit(skipped);
+        assertTrue(Files.exists(directory.resolve("dead-letter").resolve(segment.getFileName() + ".corrupt")));
+
+        reopened.append(newLogRecord(3));
+        assertEquals(expectedBizNos(3, 4), bizNos(reopened.read(100)));
+        reopened.close();
+    }
+
+    @Test
+    void deadLetterCanBeReplayedAsSpool() throws IOException {
+        LogRecordSpool spool = new LogRecordSpool(directory, LARGE_SEGMENT_SIZE, false);
+        LogRecord rejected = newLogRecord(7);
+        spool.append(rejected);
+        assertTrue(spool.deadLetter(rejected));
+        spool.close();
+
+        LogRecordSpool deadLetter = new LogRecordSpool(directory.resolve("dead-letter"), LARGE_SEGMENT_SIZE, false);
+        LogRecordSpool.Batch batch = deadLetter.read(100);
+        assertEquals(expectedBizNos(7, 8), bizNos(batch));
+        // 幂等键保持不变，存储端仍然可以去重
+        assertEquals(rejected.getIdempotencyKey(), batch.getRecords().get(0).getIdempotencyKey());
+        deadLetter.close();
+    }
+
+    private Path singleSegmentFile() throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.seg")) {
+            Path segment = null;
+            for (Path path : stream) {
+                assertNull(segment);
+                segment = path;
+            }
+            assertNotNull(segment);
+            return segment;
+        }
+    }
+
+    private int countSegmentFiles() throws IOException {
+        int count = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.seg")) {
+            for (Path ignored : stream) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static List<String> bizNos(LogRecordSpool.Batch batch) {
+        List<String> bizNos = new ArrayList<>();
+        for (LogRecord logRecord : batch.getRecords()) {
+            bizNos.add(logRecord.getBizNo());
+        }
+        return bizNos;
+    }
+
+    private static List<String> expectedBizNos(int from, int to) {
+        List<String> bizNos = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            bizNos.add("order-" + i);
+        }
+        return bizNos;
+    }
+
+    private static LogRecord newLogRecord(int index) {
+        LogRecord logRecord = new LogRecord();
+        logRecord.setApplicationName("app");
+        logRecord.setBizType("ORDER");
+        logRecord.setBizNo("order-" + index);
+        logRecord.setOperator("张三");
+        logRecord.setAction("修改了订单 " + index);
+        return logRecord;
+    }
+}
@@ -0,0 +1,145 @@
+package logapi.util.store;
+
+import logapi.beans.LogRecord;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongPredicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InMemoryLogRecordStoreTest {
+
+    @Test
+    void evictsOldestSegmentsAtCapacity() {
+        InMemoryLogRecordStore store = new InMemoryLogRecordStore(10, 20000);
+        store.add(newLogRecord(-1, "old", "C"));
+        for (int i = 0; i < 1000; i++) {
+            store.add(newLogRecord(i, "order-" + i % 7, i % 2 == 0 ? "B" : "C"));
+            assertTrue(store.getUsedBytes() <= 20000);
+        }
+
+        // 整段淘汰，剩下的日志编号连续
+        long evicted = store.getEvictedCount();
+        assertTrue(evicted > 0);
+        assertEquals(0, evicted % 10);
+        assertEquals(1001, evicted + store.size());
+        assertTrue(store.query("ORDER", "old", 100).isEmpty());
+        assertTrue(store.query("ORDER", "C", "old", 100).isEmpty());
+
+        // 第一条是 old，日志 i 的编号是 i + 1
+        long firstKept = evicted - 1;
+        List<Long> expected = expectedIds(firstKept, 1000, id -> id % 7 == 3);
+        assertEquals(expected, ids(store.query("ORDER", "order-3", 1000)));
+        assertEquals(expectedIds(firstKept, 1000, id -> id % 7 == 3 && id % 2 == 0),
+                ids(store.query("ORDER", "B", "order-3", 1000)));
+        // 只取最新的 limit 条
+        assertEquals(expected.subList(0, 5), ids(store.query("ORDER", "order-3", 5)));
+    }
+
+    @Test
+    void evictedPostingsDoNotGrowUsedBytes() {
+        InMemoryLogRecordStore store = new InMemoryLogRecordStore(16, 50000);
+        // 每个 bizNo 只出现一次，淘汰后倒排表也要删除，占用不能一直增长
+        for (int i = 0; i < 20000; i++) {
+            store.add(newLogRecord(i, "order-" + i, "B"));
+            assertTrue(store.getUsedBytes() <= 50000);
+        }
+        assertEquals(20000, store.getEvictedCount() + store.size());
+        assertTrue(store.query("ORDER", "order-0", 100).isEmpty());
+        assertEquals(Collections.singletonList(19999L), ids(store.query("ORDER", "order-19999", 100)));
+    }
+
+    @Test
+    void queriesSeeConsistentResultsWhileWriting() throws Exception {
+        InMemoryLogRecordStore store = new InMemoryLogRecordStore(32, 400000);
+        int total = 50000;
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread writer = new Thread(() -> {
+            try {
+                for (int i = 0; i < total; i++) {
+                    store.add(newLogRecord(i, "order-" + i % 5, i % 2 == 0 ? "B" : "C"));
+                }
+            } finally {
+                writing.set(false);
+            }
+        });
+        List<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < 2; r++) {
+            String bizNo = "order-" + r;
+            readers.add(new Thread(() -> {
+                try {
+                    while (writing.get()) {
+                        assertNewestFirst(store.query("ORDER", bizNo, 100), bizNo, 5);
+                        assertNewestFirst(store.query("ORDER", "B", bizNo, 20), bizNo, 10);
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        writer.start();
+        writer.join(30000);
+        for (Thread reader : readers) {
+            reader.join(30000);
+        }
+
+        assertNull(failure.get());
+        assertFalse(writer.isAlive());
+        assertTrue(store.getEvictedCount() > 0);
+        assertEquals(total, store.getEvictedCount() + store.size());
+        assertEquals(100, store.query("ORDER", "order-0", 100).size());
+    }
+
+    /**
+     * 同一个 bizNo 的编号间隔固定，任何时刻查到的都是连续的、最新的在前
+     */
+    private static void assertNewestFirst(List<LogRecord> logRecords, String bizNo, int step) {
+        for (int i = 0; i < logRecords.size(); i++) {
+            LogRecord logRecord = logRecords.get(i);
+            assertEquals(bizNo, logRecord.getBizNo());
+            if (i > 0) {
+                assertEquals((long) logRecords.get(i - 1).getId() - step, (long) logRecord.getId());
+            }
+        }
+    }
+
+    /**
+     * [firstKept, total) 里满足条件的日志 id，最新的在前
+     */
+    private static List<Long> expectedIds(long firstKept, long total, LongPredicate filter) {
+        List<Long> ids = new ArrayList<>();
+        for (long id = total - 1; id >= firstKept; id--) {
+            if (filter.test(id)) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    private static List<Long> ids(List<LogRecord> logRecords) {
+        List<Long> ids = new ArrayList<>();
+        for (LogRecord logRecord : logRecords) {
+            ids.add((Long) logRecord.getId());
+        }
+        return ids;
+    }
+
+    private static LogRecord newLogRecord(long id, String bizNo, String subBizType) {
+        LogRecord logRecord = new LogRecord();
+        logRecord.setId(id);
+        logRecord.setBizType("ORDER");
+        logRecord.setSubBizType(subBizType);
+        logRecord.setBizNo(bizNo);
+        logRecord.setAction("修改了订单 " + id);
+        return logRecord;
+    }
+}